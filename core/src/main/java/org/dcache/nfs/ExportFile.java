@@ -43,6 +43,7 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 import org.dcache.nfs.v4.xdr.layouttype4;
+import org.dcache.utils.GuavaCacheMXBeanImpl;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Throwables.throwIfInstanceOf;
@@ -55,7 +56,7 @@ public class ExportFile {
 
     private static final Logger _log = LoggerFactory.getLogger(ExportFile.class);
 
-    private volatile ImmutableMultimap<Integer, FsExport> _exports;
+    private volatile ExportIndex _exports;
     private final Callable<URI[]> _exportFileProvider;
 
     /**
@@ -96,6 +97,7 @@ public class ExportFile {
             }
         };
         rescan();
+        new GuavaCacheMXBeanImpl("export-clients", () -> _exports.getClientCache());
     }
 
     public ExportFile(URI uri) throws IOException {
@@ -103,17 +105,19 @@ public class ExportFile {
             return new URI[]{uri};
         };
         rescan();
+        new GuavaCacheMXBeanImpl("export-clients", () -> _exports.getClientCache());
     }
 
     public ExportFile(Reader reader) throws IOException {
         _exportFileProvider = () -> {
             throw new IllegalStateException("exports uri not set, rescan impossible");
         };
-        _exports = parse(reader);
+        _exports = new ExportIndex(parse(reader));
+        new GuavaCacheMXBeanImpl("export-clients", () -> _exports.getClientCache());
     }
 
     public Stream<FsExport> getExports() {
-        return _exports.values().stream();
+        return _exports.getExports().values().stream();
     }
 
     private static ImmutableMultimap<Integer, FsExport> parse(Reader reader) throws IOException {
@@ -305,21 +309,16 @@ public class ExportFile {
     }
 
     public FsExport getExport(int index, InetAddress client) {
-        for (FsExport export : _exports.get(index)) {
-            if (export.isAllowed(client)) {
-                return export;
-            }
-        }
-        return null;
+        return _exports.getExport(index, client);
     }
 
     public Stream<FsExport> exportsFor(InetAddress client) {
-        return _exports.values().stream().filter(e -> e.isAllowed(client));
+        return _exports.exportsFor(client).stream();
     }
 
     public final void rescan() throws IOException {
         try {
-            _exports = parse(_exportFileProvider.call());
+            _exports = new ExportIndex(parse(_exportFileProvider.call()));
         } catch (Exception e) {
             throwIfInstanceOf(e, IOException.class);
             throwIfUnchecked(e);
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.dcache.nfs.InetAddressMatcher.IpAddressMatcher;
+
+/**
+ * Compiled form of the export table, used to find exports matching a client
+ * without evaluating every export entry.
+ * <p>
+ * Entries with IP address or subnet rules are stored in a binary trie, one
+ * for IPv4 and one for IPv6, where each node keeps exports which subnet ends
+ * at that node. All subnets containing an address are found by walking the
+ * address bits once. Host name and wildcard rules are evaluated for each
+ * client. The resolved list of exports is cached per client address.
+ * <p>
+ * An index is immutable and is replaced as a whole on export table rescan.
+ */
+final class ExportIndex {
+
+    private static final int MAX_CLIENTS = 8192;
+
+    /**
+     * Time after which matching of host name based rules is re-evaluated.
+     */
+    private static final long CLIENT_CACHE_LIFETIME = 60;
+
+    private final ImmutableMultimap<Integer, FsExport> exports;
+
+    /**
+     * All exports in the order of export table.
+     */
+    private final FsExport[] ordered;
+
+    private final TrieNode ipv4 = new TrieNode();
+    private final TrieNode ipv6 = new TrieNode();
+
+    /**
+     * Position of exports which are not in any trie.
+     */
+    private final int[] unindexed;
+
+    private final LoadingCache<InetAddress, List<FsExport>> byClient;
+
+    ExportIndex(ImmutableMultimap<Integer, FsExport> exports) {
+        this.exports = exports;
+        this.ordered = exports.values().toArray(new FsExport[0]);
+
+        int[] others = new int[ordered.length];
+        int otherCount = 0;
+        for (int i = 0; i < ordered.length; i++) {
+            InetAddressMatcher matcher = ordered[i].getClientMatcher();
+            if (matcher instanceof IpAddressMatcher && ((IpAddressMatcher) matcher).getMask() > 0) {
+                IpAddressMatcher ipMatcher = (IpAddressMatcher) matcher;
+                byte[] net = ipMatcher.getSubnet();
+                TrieNode root = net.length == 4 ? ipv4 : ipv6;
+                root.insert(net, ipMatcher.getMask(), i);
+            } else {
+                // subnets without mask bits keep their own matching rules
+                others[otherCount++] = i;
+            }
+        }
+        unindexed = Arrays.copyOf(others, otherCount);
+
+        byClient = CacheBuilder.newBuilder()
+                .maximumSize(MAX_CLIENTS)
+                .expireAfterWrite(CLIENT_CACHE_LIFETIME, TimeUnit.SECONDS)
+                .recordStats()
+                .build(CacheLoader.from(this::resolve));
+    }
+
+    /**
+     * Returns the cache of exports resolved per client.
+     */
+    Cache<InetAddress, List<FsExport>> getClientCache() {
+        return byClient;
+    }
+
+    ImmutableMultimap<Integer, FsExport> getExports() {
+        return exports;
+    }
+
+    /**
+     * Returns exports allowed for the given client in export table order.
+     */
+    List<FsExport> exportsFor(InetAddress client) {
+        return byClient.getUnchecked(client);
+    }
+
+    /**
+     * Returns the most specific export with the given index allowed for the
+     * client or {@code null}.
+     */
+    FsExport getExport(int index, InetAddress client) {
+        for (FsExport export : exportsFor(client)) {
+            if (export.getIndex() == index) {
+                return export;
+            }
+        }
+        return null;
+    }
+
+    private List<FsExport> resolve(InetAddress client) {
+
+        byte[] address = client.getAddress();
+        TrieNode node = address.length == 4 ? ipv4 : ipv6;
+
+        List<Integer> matched = new ArrayList<>();
+        for (int bit = 0; node != null; bit++) {
+            node.collect(matched);
+            if (bit == address.length * 8) {
+                break;
+            }
+            node = node.child(bitAt(address, bit));
+        }
+
+        for (int i : unindexed) {
+            if (ordered[i].isAllowed(client)) {
+                matched.add(i);
+            }
+        }
+
+        matched.sort(null);
+        ImmutableList.Builder<FsExport> result = ImmutableList.builder();
+        for (int i : matched) {
+            result.add(ordered[i]);
+        }
+        return result.build();
+    }
+
+    private static int bitAt(byte[] bytes, int bit) {
+        return (bytes[bit >>> 3] >>> (7 - (bit & 7))) & 1;
+    }
+
+    private static class TrieNode {
+
+        private final TrieNode[] children = new TrieNode[2];
+        private int[] exports = new int[0];
+
+        void insert(byte[] net, int mask, int export) {
+            TrieNode node = this;
+            for (int bit = 0; bit < mask; bit++) {
+                int b = bitAt(net, bit);
+                if (node.children[b] == null) {
+                    node.children[b] = new TrieNode();
+                }
+                node = node.children[b];
+            }
+            node.exports = Arrays.copyOf(node.exports, node.exports.length + 1);
+            node.exports[node.exports.length - 1] = export;
+        }
+
+        TrieNode child(int bit) {
+            return children[bit];
+        }
+
+        void collect(List<Integer> matched) {
+            for (int export : exports) {
+                matched.add(export);
+            }
+        }
+    }
+}
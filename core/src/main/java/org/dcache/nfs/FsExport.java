@@ -199,6 +199,10 @@ public class FsExport {
         return _clientMatcher.getPattern();
     }
 
+    InetAddressMatcher getClientMatcher() {
+        return _clientMatcher;
+    }
+
     public IO ioMode() {
         return _rw;
     }
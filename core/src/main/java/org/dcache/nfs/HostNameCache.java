@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.dcache.utils.GuavaCacheMXBeanImpl;
+
+/**
+ * A cache of forward and reverse name service lookups used by host name
+ * and wildcard based export rules.
+ *
+ * Lookups never block the caller: entries are resolved and refreshed in
+ * the background, and until a name is resolved for the first time it is
+ * treated as unknown. Unknown hosts are cached as well. A failed refresh
+ * does not replace a known result, as the resolver can't tell a non existing
+ * host from an unavailable name service. Thus, if name service becomes
+ * unavailable the last known result is used for at most {@code expire} time
+ * after it was resolved.
+ */
+public class HostNameCache {
+
+    private static final HostNameCache DEFAULT = new HostNameCache(HostResolver.SYSTEM,
+            60, 600, TimeUnit.SECONDS,
+            Executors.newFixedThreadPool(2,
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("export-dns-%d")
+                            .setDaemon(true)
+                            .build()),
+            true);
+
+    private static final InetAddress[] NO_ADDRESSES = new InetAddress[0];
+
+    private final HostResolver _resolver;
+    private final Executor _executor;
+    private final long _expireNanos;
+    private final LoadingCache<String, Resolved<InetAddress[]>> _addressesByName;
+    private final LoadingCache<InetAddress, Resolved<String>> _nameByAddress;
+
+    /**
+     * Keys, which are being resolved in background for the first time.
+     */
+    private final Set<Object> _loading = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create a new cache.
+     *
+     * @param resolver name service to use.
+     * @param refresh time after which entries are refreshed in background.
+     * @param expire maximal time a result is used without successful refresh.
+     * @param unit time unit of {@code refresh} and {@code expire}.
+     * @param executor executor used to resolve names in background.
+     */
+    public HostNameCache(HostResolver resolver, long refresh, long expire, TimeUnit unit, Executor executor) {
+        this(resolver, refresh, expire, unit, executor, false);
+    }
+
+    private HostNameCache(HostResolver resolver, long refresh, long expire, TimeUnit unit,
+            Executor executor, boolean registerMXBean) {
+        _resolver = resolver;
+        _executor = executor;
+        _expireNanos = unit.toNanos(expire);
+
+        _addressesByName = CacheBuilder.newBuilder()
+                .refreshAfterWrite(refresh, unit)
+                .maximumSize(8192)
+                .recordStats()
+                .build(CacheLoader.asyncReloading(new CacheLoader<String, Resolved<InetAddress[]>>() {
+                    @Override
+                    public Resolved<InetAddress[]> load(String host) {
+                        try {
+                            return new Resolved<>(_resolver.getAllByName(host));
+                        } catch (UnknownHostException e) {
+                            return new Resolved<>(NO_ADDRESSES);
+                        }
+                    }
+
+                    @Override
+                    public ListenableFuture<Resolved<InetAddress[]>> reload(String host, Resolved<InetAddress[]> oldValue) {
+                        Resolved<InetAddress[]> newValue = load(host);
+                        if (newValue.value.length == 0 && oldValue.value.length != 0 && !isExpired(oldValue)) {
+                            // keep the last known addresses until they expire
+                            return Futures.immediateFuture(oldValue);
+                        }
+                        return Futures.immediateFuture(newValue);
+                    }
+                }, executor));
+
+        _nameByAddress = CacheBuilder.newBuilder()
+                .refreshAfterWrite(refresh, unit)
+                .maximumSize(8192)
+                .recordStats()
+                .build(CacheLoader.asyncReloading(new CacheLoader<InetAddress, Resolved<String>>() {
+                    @Override
+                    public Resolved<String> load(InetAddress address) {
+                        return new Resolved<>(_resolver.getHostName(address));
+                    }
+
+                    @Override
+                    public ListenableFuture<Resolved<String>> reload(InetAddress address, Resolved<String> oldValue) {
+                        Resolved<String> newValue = load(address);
+                        String unresolved = address.getHostAddress();
+                        if (newValue.value.equals(unresolved) && !oldValue.value.equals(unresolved)
+                                && !isExpired(oldValue)) {
+                            // keep the last known name until it expires
+                            return Futures.immediateFuture(oldValue);
+                        }
+                        return Futures.immediateFuture(newValue);
+                    }
+                }, executor));
+
+        if (registerMXBean) {
+            new GuavaCacheMXBeanImpl("export-dns-forward", _addressesByName);
+            new GuavaCacheMXBeanImpl("export-dns-reverse", _nameByAddress);
+        }
+    }
+
+    /**
+     * Get process wide cache backed by system resolver.
+     */
+    public static HostNameCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Start resolution of a given host in background, so that it is
+     * available by the time the first request has to be matched.
+     *
+     * @param host the name of the host.
+     */
+    public void prefetch(String host) {
+        getIfResolved(_addressesByName, host);
+    }
+
+    /**
+     * Get all known addresses of a host. Returns an empty array if host is
+     * unknown or not resolved yet.
+     *
+     * @param host the name of the host.
+     * @return array of addresses of the host.
+     */
+    public InetAddress[] getAllByName(String host) {
+        Resolved<InetAddress[]> addresses = getIfResolved(_addressesByName, host);
+        return addresses == null ? NO_ADDRESSES : addresses.value;
+    }
+
+    /**
+     * Get host name of a given address.
+     *
+     * @param address the address to look up.
+     * @return the host name or textual representation of the address, if
+     * the address is unknown or not resolved yet.
+     */
+    public String getHostName(InetAddress address) {
+        Resolved<String> name = getIfResolved(_nameByAddress, address);
+        return name == null ? address.getHostAddress() : name.value;
+    }
+
+    /**
+     * Get cached result without blocking. If the key is not cached, it's
+     * resolved in background.
+     *
+     * @return cached result or {@code null}, if key is not resolved yet.
+     */
+    private <K, V> Resolved<V> getIfResolved(LoadingCache<K, Resolved<V>> cache, K key) {
+        Resolved<V> value = cache.getIfPresent(key);
+        if (value == null && _loading.add(key)) {
+            try {
+                _executor.execute(() -> {
+                    try {
+                        cache.getUnchecked(key);
+                    } finally {
+                        _loading.remove(key);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                _loading.remove(key);
+            }
+            // the executor may have resolved it already
+            value = cache.getIfPresent(key);
+        }
+        return value;
+    }
+
+    private boolean isExpired(Resolved<?> resolved) {
+        return System.nanoTime() - resolved.time > _expireNanos;
+    }
+    /**
+     * Check whether given host resolves into given address.
+     *
+     * @param host the name of the host.
+     * @param address the address to check.
+     * @return true if address is one of the host's addresses.
+     */
+    public boolean resolvesTo(String host, InetAddress address) {
+        for (InetAddress addr : getAllByName(host)) {
+            if (addr.equals(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Discard all cached entries.
+     */
+    public void invalidateAll() {
+        _addressesByName.invalidateAll();
+        _nameByAddress.invalidateAll();
+    }
+
+    /**
+     * Result of a lookup with the time it was obtained.
+     */
+    private static class Resolved<T> {
+
+        private final T value;
+        private final long time = System.nanoTime();
+
+        Resolved(T value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Name service used by host name based export rules. Allows to replace
+ * the system resolver, e.g. in tests which must not depend on network.
+ */
+public interface HostResolver {
+
+    /**
+     * Resolver which uses JVM provided name service.
+     */
+    HostResolver SYSTEM = new HostResolver() {
+        @Override
+        public InetAddress[] getAllByName(String host) throws UnknownHostException {
+            return InetAddress.getAllByName(host);
+        }
+
+        @Override
+        public String getHostName(InetAddress address) {
+            return address.getHostName();
+        }
+    };
+
+    /**
+     * Get all addresses of a given host.
+     *
+     * @param host the name of the host.
+     * @return array of all addresses of the host.
+     * @throws UnknownHostException if no address for the host could be found.
+     */
+    InetAddress[] getAllByName(String host) throws UnknownHostException;
+
+    /**
+     * Get the host name for a given address. If the name can't be resolved,
+     * the textual representation of the address is returned.
+     *
+     * @param address the address to look up.
+     * @return the host name of the address.
+     */
+    String getHostName(InetAddress address);
+}
@@ -50,6 +50,14 @@ public abstract class InetAddressMatcher implements Predicate<InetAddress> {
     }
 
     public static InetAddressMatcher forPattern(String s) throws UnknownHostException {
+        return forPattern(s, HostNameCache.getDefault());
+    }
+
+    /**
+     * Create matcher for a given pattern. Host name and wildcard patterns
+     * use provided {@link HostNameCache} to resolve addresses.
+     */
+    public static InetAddressMatcher forPattern(String s, HostNameCache hostNameCache) throws UnknownHostException {
 
         String hostAndMask[] = s.split("/");
         checkArgument(hostAndMask.length < 3, "Invalid host specification: " + s);
@@ -57,9 +65,9 @@ public abstract class InetAddressMatcher implements Predicate<InetAddress> {
         if (!isInetAddress(hostAndMask[0])) {
             checkArgument (hostAndMask.length == 1, "Invalid host specification (hostname with mask): " + s);
             if (s.indexOf('*') != -1 || s.indexOf('?') != -1) {
-                return new RegexpNameMatcher(toRegExp(s));
+                return new RegexpNameMatcher(toRegExp(s), hostNameCache);
             } else {
-                return new HostNameMatcher(s);
+                return new HostNameMatcher(s, hostNameCache);
             }
         }
 
@@ -154,6 +162,14 @@ public abstract class InetAddressMatcher implements Predicate<InetAddress> {
             }
             return (ipAsLong0 ^ netAsLong0) >> (IPv6_HALF_MASK - mask) == 0;
         }
+
+        byte[] getSubnet() {
+            return netBytes;
+        }
+
+        int getMask() {
+            return mask;
+        }
     }
 
     private static String toRegExp(String s) {
@@ -163,39 +179,42 @@ public abstract class InetAddressMatcher implements Predicate<InetAddress> {
     public static class RegexpNameMatcher extends InetAddressMatcher {
 
         private final Pattern regexpPattern;
+        private final HostNameCache hostNameCache;
 
         public RegexpNameMatcher(String pattern) {
+            this(pattern, HostNameCache.getDefault());
+        }
+
+        public RegexpNameMatcher(String pattern, HostNameCache hostNameCache) {
             super(pattern);
             this.regexpPattern = Pattern.compile(pattern);
+            this.hostNameCache = hostNameCache;
         }
 
         @Override
         public boolean apply(InetAddress ip) {
-            return regexpPattern.matcher(ip.getHostName()).matches();
+            return regexpPattern.matcher(hostNameCache.getHostName(ip)).matches();
         }
     }
 
     public static class HostNameMatcher extends InetAddressMatcher {
 
+        private final HostNameCache hostNameCache;
+
         HostNameMatcher(String hostname) throws UnknownHostException {
+            this(hostname, HostNameCache.getDefault());
+        }
+
+        HostNameMatcher(String hostname, HostNameCache hostNameCache) {
             super(hostname);
+            this.hostNameCache = hostNameCache;
+            // resolve ahead of the first request
+            hostNameCache.prefetch(hostname);
         }
 
         @Override
         public boolean apply(InetAddress ip) {
-            try {
-                // jvm caches DNS results. We are fine to query on each request
-                InetAddress[] addrs = InetAddress.getAllByName(getPattern());
-                for(InetAddress addr: addrs) {
-                    if (addr.equals(ip)) {
-                        return true;
-                    }
-                }
-            }catch (UnknownHostException e) {
-                return false;
-            }
-
-            return false;
+            return hostNameCache.resolvesTo(getPattern(), ip);
         }
     }
 }
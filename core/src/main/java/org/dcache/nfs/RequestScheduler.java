@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import org.dcache.nfs.v3.xdr.nfs3_prot;
+import org.dcache.nfs.v4.xdr.COMPOUND4args;
+import org.dcache.nfs.v4.xdr.COMPOUND4res;
+import org.dcache.nfs.v4.xdr.nfs4_prot;
+import org.dcache.nfs.v4.xdr.nfs_resop4;
+import org.dcache.oncrpc4j.rpc.OncRpcException;
+import org.dcache.oncrpc4j.rpc.RpcCall;
+import org.dcache.oncrpc4j.rpc.RpcDispatchable;
+import org.dcache.oncrpc4j.xdr.XdrAble;
+import org.dcache.oncrpc4j.xdr.XdrDecodingStream;
+import org.dcache.oncrpc4j.xdr.XdrEncodingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A scheduling layer in front of NFS server, which shares processing
+ * threads fairly between clients.
+ * <p>
+ * Requests are put into per client queues. Clients are served in weighted
+ * round robin order: up to {@code weight} requests of a client are taken
+ * before the next client is served. A client with {@code maxConcurrent}
+ * requests in progress is skipped until one of them is done. If client's queue
+ * or the total number of queued requests reaches its limit, NFS requests are
+ * rejected with {@code NFS4ERR_DELAY} or {@code NFS3ERR_JUKEBOX}, which tells
+ * the client to retry later. NULL procedure and requests of other programs
+ * are processed by the calling thread without queuing.
+ * <p>
+ * A request counts as in progress while the wrapped server's
+ * {@code dispatchOncRpcCall} is running. If the server completes requests
+ * asynchronously, like {@code NFSServerV41} with non-blocking file system,
+ * the time after dispatch returns is not accounted.
+ */
+public class RequestScheduler implements RpcDispatchable, RequestSchedulerMXBean {
+
+    private static final Logger _log = LoggerFactory.getLogger(RequestScheduler.class);
+
+    /**
+     * Queue requests per client IP address.
+     */
+    public static final Function<RpcCall, Object> BY_CLIENT_ADDRESS
+            = call -> call.getTransport().getRemoteSocketAddress().getAddress();
+
+    /**
+     * Queue requests per set of user principals.
+     */
+    public static final Function<RpcCall, Object> BY_PRINCIPAL
+            = call -> ImmutableSet.copyOf(call.getCredential().getSubject().getPrincipals());
+
+    /**
+     * Number of post_op_attr and pre_op_attr fields in NFSv3 failure result
+     * of each procedure.
+     */
+    private static final int[] NFS3_FAILURE_ATTRIBUTES = {
+        0, // NULL
+        0, // GETATTR
+        2, // SETATTR
+        1, // LOOKUP
+        1, // ACCESS
+        1, // READLINK
+        1, // READ
+        2, // WRITE
+        2, // CREATE
+        2, // MKDIR
+        2, // SYMLINK
+        2, // MKNOD
+        2, // REMOVE
+        2, // RMDIR
+        4, // RENAME
+        3, // LINK
+        1, // READDIR
+        1, // READDIRPLUS
+        1, // FSSTAT
+        1, // FSINFO
+        1, // PATHCONF
+        2  // COMMIT
+    };
+
+    private final RpcDispatchable _inner;
+    private final Function<RpcCall, Object> _classifier;
+    private final ToIntFunction<Object> _weights;
+    private final int _maxConcurrent;
+    private final int _maxQueueDepth;
+    private final int _maxQueued;
+    private final ExecutorService _workers;
+
+    /**
+     * Queues of clients with queued or running requests.
+     */
+    private final Map<Object, ClientQueue> _queues = new HashMap<>();
+
+    /**
+     * Queues with requests, which can be processed, in service order.
+     */
+    private final ArrayDeque<ClientQueue> _ready = new ArrayDeque<>();
+
+    private int _queued;
+    private boolean _shutdown;
+    private final LongAdder _rejected = new LongAdder();
+
+    private RequestScheduler(Builder builder) {
+        _inner = requireNonNull(builder.inner, "Dispatcher not set");
+        _classifier = builder.classifier;
+        _weights = builder.weights;
+        _maxConcurrent = builder.maxConcurrent;
+        _maxQueueDepth = builder.maxQueueDepth;
+        _maxQueued = builder.maxQueued;
+
+        _workers = Executors.newFixedThreadPool(builder.threads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("nfs-scheduler-%d")
+                        .setDaemon(true)
+                        .build());
+        for (int i = 0; i < builder.threads; i++) {
+            _workers.execute(this::serve);
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName mxBeanName = new ObjectName(String.format("%s:type=RequestScheduler, name=%s",
+                    getClass().getPackage().getName(), _inner.getClass().getSimpleName()));
+            if (!server.isRegistered(mxBeanName)) {
+                server.registerMBean(this, mxBeanName);
+            }
+        } catch (MalformedObjectNameException | InstanceAlreadyExistsException
+                | MBeanRegistrationException | NotCompliantMBeanException ex) {
+            _log.warn("Failed to register JMX bean: {}", ex.getMessage());
+        }
+    }
+
+    @Override
+    public void dispatchOncRpcCall(RpcCall call) throws OncRpcException, IOException {
+
+        if (!isSchedulable(call)) {
+            _inner.dispatchOncRpcCall(call);
+            return;
+        }
+
+        Object key = _classifier.apply(call);
+        synchronized (this) {
+            ClientQueue queue = _queues.get(key);
+            if (queue == null) {
+                queue = new ClientQueue(key, Math.max(1, _weights.applyAsInt(key)));
+            }
+
+            if (!_shutdown && queue.requests.size() < _maxQueueDepth && _queued < _maxQueued) {
+                _queues.putIfAbsent(key, queue);
+                queue.requests.add(call);
+                _queued++;
+                makeReadyIfPossible(queue);
+                return;
+            }
+        }
+
+        _rejected.increment();
+        reject(call);
+    }
+
+    /**
+     * Stop processing threads. Queued requests are discarded.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            _shutdown = true;
+            notifyAll();
+        }
+        _workers.shutdownNow();
+    }
+
+    private static boolean isSchedulable(RpcCall call) {
+        if (call.getProgram() != nfs3_prot.NFS_PROGRAM || call.getProcedure() == 0) {
+            return false;
+        }
+        int version = call.getProgramVersion();
+        return version == nfs3_prot.NFS_V3 || version == nfs4_prot.NFS_V4;
+    }
+
+    private void reject(RpcCall call) throws OncRpcException, IOException {
+        if (call.getProgramVersion() == nfs4_prot.NFS_V4) {
+            COMPOUND4args args = new COMPOUND4args();
+            call.retrieveCall(args);
+            COMPOUND4res res = new COMPOUND4res();
+            res.tag = args.tag;
+            if (args.argarray.length == 0) {
+                res.status = nfsstat.NFS_OK;
+                res.resarray = Collections.emptyList();
+            } else {
+                /*
+                 * The result of a failed compound ends with the result of
+                 * the failed operation, e.g. SEQUENCE for NFSv4.1.
+                 */
+                nfs_resop4 resop = nfs_resop4.resopFor(args.argarray[0].argop);
+                resop.setStatus(nfsstat.NFSERR_DELAY);
+                res.status = nfsstat.NFSERR_DELAY;
+                res.resarray = Collections.singletonList(resop);
+            }
+            call.reply(res);
+        } else {
+            int procedure = call.getProcedure();
+            int attributes = procedure < NFS3_FAILURE_ATTRIBUTES.length ? NFS3_FAILURE_ATTRIBUTES[procedure] : 0;
+            call.reply(new Nfs3Failure(nfsstat.NFSERR_JUKEBOX, attributes));
+        }
+    }
+
+    /**
+     * Processing thread's main loop.
+     */
+    private void serve() {
+        while (true) {
+            ClientQueue queue;
+            RpcCall call;
+            synchronized (this) {
+                while (_ready.isEmpty() && !_shutdown) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (_shutdown) {
+                    return;
+                }
+
+                queue = _ready.peekFirst();
+                call = queue.requests.poll();
+                _queued--;
+                queue.inProgress++;
+                queue.served++;
+
+                if (queue.requests.isEmpty() || queue.inProgress >= _maxConcurrent || queue.served >= queue.weight) {
+                    _ready.pollFirst();
+                    queue.ready = false;
+                    queue.served = 0;
+                    makeReadyIfPossible(queue);
+                }
+            }
+
+            try {
+                _inner.dispatchOncRpcCall(call);
+            } catch (OncRpcException | IOException | RuntimeException e) {
+                _log.error("Failed to process request: {}", e.toString());
+            } finally {
+                done(queue);
+            }
+        }
+    }
+
+    private synchronized void done(ClientQueue queue) {
+        queue.inProgress--;
+        if (queue.requests.isEmpty() && queue.inProgress == 0) {
+            _queues.remove(queue.key);
+        } else {
+            makeReadyIfPossible(queue);
+        }
+    }
+
+    /**
+     * Put queue at the end of service order, if it has requests and client
+     * is below concurrency limit. Must be called with monitor held.
+     */
+    private void makeReadyIfPossible(ClientQueue queue) {
+        if (!queue.ready && !queue.requests.isEmpty() && queue.inProgress < _maxConcurrent) {
+            queue.ready = true;
+            _ready.addLast(queue);
+            notify();
+        }
+    }
+
+    @Override
+    public synchronized int getQueuedRequests() {
+        return _queued;
+    }
+
+    @Override
+    public synchronized int getActiveClients() {
+        return _queues.size();
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return _rejected.sum();
+    }
+
+    @Override
+    public synchronized Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new HashMap<>();
+        _queues.forEach((k, q) -> depths.put(k.toString(), q.requests.size()));
+        return depths;
+    }
+
+    private static class ClientQueue {
+
+        private final Object key;
+        private final int weight;
+        private final ArrayDeque<RpcCall> requests = new ArrayDeque<>();
+        private int inProgress;
+        private int served;
+        private boolean ready;
+
+        ClientQueue(Object key, int weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * NFSv3 failure result with given status and all attributes
+     * marked as not present.
+     */
+    private static class Nfs3Failure implements XdrAble {
+
+        private final int status;
+        private final int attributes;
+
+        Nfs3Failure(int status, int attributes) {
+            this.status = status;
+            this.attributes = attributes;
+        }
+
+        @Override
+        public void xdrEncode(XdrEncodingStream xdr) throws OncRpcException, IOException {
+            xdr.xdrEncodeInt(status);
+            for (int i = 0; i < attributes; i++) {
+                xdr.xdrEncodeBoolean(false);
+            }
+        }
+
+        @Override
+        public void xdrDecode(XdrDecodingStream xdr) throws OncRpcException, IOException {
+            throw new UnsupportedOperationException("reply only");
+        }
+    }
+
+    public static class Builder {
+
+        private RpcDispatchable inner;
+        private Function<RpcCall, Object> classifier = BY_CLIENT_ADDRESS;
+        private ToIntFunction<Object> weights = k -> 1;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int maxConcurrent = Integer.MAX_VALUE;
+        private int maxQueueDepth = 1024;
+        private int maxQueued = 16384;
+
+        /**
+         * Set NFS server, which processes scheduled requests.
+         */
+        public Builder withDispatcher(RpcDispatchable inner) {
+            this.inner = inner;
+            return this;
+        }
+
+        /**
+         * Set function, which maps request to the key of its queue, like
+         * {@link #BY_CLIENT_ADDRESS} or {@link #BY_PRINCIPAL}.
+         */
+        public Builder withClassifier(Function<RpcCall, Object> classifier) {
+            this.classifier = classifier;
+            return this;
+        }
+
+        /**
+         * Set function, which gives a weight to a queue key. Queue of weight
+         * {@code n} gets up to {@code n} requests processed per round.
+         */
+        public Builder withWeights(ToIntFunction<Object> weights) {
+            this.weights = weights;
+            return this;
+        }
+
+        public Builder withThreads(int threads) {
+            checkArgument(threads > 0, "Number of threads must be positive");
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Set maximal number of requests of a single client processed concurrently.
+         */
+        public Builder withMaxConcurrent(int maxConcurrent) {
+            checkArgument(maxConcurrent > 0, "Concurrency limit must be positive");
+            this.maxConcurrent = maxConcurrent;
+            return this;
+        }
+
+        /**
+         * Set maximal number of queued requests of a single client.
+         */
+        public Builder withMaxQueueDepth(int maxQueueDepth) {
+            this.maxQueueDepth = maxQueueDepth;
+            return this;
+        }
+
+        /**
+         * Set maximal number of queued requests of all clients.
+         */
+        public Builder withMaxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        public RequestScheduler build() {
+            return new RequestScheduler(this);
+        }
+    }
+}
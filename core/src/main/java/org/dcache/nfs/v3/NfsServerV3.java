@@ -126,13 +126,17 @@ import org.dcache.nfs.v3.xdr.FSINFO3resfail;
 import org.dcache.nfs.v3.xdr.ACCESS3res;
 import org.dcache.nfs.v3.xdr.COMMIT3resok;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.List;
+import java.util.OptionalLong;
 
 import org.dcache.nfs.v3.xdr.COMMIT3resfail;
 import org.dcache.nfs.v3.xdr.FSSTAT3resfail;
 import org.dcache.nfs.v3.xdr.MKNOD3resfail;
 import org.dcache.nfs.v3.xdr.READLINK3resfail;
 import org.dcache.nfs.v3.xdr.RENAME3resfail;
+import org.dcache.nfs.vfs.DirectoryEntries;
 import org.dcache.nfs.vfs.DirectoryEntry;
 import org.dcache.nfs.vfs.VirtualFileSystem;
 import org.dcache.nfs.vfs.Stat;
@@ -140,6 +144,7 @@ import org.dcache.nfs.status.*;
 import org.dcache.oncrpc4j.util.Bytes;
 import org.dcache.oncrpc4j.rpc.OncRpcException;
 import org.dcache.oncrpc4j.rpc.RpcCall;
+import org.dcache.utils.ByteBufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -150,6 +155,7 @@ import static org.dcache.nfs.v3.NameUtils.checkFilename;
 import org.dcache.nfs.vfs.FsStat;
 import org.dcache.nfs.vfs.Inode;
 import org.dcache.nfs.vfs.PseudoFs;
+import org.dcache.nfs.vfs.PseudoFsTreeCache;
 import org.dcache.nfs.vfs.DirectoryStream;
 
 import javax.security.auth.Subject;
@@ -161,16 +167,55 @@ public class NfsServerV3 extends nfs3_protServerStub {
     private static final int ENTRYPLUS3_SIZE = 124;
     private static final int READDIR3RESOK_SIZE = 104;
     private static final int READDIRPLUS3RESOK_SIZE = 104;
+
+    /**
+     * Maximal number of directory entries for which missing attributes are
+     * fetched with a single request.
+     */
+    private static final int ATTR_BATCH_SIZE = 128;
+
     private static final Logger _log = LoggerFactory.getLogger(NfsServerV3.class);
 
     private final VirtualFileSystem _vfs;
     private final ExportFile _exports;
+    private final ByteBufferPool _bufferPool;
+    private final PseudoFsTreeCache _pseudoFsTreeCache = new PseudoFsTreeCache();
 
     private final writeverf3 writeVerifier = generateInstanceWriteVerifier();
 
     public NfsServerV3(ExportFile exports, VirtualFileSystem fs) throws OncRpcException, IOException {
+        this(exports, fs, null);
+    }
+
+    /**
+     * Create NFSv3 server which uses provided pool to allocate buffers for
+     * READ replies. The buffers are returned to the pool as soon as reply is
+     * sent.
+     */
+    public NfsServerV3(ExportFile exports, VirtualFileSystem fs, ByteBufferPool bufferPool) throws OncRpcException, IOException {
         _vfs = fs;
         _exports = exports;
+        _bufferPool = bufferPool;
+    }
+
+    @Override
+    public void dispatchOncRpcCall(RpcCall call) throws OncRpcException, IOException {
+
+        if (_bufferPool == null || call.getProcedure() != nfs3_prot.NFSPROC3_READ_3) {
+            super.dispatchOncRpcCall(call);
+            return;
+        }
+
+        READ3args args = new READ3args();
+        call.retrieveCall(args);
+        READ3res res = NFSPROC3_READ_3(call, args);
+        try {
+            call.reply(res);
+        } finally {
+            if (res.resok != null) {
+                _bufferPool.release(res.resok.data);
+            }
+        }
     }
 
     private static writeverf3 generateInstanceWriteVerifier() {
@@ -180,10 +225,29 @@ public class NfsServerV3 extends nfs3_protServerStub {
         return verf;
     }
 
+    /**
+     * Get write verifier, which changes on server restart and when file system
+     * reports a possible loss of not committed data.
+     */
+    private writeverf3 writeVerifierOf(VirtualFileSystem fs) {
+        return writeVerifierOf(fs.getWriteVerifier());
+    }
+
+    private writeverf3 writeVerifierOf(long generation) {
+        if (generation == 0) {
+            return writeVerifier;
+        }
+
+        writeverf3 verf = new writeverf3();
+        verf.value = new byte[nfs3_prot.NFS3_WRITEVERFSIZE];
+        Bytes.putLong(verf.value, 0, Bytes.getLong(writeVerifier.value, 0) ^ generation);
+        return verf;
+    }
+
     @Override
     public ACCESS3res NFSPROC3_ACCESS_3(RpcCall call$, ACCESS3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         ACCESS3res res = new ACCESS3res();
         _log.debug("NFS Request ACCESS uid: {}", call$.getCredential());
 
@@ -222,7 +286,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public COMMIT3res NFSPROC3_COMMIT_3(RpcCall call$, COMMIT3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         COMMIT3res res = new COMMIT3res();
 
         try {
@@ -242,7 +306,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
             HimeraNfsUtils.fill_attributes(fs.getattr(inode), res.resok.file_wcc.after.attributes);
             res.resok.file_wcc.before = new pre_op_attr();
             res.resok.file_wcc.before.attributes_follow = false;
-            res.resok.verf = writeVerifier;
+            res.resok.verf = writeVerifierOf(fs);
 
         } catch (ChimeraNFSException hne) {
             res.status = hne.getStatus();
@@ -262,7 +326,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public CREATE3res NFSPROC3_CREATE_3(RpcCall call$, CREATE3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         _log.debug("NFS Request CREATE3 uid: {}", call$.getCredential());
 
         CREATE3res res = new CREATE3res();
@@ -354,7 +418,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public FSINFO3res NFSPROC3_FSINFO_3(RpcCall call$, FSINFO3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         _log.debug("NFS Request FSINFO from: {}", call$.getCredential());
 
         FSINFO3res res = new FSINFO3res();
@@ -411,7 +475,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public FSSTAT3res NFSPROC3_FSSTAT_3(RpcCall call$, FSSTAT3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         FSSTAT3res res = new FSSTAT3res();
 
         try {
@@ -452,7 +516,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public GETATTR3res NFSPROC3_GETATTR_3(RpcCall call$, GETATTR3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         _log.debug("NFS Request GETTATTR3 uid: {}", call$.getCredential());
 
         GETATTR3res res = new GETATTR3res();
@@ -480,7 +544,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public LINK3res NFSPROC3_LINK_3(RpcCall call$, LINK3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         _log.debug("NFS Request LINK3 uid: {}", call$.getCredential());
 
         LINK3res res = new LINK3res();
@@ -535,7 +599,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public LOOKUP3res NFSPROC3_LOOKUP_3(RpcCall call$, LOOKUP3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         LOOKUP3res res = new LOOKUP3res();
 
         try {
@@ -583,7 +647,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public MKDIR3res NFSPROC3_MKDIR_3(RpcCall call$, MKDIR3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         _log.debug("NFS Request MKDIR3 uid: {}", call$.getCredential());
 
         MKDIR3res res = new MKDIR3res();
@@ -696,7 +760,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public READDIRPLUS3res NFSPROC3_READDIRPLUS_3(RpcCall call$, READDIRPLUS3args arg1) {
 
-        final VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        final VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         _log.debug("NFS Request READDIRPLUS3 uid: {}", call$.getCredential());
 
         READDIRPLUS3res res = new READDIRPLUS3res();
@@ -735,48 +799,58 @@ public class NfsServerV3 extends nfs3_protServerStub {
             int fcount = 0;
             entryplus3 lastEntry = null;
 
-            while (dirList.hasNext()) {
-
-                DirectoryEntry le = dirList.next();
-                String name = le.getName();
-                Inode ef = le.getInode();
-
-                entryplus3 currentEntry = new entryplus3();
-                currentEntry.fileid = new fileid3(new uint64(le.getStat().getFileId()));
-                currentEntry.name = new filename3(name);
-                currentEntry.cookie = new cookie3(new uint64(le.getCookie()));
-                currentEntry.name_handle = new post_op_fh3();
-                currentEntry.name_handle.handle_follows = true;
-                currentEntry.name_handle.handle = new nfs_fh3();
-                currentEntry.name_handle.handle.data = ef.toNfsHandle();
-                currentEntry.name_attributes = new post_op_attr();
-                currentEntry.name_attributes.attributes_follow = true;
-                currentEntry.name_attributes.attributes = new fattr3();
-                HimeraNfsUtils.fill_attributes(le.getStat(), currentEntry.name_attributes.attributes);
-
-                // check if writing this entry exceeds the count limit
-                int newSize = ENTRYPLUS3_SIZE + name.length() + currentEntry.name_handle.handle.data.length;
-                int newDirSize = name.length();
-                if ((currcount + newSize > arg1.maxcount.value.value) || (dircount + newDirSize > arg1.dircount.value.value)) {
-                    if (lastEntry == null) {
-                        //corner case - means we didnt have enough space to
-                        //write even a single entry.
-                        throw new TooSmallException("can't send even a single entry");
-                    }
-                    res.resok.reply.eof = false;
+            fill:
+            while (true) {
+                int batchSize = Math.min(
+                        DirectoryEntries.batchSize(arg1.maxcount.value.value - currcount,
+                                currcount - READDIRPLUS3RESOK_SIZE, fcount, ATTR_BATCH_SIZE),
+                        DirectoryEntries.batchSize(arg1.dircount.value.value - dircount,
+                                dircount, fcount, ATTR_BATCH_SIZE));
+                List<DirectoryEntry> batch = DirectoryEntries.nextWithStat(fs, dirList, batchSize);
+                if (batch.isEmpty()) {
                     break;
                 }
+                for (DirectoryEntry le : batch) {
+                    String name = le.getName();
+                    Inode ef = le.getInode();
+
+                    entryplus3 currentEntry = new entryplus3();
+                    currentEntry.fileid = new fileid3(new uint64(le.getStat().getFileId()));
+                    currentEntry.name = new filename3(name);
+                    currentEntry.cookie = new cookie3(new uint64(le.getCookie()));
+                    currentEntry.name_handle = new post_op_fh3();
+                    currentEntry.name_handle.handle_follows = true;
+                    currentEntry.name_handle.handle = new nfs_fh3();
+                    currentEntry.name_handle.handle.data = ef.toNfsHandle();
+                    currentEntry.name_attributes = new post_op_attr();
+                    currentEntry.name_attributes.attributes_follow = true;
+                    currentEntry.name_attributes.attributes = new fattr3();
+                    HimeraNfsUtils.fill_attributes(le.getStat(), currentEntry.name_attributes.attributes);
+
+                    // check if writing this entry exceeds the count limit
+                    int newSize = ENTRYPLUS3_SIZE + name.length() + currentEntry.name_handle.handle.data.length;
+                    int newDirSize = name.length();
+                    if ((currcount + newSize > arg1.maxcount.value.value) || (dircount + newDirSize > arg1.dircount.value.value)) {
+                        if (lastEntry == null) {
+                            //corner case - means we didnt have enough space to
+                            //write even a single entry.
+                            throw new TooSmallException("can't send even a single entry");
+                        }
+                        res.resok.reply.eof = false;
+                        break fill;
+                    }
 
-                fcount++;
-                dircount += newDirSize;
-                currcount += newSize;
+                    fcount++;
+                    dircount += newDirSize;
+                    currcount += newSize;
 
-                if (lastEntry == null) {
-                    res.resok.reply.entries = currentEntry;
-                } else {
-                    lastEntry.nextentry = currentEntry;
+                    if (lastEntry == null) {
+                        res.resok.reply.entries = currentEntry;
+                    } else {
+                        lastEntry.nextentry = currentEntry;
+                    }
+                    lastEntry = currentEntry;
                 }
-                lastEntry = currentEntry;
             }
 
             _log.debug("Sending {} entries ( {} bytes from {}, dircount = {} from {} ) cookie = {}",
@@ -804,7 +878,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public READDIR3res NFSPROC3_READDIR_3(RpcCall call$, READDIR3args arg1) {
 
-        final VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        final VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         _log.debug("NFS Request READDIR3 uid: {}", call$.getCredential());
 
         READDIR3res res = new READDIR3res();
@@ -841,36 +915,43 @@ public class NfsServerV3 extends nfs3_protServerStub {
             int fcount = 0;
             entry3 lastEntry = null;
 
-            while (dirList.hasNext()) {
-
-                DirectoryEntry le = dirList.next();
-                String name = le.getName();
-
-                entry3 currentEntry = new entry3();
-                currentEntry.fileid = new fileid3(new uint64(le.getStat().getFileId()));
-                currentEntry.name = new filename3(name);
-                currentEntry.cookie = new cookie3(new uint64(le.getCookie()));
-
-                // check if writing this entry exceeds the count limit
-                int newSize = ENTRY3_SIZE + name.length();
-                if (currcount + newSize > arg1.count.value.value) {
-                    if (lastEntry == null) {
-                        //corner case - means we didnt have enough space to
-                        //write even a single entry.
-                        throw new TooSmallException("can't send even a single entry");
-                    }
-                    res.resok.reply.eof = false;
+            fill:
+            while (true) {
+                int batchSize = DirectoryEntries.batchSize(arg1.count.value.value - currcount,
+                        currcount - READDIR3RESOK_SIZE, fcount, ATTR_BATCH_SIZE);
+                List<DirectoryEntry> batch = DirectoryEntries.nextWithStat(fs, dirList, batchSize);
+                if (batch.isEmpty()) {
                     break;
                 }
-                fcount++;
-                currcount += newSize;
+                for (DirectoryEntry le : batch) {
+                    String name = le.getName();
+
+                    entry3 currentEntry = new entry3();
+                    currentEntry.fileid = new fileid3(new uint64(le.getStat().getFileId()));
+                    currentEntry.name = new filename3(name);
+                    currentEntry.cookie = new cookie3(new uint64(le.getCookie()));
+
+                    // check if writing this entry exceeds the count limit
+                    int newSize = ENTRY3_SIZE + name.length();
+                    if (currcount + newSize > arg1.count.value.value) {
+                        if (lastEntry == null) {
+                            //corner case - means we didnt have enough space to
+                            //write even a single entry.
+                            throw new TooSmallException("can't send even a single entry");
+                        }
+                        res.resok.reply.eof = false;
+                        break fill;
+                    }
+                    fcount++;
+                    currcount += newSize;
 
-                if (lastEntry == null) {
-                    res.resok.reply.entries = currentEntry;
-                } else {
-                    lastEntry.nextentry = currentEntry;
+                    if (lastEntry == null) {
+                        res.resok.reply.entries = currentEntry;
+                    } else {
+                        lastEntry.nextentry = currentEntry;
+                    }
+                    lastEntry = currentEntry;
                 }
-                lastEntry = currentEntry;
             }
 
             _log.debug("Sending {} entries ( {} bytes from {}) cookie = {}",
@@ -897,7 +978,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public READLINK3res NFSPROC3_READLINK_3(RpcCall call$, READLINK3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         READLINK3res res = new READLINK3res();
 
 
@@ -933,7 +1014,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public READ3res NFSPROC3_READ_3(RpcCall call$, READ3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         READ3res res = new READ3res();
 
         try {
@@ -943,23 +1024,26 @@ public class NfsServerV3 extends nfs3_protServerStub {
 
             Stat inodeStat = fs.getattr(inode);
 
-            res.resok = new READ3resok();
-            res.resok.data = new byte[count];
+            ByteBuffer b = _bufferPool == null ? ByteBuffer.allocate(count) : _bufferPool.acquire(count);
+            int n;
+            try {
+                n = fs.read(inode, b, offset);
+                if (n < 0) {
+                    throw new NfsIoException("IO not allowed");
+                }
+            } catch (IOException | RuntimeException e) {
+                if (_bufferPool != null) {
+                    _bufferPool.release(b);
+                }
+                throw e;
+            }
+            b.flip();
 
+            res.resok = new READ3resok();
+            res.resok.data = b;
             res.resok.count = new count3();
             res.resok.count.value = new uint32();
-
-            byte[] b = new byte[count];
-            res.resok.count.value.value = fs.read(inode, b, offset, count);
-            if (res.resok.count.value.value < 0) {
-                throw new NfsIoException("IO not allowed");
-            }
-            if (res.resok.count.value.value == count) {
-                res.resok.data = b;
-            } else {
-                res.resok.data = new byte[res.resok.count.value.value];
-                System.arraycopy(b, 0, res.resok.data, 0, res.resok.count.value.value);
-            }
+            res.resok.count.value.value = n;
 
             if (res.resok.count.value.value + offset == inodeStat.getSize()) {
                 res.resok.eof = true;
@@ -987,7 +1071,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public REMOVE3res NFSPROC3_REMOVE_3(RpcCall call$, REMOVE3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         _log.debug("NFS Request REMOVE3 uid: {}", call$.getCredential());
 
         REMOVE3res res = new REMOVE3res();
@@ -1041,7 +1125,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public RENAME3res NFSPROC3_RENAME_3(RpcCall call$, RENAME3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         _log.debug("NFS Request RENAME3 uid: {}", call$.getCredential());
 
         RENAME3res res = new RENAME3res();
@@ -1098,7 +1182,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public RMDIR3res NFSPROC3_RMDIR_3(RpcCall call$, RMDIR3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         _log.debug("NFS Request RMDIR3 uid: {}", call$.getCredential());
 
         RMDIR3res res = new RMDIR3res();
@@ -1149,7 +1233,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public SETATTR3res NFSPROC3_SETATTR_3(RpcCall call$, SETATTR3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         _log.debug("NFS Request SETATTR3 uid: {}", call$.getCredential());
 
         SETATTR3res res = new SETATTR3res();
@@ -1188,7 +1272,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public SYMLINK3res NFSPROC3_SYMLINK_3(RpcCall call$, SYMLINK3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         _log.debug("NFS Request SYMLINK3 uid: {}", call$.getCredential());
 
         SYMLINK3res res = new SYMLINK3res();
@@ -1253,7 +1337,7 @@ public class NfsServerV3 extends nfs3_protServerStub {
     @Override
     public WRITE3res NFSPROC3_WRITE_3(RpcCall call$, WRITE3args arg1) {
 
-        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports);
+        VirtualFileSystem fs = new PseudoFs(_vfs, call$, _exports, _pseudoFsTreeCache);
         WRITE3res res = new WRITE3res();
 
         try {
@@ -1280,7 +1364,10 @@ public class NfsServerV3 extends nfs3_protServerStub {
             res.resok.file_wcc.before = new pre_op_attr();
             res.resok.file_wcc.before.attributes_follow = false;
             res.resok.committed = ret.getStabilityLevel().toStableHow();
-            res.resok.verf = writeVerifier;
+            OptionalLong generation = ret.getWriteVerifier();
+            res.resok.verf = generation.isPresent()
+                    ? writeVerifierOf(generation.getAsLong())
+                    : writeVerifierOf(fs);
         } catch (ChimeraNFSException hne) {
             res.status = hne.getStatus();
             res.resfail = new WRITE3resfail();
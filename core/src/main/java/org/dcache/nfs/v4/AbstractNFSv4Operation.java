@@ -20,6 +20,8 @@
 package org.dcache.nfs.v4;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import org.dcache.nfs.ChimeraNFSException;
 import org.dcache.nfs.v4.xdr.nfs_argop4;
 import org.dcache.nfs.v4.xdr.nfs_resop4;
@@ -44,4 +46,41 @@ public abstract class AbstractNFSv4Operation {
      */
     public abstract void  process(CompoundContext context, nfs_resop4 result)
             throws ChimeraNFSException, IOException, OncRpcException;
+
+    /**
+     * Process current operation without blocking the calling thread. The
+     * returned stage is completed when {@code result} is ready, or exceptionally,
+     * with an exception which {@link #process} would have thrown.
+     *
+     * The default implementation calls {@link #process} and returns an already
+     * completed stage. Operations, which can make use of
+     * {@link CompoundContext#getAsyncFs()}, override this method.
+     *
+     * @param context compound context.
+     * @param result result of the operation.
+     * @return completion stage of the operation.
+     */
+    public CompletionStage<Void> processAsync(CompoundContext context, nfs_resop4 result) {
+        try {
+            process(context, result);
+            return DONE;
+        } catch (Exception e) {
+            return failedStage(e);
+        }
+    }
+
+    /**
+     * Shared, already completed, stage to avoid allocation on synchronous path.
+     */
+    protected static final CompletionStage<Void> DONE = CompletableFuture.completedFuture(null);
+
+    /**
+     * Returns a new stage, which is already completed exceptionally with a given
+     * exception.
+     */
+    protected static <T> CompletionStage<T> failedStage(Throwable t) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        f.completeExceptionally(t);
+        return f;
+    }
 }
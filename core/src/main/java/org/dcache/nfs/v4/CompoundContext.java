@@ -20,6 +20,7 @@
 package org.dcache.nfs.v4;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.Principal;
 import org.dcache.nfs.ChimeraNFSException;
 import org.dcache.nfs.ExportFile;
@@ -28,6 +29,7 @@ import org.dcache.oncrpc4j.rpc.RpcCall;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -43,8 +45,10 @@ import org.dcache.nfs.v4.xdr.server_owner4;
 import org.dcache.nfs.v4.xdr.stateid4;
 import org.dcache.nfs.v4.xdr.uint64_t;
 import org.dcache.nfs.v4.xdr.verifier4;
+import org.dcache.nfs.vfs.AsyncVirtualFileSystem;
 import org.dcache.nfs.vfs.VirtualFileSystem;
 import org.dcache.oncrpc4j.rpc.net.InetSocketAddresses;
+import org.dcache.utils.ByteBufferPool;
 import org.dcache.oncrpc4j.rpc.RpcAuthType;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -83,6 +87,7 @@ public class CompoundContext {
     private NFSv41Session _session = null;
 
     private final VirtualFileSystem _fs;
+    private final Optional<AsyncVirtualFileSystem> _asyncFs;
     private final RpcCall _callInfo;
     private final Subject _subject;
     private final ExportFile _exportFile;
@@ -96,6 +101,10 @@ public class CompoundContext {
     private final LockManager _nlm;
     private final int _exchangeIdFlags;
     private final verifier4 _rebootVerifier;
+    private final ByteBufferPool _bufferPool;
+    private final SlotTableController _slotTableController;
+    private final ReplyCache _replyCache;
+    private List<ByteBuffer> _replyBuffers;
 
     /**
      * Create context of COUMPOUND request.
@@ -105,6 +114,7 @@ public class CompoundContext {
     public CompoundContext(CompoundContextBuilder builder) {
         _minorversion = builder.getMinorversion();
         _fs = builder.getFs();
+        _asyncFs = Optional.ofNullable(builder.getAsyncFs());
         _deviceManager = Optional.ofNullable(builder.getDeviceManager());
         _callInfo = builder.getCall();
         _exportFile = builder.getExportFile();
@@ -115,6 +125,9 @@ public class CompoundContext {
         _principal = principalOf(_callInfo);
         _exchangeIdFlags = builder.getExchangeIdFlags();
         _rebootVerifier = builder.getRebootVerifier();
+        _bufferPool = builder.getBufferPool();
+        _slotTableController = builder.getSlotTableController();
+        _replyCache = builder.getReplyCache();
     }
 
     public RpcCall getRpcCall() {
@@ -129,6 +142,24 @@ public class CompoundContext {
         return _fs;
     }
 
+    /**
+     * Get non-blocking file system, if one is available. The returned file
+     * system represents the same file system as {@link #getFs()}.
+     *
+     * @return optional asynchronous file system.
+     */
+    public Optional<AsyncVirtualFileSystem> getAsyncFs() {
+        return _asyncFs;
+    }
+
+    /**
+     * Get controller of session slot table sizes.
+     * @return slot table controller or {@code null}, if slot tables have fixed size.
+     */
+    public SlotTableController getSlotTableController() {
+        return _slotTableController;
+    }
+
     public Optional<NFSv41DeviceManager> getDeviceManager() {
         return _deviceManager;
     }
@@ -270,6 +301,42 @@ public class CompoundContext {
         _cacheThis = cacheThis;
     }
 
+    /**
+     * Get a buffer of a given size to hold data of the reply. The returned
+     * buffer's position is zero and its limit is set to {@code size}.
+     *
+     * If a buffer pool is configured, the buffer is taken from the pool and
+     * returned back by {@link #releaseReplyBuffers()} when the reply is sent.
+     * Buffers of replies which are kept in session's reply cache are never
+     * taken from the pool, unless the cache keeps replies in encoded form.
+     *
+     * @param size required buffer size.
+     * @return byte buffer.
+     */
+    public ByteBuffer replyBuffer(int size) {
+        if (_bufferPool == null || (_cacheThis && _replyCache == null)) {
+            return ByteBuffer.allocate(size);
+        }
+
+        ByteBuffer buffer = _bufferPool.acquire(size);
+        if (_replyBuffers == null) {
+            _replyBuffers = new ArrayList<>(1);
+        }
+        _replyBuffers.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Return all buffers obtained by {@link #replyBuffer(int)} back to the pool.
+     * Must be called only after the reply is sent.
+     */
+    public void releaseReplyBuffers() {
+        if (_replyBuffers != null) {
+            _replyBuffers.forEach(_bufferPool::release);
+            _replyBuffers = null;
+        }
+    }
+
     private List<nfs_resop4> _cache;
 
     public List<nfs_resop4> getCache() {
@@ -363,4 +430,33 @@ public class CompoundContext {
     public verifier4 getRebootVerifier() {
         return _rebootVerifier;
     }
+
+    /**
+     * Get verifier to be returned by WRITE and COMMIT operations. The verifier
+     * changes on server reboot and when file system reports a possible loss of
+     * not committed data.
+     *
+     * @return write verifier.
+     */
+    public verifier4 getWriteVerifier() {
+        return getWriteVerifier(_fs.getWriteVerifier());
+    }
+
+    /**
+     * Get write verifier for a given file system write verifier generation.
+     *
+     * @param generation write verifier generation.
+     * @return write verifier.
+     */
+    public verifier4 getWriteVerifier(long generation) {
+        if (generation == 0) {
+            return _rebootVerifier;
+        }
+
+        byte[] value = _rebootVerifier.value.clone();
+        for (int i = 0; i < Long.BYTES; i++) {
+            value[i] ^= (byte) (generation >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+        }
+        return new verifier4(value);
+    }
 }
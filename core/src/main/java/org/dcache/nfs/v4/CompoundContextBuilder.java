@@ -22,9 +22,11 @@ package org.dcache.nfs.v4;
 import org.dcache.nfs.ExportFile;
 import org.dcache.nfs.v4.nlm.LockManager;
 import org.dcache.nfs.v4.xdr.nfs4_prot;
+import org.dcache.nfs.vfs.AsyncVirtualFileSystem;
 import org.dcache.nfs.vfs.VirtualFileSystem;
 import org.dcache.nfs.v4.xdr.verifier4;
 import org.dcache.oncrpc4j.rpc.RpcCall;
+import org.dcache.utils.ByteBufferPool;
 
 import static java.util.Objects.requireNonNull;
 
@@ -34,11 +36,15 @@ public class CompoundContextBuilder {
     private RpcCall call = null;
     private int minorversion = 0;
     private VirtualFileSystem fs = null;
+    private AsyncVirtualFileSystem asyncFs = null;
     private NFSv4StateHandler stateHandler = null;
     private NFSv41DeviceManager deviceManager = null;
     private ExportFile exportFile = null;
     private int exchangeIdFlags = nfs4_prot.EXCHGID4_FLAG_USE_NON_PNFS;
     private verifier4 rebootVerifier;
+    private ByteBufferPool bufferPool;
+    private SlotTableController slotTableController;
+    private ReplyCache replyCache;
 
     public CompoundContextBuilder withCall(RpcCall call) {
         this.call = call;
@@ -60,6 +66,11 @@ public class CompoundContextBuilder {
         return this;
     }
 
+    public CompoundContextBuilder withAsyncFs(AsyncVirtualFileSystem asyncFs) {
+        this.asyncFs = asyncFs;
+        return this;
+    }
+
     public CompoundContextBuilder withMinorversion(int minorversion) {
         this.minorversion = minorversion;
         return this;
@@ -91,6 +102,10 @@ public class CompoundContextBuilder {
         return fs;
     }
 
+    public AsyncVirtualFileSystem getAsyncFs() {
+        return asyncFs;
+    }
+
     public NFSv4StateHandler getStateHandler() {
         return stateHandler;
     }
@@ -139,4 +154,31 @@ public class CompoundContextBuilder {
     public verifier4 getRebootVerifier() {
         return rebootVerifier;
     }
-}
\ No newline at end of file
+
+    public CompoundContextBuilder withBufferPool(ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        return this;
+    }
+
+    public ByteBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public CompoundContextBuilder withSlotTableController(SlotTableController slotTableController) {
+        this.slotTableController = slotTableController;
+        return this;
+    }
+
+    public SlotTableController getSlotTableController() {
+        return slotTableController;
+    }
+
+    public CompoundContextBuilder withReplyCache(ReplyCache replyCache) {
+        this.replyCache = replyCache;
+        return this;
+    }
+
+    public ReplyCache getReplyCache() {
+        return replyCache;
+    }
+}
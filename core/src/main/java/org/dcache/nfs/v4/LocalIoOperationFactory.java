@@ -35,6 +35,8 @@ public class LocalIoOperationFactory extends MDSOperationFactory {
 
     public LocalIoOperationFactory(FsCache fs) {
 	_fs = fs;
+	// only READ, WRITE and COMMIT are replaced, none of them has a stateless handler
+	registerDefaultHandlers();
     }
 
     @Override
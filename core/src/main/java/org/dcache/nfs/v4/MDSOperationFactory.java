@@ -19,11 +19,61 @@
  */
 package org.dcache.nfs.v4;
 
+import java.util.concurrent.CompletionStage;
 import org.dcache.nfs.v4.xdr.nfs_argop4;
 import org.dcache.nfs.v4.xdr.nfs_opnum4;
+import org.dcache.nfs.v4.xdr.nfs_resop4;
 
 public class MDSOperationFactory implements NFSv4OperationFactory {
 
+    /**
+     * Stateless handlers indexed by operation number. Operations without
+     * a handler are created by {@link #getOperation(nfs_argop4)}.
+     */
+    private final NFSv4OperationHandler[] _handlers = new NFSv4OperationHandler[nfs_opnum4.OP_CLONE + 1];
+
+    public MDSOperationFactory() {
+        /*
+         * A subclass, which overrides getOperation, may replace any operation,
+         * including those with a stateless handler. Such subclasses have to
+         * register the handlers they want to use explicitly.
+         */
+        if (!OperationHandlers.overridesGetOperation(this, MDSOperationFactory.class)) {
+            registerDefaultHandlers();
+        }
+    }
+
+    /**
+     * Register stateless handlers for all operations, which have one. Subclasses,
+     * which override {@link #getOperation(nfs_argop4)} only for operations
+     * without a stateless handler, call it to avoid per operation allocation.
+     */
+    protected final void registerDefaultHandlers() {
+        for (int i = 0; i < _handlers.length; i++) {
+            _handlers[i] = OperationHandlers.forOperation(i);
+        }
+    }
+
+    /**
+     * Register handler of a given operation.
+     *
+     * @param opnum operation number.
+     * @param handler stateless handler or {@code null} to create the operation
+     * with {@link #getOperation(nfs_argop4)}.
+     */
+    protected final void registerHandler(int opnum, NFSv4OperationHandler handler) {
+        _handlers[opnum] = handler;
+    }
+
+    @Override
+    public CompletionStage<Void> process(CompoundContext context, nfs_argop4 op, nfs_resop4 result) {
+        NFSv4OperationHandler handler = op.argop >= 0 && op.argop < _handlers.length
+                ? _handlers[op.argop] : null;
+        if (handler == null) {
+            return getOperation(op).processAsync(context, result);
+        }
+        return handler.process(context, op, result);
+    }
 
     @Override
     public AbstractNFSv4Operation getOperation(nfs_argop4 op) {
@@ -426,6 +426,7 @@ public class NFS4Client {
         if (session == null) {
             throw new BadSessionException("session not found");
         }
+        session.releaseReplies();
     }
 
     public synchronized NFSv41Session getSession(sessionid4 id) throws BadSessionException {
@@ -486,6 +487,11 @@ public class NFS4Client {
      */
     public final void tryDispose() {
         drainStates();
+        releaseReplies();
+    }
+
+    private synchronized void releaseReplies() {
+        _sessions.values().forEach(NFSv41Session::releaseReplies);
     }
 
     public synchronized void reclaimComplete() throws ChimeraNFSException {
@@ -19,10 +19,12 @@
  */
 package org.dcache.nfs.v4;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.dcache.nfs.ChimeraNFSException;
 import org.dcache.nfs.ExportFile;
 import org.dcache.nfs.v4.xdr.COMPOUND4args;
 import org.dcache.nfs.v4.xdr.COMPOUND4res;
+import org.dcache.nfs.v4.xdr.nfs4_prot;
 import org.dcache.nfs.v4.xdr.nfs4_prot_NFS4_PROGRAM_ServerStub;
 import org.dcache.nfs.v4.xdr.nfs_argop4;
 import org.dcache.nfs.v4.xdr.nfs_resop4;
@@ -33,11 +35,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.dcache.nfs.v4.xdr.nfs_opnum4;
+import org.dcache.nfs.vfs.AccessDecisionCache;
+import org.dcache.nfs.vfs.AsyncVirtualFileSystem;
 import org.dcache.nfs.vfs.PseudoFs;
+import org.dcache.nfs.vfs.PseudoFsTreeCache;
 import org.dcache.nfs.vfs.VirtualFileSystem;
 import org.dcache.commons.stats.RequestExecutionTimeGauges;
 import org.dcache.nfs.status.BadSessionException;
@@ -60,6 +73,7 @@ import org.dcache.nfs.status.TooManyOpsException;
 import org.dcache.nfs.v4.nlm.LockManager;
 import org.dcache.nfs.v4.nlm.SimpleLm;
 import org.dcache.nfs.v4.xdr.verifier4;
+import org.dcache.utils.ByteBufferPool;
 
 public class NFSServerV41 extends nfs4_prot_NFS4_PROGRAM_ServerStub {
 
@@ -69,11 +83,28 @@ public class NFSServerV41 extends nfs4_prot_NFS4_PROGRAM_ServerStub {
             = new RequestExecutionTimeGauges<>(NFSServerV41.class.getName());
 
     private final VirtualFileSystem _fs;
+    private final AsyncVirtualFileSystem _asyncFs;
     private final ExportFile _exportFile;
     private final NFSv4OperationFactory _operationFactory;
     private final NFSv41DeviceManager _deviceManager;
     private final NFSv4StateHandler _statHandler;
     private final LockManager _nlm;
+    private final ByteBufferPool _bufferPool;
+    private final PseudoFsTreeCache _pseudoFsTreeCache = new PseudoFsTreeCache();
+    private final AccessDecisionCache _accessDecisionCache;
+
+    /**
+     * Executor for blocking parts of non-blocking operations, like building
+     * of the pseudo file system tree.
+     */
+    private final ExecutorService _blockingExecutor;
+
+    /**
+     * If true, logging context is populated only when debug logging is enabled.
+     */
+    private final boolean _leanCompound;
+    private final SlotTableController _slotTableController;
+    private final ReplyCache _replyCache;
     /**
      * Verifier to indicate client that server is rebooted. Current currentTimeMillis
      * is good enough, unless server reboots within a millisecond.
@@ -83,10 +114,21 @@ public class NFSServerV41 extends nfs4_prot_NFS4_PROGRAM_ServerStub {
     private NFSServerV41(Builder builder) {
         _deviceManager = builder.deviceManager;
         _fs = builder.vfs;
+        _asyncFs = builder.asyncVfs;
+        _blockingExecutor = _asyncFs == null ? null : Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("nfs-async-blocking-%d")
+                        .setDaemon(true)
+                        .build());
         _exportFile = builder.exportFile;
         _operationFactory = builder.operationFactory;
         _nlm = builder.nlm == null ? new SimpleLm() : builder.nlm;
         _statHandler = builder.stateHandler == null ? new NFSv4StateHandler() : builder.stateHandler;
+        _bufferPool = builder.bufferPool;
+        _accessDecisionCache = builder.accessDecisionCache;
+        _leanCompound = builder.leanCompound;
+        _slotTableController = builder.slotTableController;
+        _replyCache = builder.replyCache;
     }
 
     @Deprecated
@@ -96,10 +138,16 @@ public class NFSServerV41 extends nfs4_prot_NFS4_PROGRAM_ServerStub {
 
         _deviceManager = deviceManager;
         _fs = fs;
+        _asyncFs = null;
         _exportFile = exportFile;
         _operationFactory = operationFactory;
         _nlm = new SimpleLm();
         _statHandler = new NFSv4StateHandler();
+        _bufferPool = null;
+        _accessDecisionCache = null;
+        _leanCompound = false;
+        _slotTableController = null;
+        _replyCache = null;
     }
 
     @Override
@@ -107,103 +155,308 @@ public class NFSServerV41 extends nfs4_prot_NFS4_PROGRAM_ServerStub {
         _log.debug("NFS PING client: {}", call$.getTransport().getRemoteSocketAddress());
     }
 
+    @Override
+    public void dispatchOncRpcCall(RpcCall call) throws OncRpcException, IOException {
+
+        if ((_asyncFs == null && _bufferPool == null)
+                || call.getProcedure() != nfs4_prot.NFSPROC4_COMPOUND_4) {
+            super.dispatchOncRpcCall(call);
+            return;
+        }
+
+        /*
+         * Do not block the calling thread. The reply is sent by the thread,
+         * which completes the last operation of the compound. Pooled reply
+         * buffers are returned only after the reply is encoded and sent.
+         */
+        COMPOUND4args args = new COMPOUND4args();
+        call.retrieveCall(args);
+        CompoundExecution execution = new CompoundExecution(call, args);
+        execution.start();
+        execution.result().thenAccept(res -> {
+            try {
+                call.reply(res);
+            } catch (Exception e) {
+                _log.error("Failed to send reply: {}", e.getMessage());
+            } finally {
+                execution.releaseReplyBuffers();
+            }
+        });
+    }
+
     @Override
     public COMPOUND4res NFSPROC4_COMPOUND_4(RpcCall call$, COMPOUND4args arg1) {
+        return processCompound(call$, arg1).join();
+    }
+
+    /**
+     * Process compound request. The returned future is completed when all
+     * operations are processed. The future never completes exceptionally as
+     * errors are reported by the status of the compound.
+     */
+    private CompletableFuture<COMPOUND4res> processCompound(RpcCall call$, COMPOUND4args arg1) {
+        CompoundExecution execution = new CompoundExecution(call$, arg1);
+        execution.start();
+        return execution.result();
+    }
+
+    /**
+     * Execution state of a single COMPOUND request. Operations are processed
+     * one after another. If an operation can't complete immediately, the
+     * execution is suspended and resumed by the thread which completes the
+     * operation.
+     */
+    private class CompoundExecution {
 
+        private final RpcCall _call;
+        private final COMPOUND4args _args;
+        private final COMPOUND4res _res = new COMPOUND4res();
+        private final CompletableFuture<COMPOUND4res> _result = new CompletableFuture<>();
 
-        COMPOUND4res res = new COMPOUND4res();
+        private CompoundContext _context;
+        private int _minorversion;
+        private int _position;
+        private boolean _retransmit;
 
-        try {
+        /**
+         * Whatever logging context is populated for this compound.
+         */
+        private boolean _withMdc;
+
+        /**
+         * Time, as reported by {@link System#nanoTime()}, when execution has started.
+         */
+        private long _startTime;
+
+        /**
+         * Logging context captured when execution is suspended.
+         */
+        private Map<String, String> _mdc;
 
-            /*
-             * here we have to checkfor utf8, but it's too much overhead to keep
-             * spec happy.
-             */
-            res.tag = arg1.tag;
-            String tag = arg1.tag.toString();
-            MDC.put(NfsMdc.TAG, tag);
-            MDC.put(NfsMdc.CLIENT, call$.getTransport().getRemoteSocketAddress().toString());
+        CompoundExecution(RpcCall call, COMPOUND4args args) {
+            _call = call;
+            _args = args;
+        }
 
-            _log.debug("NFS COMPOUND client: {}, tag: [{}]",
-                    call$.getTransport().getRemoteSocketAddress(),
-                    tag);
+        CompletableFuture<COMPOUND4res> result() {
+            return _result;
+        }
 
-            int minorversion = arg1.minorversion.value;
-            if ( minorversion > 1) {
-                throw new MinorVersMismatchException(String.format("Unsupported minor version [%d]",arg1.minorversion.value) );
+        void releaseReplyBuffers() {
+            if (_context != null) {
+                _context.releaseReplyBuffers();
             }
+        }
 
-	    if (arg1.argarray.length >= NFSv4Defaults.NFS4_MAX_OPS && minorversion == 0) {
-		/*
-		   in 4.1 maxops handled per session
-		*/
-		throw new ResourceException(String.format("Too many ops [%d]", arg1.argarray.length));
-	    }
-            res.resarray = new ArrayList<>(arg1.argarray.length);
-
-            VirtualFileSystem fs = new PseudoFs(_fs, call$, _exportFile);
-
-            CompoundContextBuilder builder = new CompoundContextBuilder()
-                    .withMinorversion(arg1.minorversion.value)
-                    .withFs(fs)
-                    .withDeviceManager(_deviceManager)
-                    .withStateHandler(_statHandler)
-                    .withLockManager(_nlm)
-                    .withExportFile(_exportFile)
-                    .withRebootVerifier(_rebootVerifier)
-                    .withCall(call$);
-
-            if (_deviceManager != null) {
-                builder.withPnfsRoleMDS();
-                // we do proxy-io
-                builder.withPnfsRoleDS();
-            } else if (_exportFile == null) {
-                builder.withPnfsRoleDS();
-            } else {
-                builder.withoutPnfs();
+        void start() {
+            if (_slotTableController != null) {
+                _startTime = System.nanoTime();
+                _slotTableController.requestStarted();
+            }
+            try {
+
+                /*
+                 * here we have to checkfor utf8, but it's too much overhead to keep
+                 * spec happy.
+                 */
+                _res.tag = _args.tag;
+                _withMdc = !_leanCompound || _log.isDebugEnabled();
+                if (_withMdc) {
+                    MDC.put(NfsMdc.TAG, _args.tag.toString());
+                    MDC.put(NfsMdc.CLIENT, _call.getTransport().getRemoteSocketAddress().toString());
+                }
+
+                _log.debug("NFS COMPOUND client: {}, tag: [{}]",
+                        _call.getTransport().getRemoteSocketAddress(),
+                        _args.tag);
+
+                _minorversion = _args.minorversion.value;
+                if (_minorversion > 1) {
+                    throw new MinorVersMismatchException(String.format("Unsupported minor version [%d]", _args.minorversion.value));
+                }
+
+                if (_args.argarray.length >= NFSv4Defaults.NFS4_MAX_OPS && _minorversion == 0) {
+                    /*
+                       in 4.1 maxops handled per session
+                     */
+                    throw new ResourceException(String.format("Too many ops [%d]", _args.argarray.length));
+                }
+                _res.resarray = new ArrayList<>(_args.argarray.length);
+
+                PseudoFs fs = new PseudoFs(_fs, _call, _exportFile, _pseudoFsTreeCache, _accessDecisionCache);
+
+                CompoundContextBuilder builder = new CompoundContextBuilder()
+                        .withMinorversion(_args.minorversion.value)
+                        .withFs(fs)
+                        .withDeviceManager(_deviceManager)
+                        .withStateHandler(_statHandler)
+                        .withLockManager(_nlm)
+                        .withExportFile(_exportFile)
+                        .withRebootVerifier(_rebootVerifier)
+                        .withBufferPool(_bufferPool)
+                        .withSlotTableController(_slotTableController)
+                        .withReplyCache(_replyCache)
+                        .withCall(_call);
+
+                if (_asyncFs != null) {
+                    builder.withAsyncFs(fs.asyncView(_asyncFs, _blockingExecutor));
+                }
+
+                if (_deviceManager != null) {
+                    builder.withPnfsRoleMDS();
+                    // we do proxy-io
+                    builder.withPnfsRoleDS();
+                } else if (_exportFile == null) {
+                    builder.withPnfsRoleDS();
+                } else {
+                    builder.withoutPnfs();
+                }
+
+                _context = builder.build();
+                resume();
+            } catch (Exception e) {
+                fail(e);
+            } finally {
+                if (_withMdc) {
+                    MDC.remove(NfsMdc.TAG);
+                    MDC.remove(NfsMdc.CLIENT);
+                    MDC.remove(NfsMdc.SESSION);
+                }
             }
+        }
 
-            CompoundContext context = builder.build();
+        /**
+         * Process operations until the compound is complete or an operation
+         * is suspended.
+         */
+        private void resume() {
 
-            boolean retransmit = false;
-            for (int position = 0; position <arg1.argarray.length; position++) {
+            while (_position < _args.argarray.length) {
 
-                nfs_argop4 op = arg1.argarray[position];
+                nfs_argop4 op = _args.argarray[_position];
                 nfs_resop4 opResult = nfs_resop4.resopFor(op.argop);
+                long t0 = System.nanoTime();
+
+                CompletableFuture<Void> stage;
                 try {
-                    if (minorversion != 0) {
-                        checkOpPosition(op.argop, position, arg1.argarray.length);
-                        if (position == 1) {
-                            /*
-                             * at this point we already have to have a session
-                             */
-			    if (arg1.argarray.length > context.getSession().getMaxOps()) {
-				throw new TooManyOpsException(String.format("Too many ops [%d]", arg1.argarray.length));
-			    }
-
-                            List<nfs_resop4> cache = context.getCache();
-                            if (cache != null) {
-
-                                if (cache.isEmpty()) {
-                                    /*
-                                     * we got a duplicated request, but there
-                                     * is nothing in the cache, though must be
-                                     * as we are the second op in the compound.
-                                     */
-                                    throw new RetryUncacheRepException();
-                                }
-
-                                res.resarray.addAll(cache.subList(position, cache.size()));
-                                res.status = statusOfLastOperation(cache);
-                                retransmit = true;
-                                break;
-                            }
-                        }
+                    if (_minorversion != 0 && replayFromCache(op)) {
+                        break;
+                    }
+                    stage = _operationFactory.process(_context, op, opResult).toCompletableFuture();
+                } catch (ChimeraNFSException e) {
+                    stage = new CompletableFuture<>();
+                    stage.completeExceptionally(e);
+                }
+
+                if (!stage.isDone()) {
+                    if (_withMdc) {
+                        _mdc = MDC.getCopyOfContextMap();
+                    }
+                    stage.whenComplete((v, t) -> resumeAfter(op, opResult, t0, t));
+                    return;
+                }
+
+                Throwable t = null;
+                try {
+                    stage.join();
+                } catch (CompletionException | CancellationException e) {
+                    t = e;
+                }
+
+                if (!postProcess(op, opResult, t0, t)) {
+                    break;
+                }
+            }
+            complete();
+        }
+
+        private void resumeAfter(nfs_argop4 op, nfs_resop4 opResult, long t0, Throwable t) {
+            if (!_withMdc) {
+                continueAfter(op, opResult, t0, t);
+                return;
+            }
+
+            Map<String, String> previous = MDC.getCopyOfContextMap();
+            if (_mdc != null) {
+                MDC.setContextMap(_mdc);
+            }
+            try {
+                continueAfter(op, opResult, t0, t);
+            } finally {
+                if (previous == null) {
+                    MDC.clear();
+                } else {
+                    MDC.setContextMap(previous);
+                }
+            }
+        }
+
+        private void continueAfter(nfs_argop4 op, nfs_resop4 opResult, long t0, Throwable t) {
+            try {
+                if (postProcess(op, opResult, t0, t)) {
+                    resume();
+                } else {
+                    complete();
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Check operation's position in the compound and whatever the request
+         * is a retransmit, which can be replied from session's reply cache.
+         *
+         * @return true if reply is taken from the cache.
+         */
+        private boolean replayFromCache(nfs_argop4 op) throws ChimeraNFSException {
+
+            checkOpPosition(op.argop, _position, _args.argarray.length);
+            if (_position == 1) {
+                /*
+                 * at this point we already have to have a session
+                 */
+                if (_args.argarray.length > _context.getSession().getMaxOps()) {
+                    throw new TooManyOpsException(String.format("Too many ops [%d]", _args.argarray.length));
+                }
+
+                List<nfs_resop4> cache = _context.getCache();
+                if (cache != null) {
+
+                    if (cache.isEmpty()) {
+                        /*
+                         * we got a duplicated request, but there
+                         * is nothing in the cache, though must be
+                         * as we are the second op in the compound.
+                         */
+                        throw new RetryUncacheRepException();
                     }
-                    long t0 = System.nanoTime();
-                    _operationFactory.getOperation(op).process(context, opResult);
-                    GAUGES.update(nfs_opnum4.toString(op.argop), System.nanoTime() - t0);
 
+                    _res.resarray.addAll(cache.subList(_position, cache.size()));
+                    _res.status = statusOfLastOperation(cache);
+                    _retransmit = true;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Record result of the operation.
+         *
+         * @return true if next operation should be processed.
+         */
+        private boolean postProcess(nfs_argop4 op, nfs_resop4 opResult, long t0, Throwable t) {
+
+            if (t == null) {
+                GAUGES.update(nfs_opnum4.toString(op.argop), System.nanoTime() - t0);
+            } else {
+                while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+                    t = t.getCause();
+                }
+
+                try {
+                    throw t;
                 } catch (NfsIoException | ResourceException | ServerFaultException e) {
                     _log.error("NFS server fault: op: {} : {}", nfs_opnum4.toString(op.argop), e.getMessage());
                     opResult.setStatus(e.getStatus());
@@ -213,7 +466,7 @@ public class NFSServerV41 extends nfs4_prot_NFS4_PROGRAM_ServerStub {
                 } catch (BadStateidException | StaleStateidException e) {
                     _log.warn("Bad Stateid: op: {} : {}", nfs_opnum4.toString(op.argop), e.getMessage());
                     opResult.setStatus(e.getStatus());
-                } catch (ExpiredException | BadSessionException | StaleClientidException  e) {
+                } catch (ExpiredException | BadSessionException | StaleClientidException e) {
                     _log.warn("Bad client: op: {} : {}", nfs_opnum4.toString(op.argop), e.getMessage());
                     opResult.setStatus(e.getStatus());
                 } catch (ChimeraNFSException e) {
@@ -221,36 +474,54 @@ public class NFSServerV41 extends nfs4_prot_NFS4_PROGRAM_ServerStub {
                 } catch (OncRpcException e) {
                     opResult.setStatus(nfsstat.NFSERR_BADXDR);
                     _log.warn("Bad xdr: {}: ", e.getMessage());
+                } catch (Throwable e) {
+                    fail(e);
+                    return false;
                 }
+            }
 
-                res.resarray.add(opResult);
-                res.status = opResult.getStatus();
-                if (res.status != nfsstat.NFS_OK) {
-                    break;
-                }
+            _res.resarray.add(opResult);
+            _res.status = opResult.getStatus();
+            _position++;
+            return _res.status == nfsstat.NFS_OK;
+        }
+
+        private void complete() {
+
+            if (_result.isDone()) {
+                return;
             }
 
-            if (!retransmit && context.cacheThis()) {
-                context.getSessionSlot().update(res.resarray);
+            if (!_retransmit && _context.cacheThis()) {
+                if (_replyCache != null) {
+                    _context.getSessionSlot().update(_res.resarray, _replyCache);
+                } else {
+                    _context.getSessionSlot().update(_res.resarray);
+                }
             }
 
-            _log.debug( "OP: [{}] status: {}", res.tag, res.status);
-
-        } catch (ChimeraNFSException e) {
-            _log.info("NFS operation failed: {}", e.getMessage());
-            res.resarray = Collections.emptyList();
-            res.status = e.getStatus();
-        } catch (Exception e) {
-            _log.error("Unhandled exception:", e);
-            res.resarray = Collections.emptyList();
-            res.status = nfsstat.NFSERR_SERVERFAULT;
-        }finally{
-            MDC.remove(NfsMdc.TAG);
-            MDC.remove(NfsMdc.CLIENT);
-            MDC.remove(NfsMdc.SESSION);
+            _log.debug("OP: [{}] status: {}", _res.tag, _res.status);
+            finish();
         }
 
-        return res;
+        private void fail(Throwable e) {
+
+            if (e instanceof ChimeraNFSException) {
+                _log.info("NFS operation failed: {}", e.getMessage());
+                _res.status = ((ChimeraNFSException) e).getStatus();
+            } else {
+                _log.error("Unhandled exception:", e);
+                _res.status = nfsstat.NFSERR_SERVERFAULT;
+            }
+            _res.resarray = Collections.emptyList();
+            finish();
+        }
+
+        private void finish() {
+            if (_result.complete(_res) && _slotTableController != null) {
+                _slotTableController.requestCompleted(System.nanoTime() - _startTime);
+            }
+        }
     }
 
     /**
@@ -328,9 +599,15 @@ public class NFSServerV41 extends nfs4_prot_NFS4_PROGRAM_ServerStub {
         private NFSv4OperationFactory operationFactory;
         private NFSv41DeviceManager deviceManager;
         private VirtualFileSystem vfs;
+        private AsyncVirtualFileSystem asyncVfs;
         private ExportFile exportFile;
         private LockManager nlm;
         private NFSv4StateHandler stateHandler;
+        private ByteBufferPool bufferPool;
+        private AccessDecisionCache accessDecisionCache;
+        private boolean leanCompound;
+        private SlotTableController slotTableController;
+        private ReplyCache replyCache;
 
         public Builder withDeviceManager(NFSv41DeviceManager deviceManager) {
             this.deviceManager = deviceManager;
@@ -347,6 +624,16 @@ public class NFSServerV41 extends nfs4_prot_NFS4_PROGRAM_ServerStub {
             return this;
         }
 
+        /**
+         * Use non-blocking file system for operations which support it. The
+         * provided file system must represent the same file system as the
+         * one provided by {@link #withVfs(VirtualFileSystem)}.
+         */
+        public Builder withAsyncVfs(AsyncVirtualFileSystem asyncVfs) {
+            this.asyncVfs = asyncVfs;
+            return this;
+        }
+
         public Builder withLockManager(LockManager nlm) {
             this.nlm = nlm;
             return this;
@@ -362,6 +649,54 @@ public class NFSServerV41 extends nfs4_prot_NFS4_PROGRAM_ServerStub {
             return this;
         }
 
+        /**
+         * Use provided pool to allocate buffers for READ replies. The buffers
+         * are returned to the pool as soon as reply is sent.
+         */
+        public Builder withBufferPool(ByteBufferPool bufferPool) {
+            this.bufferPool = bufferPool;
+            return this;
+        }
+
+        /**
+         * Share permission check results between compounds through provided
+         * cache. Without it, results are re-used only within a compound.
+         */
+        public Builder withAccessDecisionCache(AccessDecisionCache accessDecisionCache) {
+            this.accessDecisionCache = accessDecisionCache;
+            return this;
+        }
+
+        /**
+         * Skip population of logging context (MDC) with client address and
+         * compound tag, unless debug logging is enabled. Reduces per compound
+         * overhead for workloads with many small requests.
+         */
+        public Builder withLeanCompound() {
+            this.leanCompound = true;
+            return this;
+        }
+
+        /**
+         * Adjust number of session slots clients are asked to use according
+         * to server load. Without controller, sessions have at most
+         * {@link NFSv4Defaults#NFS4_MAX_SESSION_SLOTS} slots.
+         */
+        public Builder withSlotTableController(SlotTableController slotTableController) {
+            this.slotTableController = slotTableController;
+            return this;
+        }
+
+        /**
+         * Keep replies of session slots in encoded form in a given cache,
+         * which bounds memory used by all sessions. Without it, slots keep
+         * last reply as is.
+         */
+        public Builder withReplyCache(ReplyCache replyCache) {
+            this.replyCache = replyCache;
+            return this;
+        }
+
         public NFSServerV41 build() {
             return new NFSServerV41(this);
         }
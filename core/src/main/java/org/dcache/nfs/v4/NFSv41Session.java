@@ -42,6 +42,12 @@ public class NFSv41Session {
     private final int _cbReplyCacheSize;
     private final Set<SessionConnection> _boundConnections;
 
+    /**
+     * Highest slot id, which client is asked to use.
+     */
+    private volatile int _targetHighestSlot;
+    private volatile long _targetChangeTime;
+
     public NFSv41Session(NFS4Client client, sessionid4 sessionid,  int replyCacheSize, int cbReplyCacheSize, int maxOps, int maxCbOps) {
         _client = client;
         _slots = new SessionSlot[replyCacheSize];
@@ -50,6 +56,8 @@ public class NFSv41Session {
 	_maxCbOps = maxCbOps;
         _cbReplyCacheSize = cbReplyCacheSize;
         _boundConnections = new HashSet<>();
+        _targetHighestSlot = replyCacheSize - 1;
+        _targetChangeTime = System.nanoTime();
     }
 
     public sessionid4 id() {
@@ -68,6 +76,28 @@ public class NFSv41Session {
         return _slots.length - 1;
     }
 
+    /**
+     * Get highest slot id, which client is asked to use. Client may still
+     * use all slots up to {@link #getHighestSlot()}.
+     * @return target slot id.
+     */
+    public int getTargetHighestSlot() {
+        return _targetHighestSlot;
+    }
+
+    void setTargetHighestSlot(int target) {
+        _targetHighestSlot = target;
+        _targetChangeTime = System.nanoTime();
+    }
+
+    /**
+     * Get time, as reported by {@link System#nanoTime()}, when target highest
+     * slot id was changed last time.
+     */
+    long getTargetChangeTime() {
+        return _targetChangeTime;
+    }
+
     public int getCbHighestSlot() {
         // FIXME: currently we do not support call-backs, but have to keep client happy
         return _cbReplyCacheSize - 1;
@@ -111,6 +141,17 @@ public class NFSv41Session {
         return _slots[slot];
     }
 
+    /**
+     * Discard cached replies of all slots.
+     */
+    void releaseReplies() {
+        for (SessionSlot slot : _slots) {
+            if (slot != null) {
+                slot.release();
+            }
+        }
+    }
+
     /**
      * Get maximal number of operations server will accept for this session.
      * @return number of operations
@@ -19,10 +19,27 @@
  */
 package org.dcache.nfs.v4;
 
+import java.util.concurrent.CompletionStage;
 import org.dcache.nfs.v4.xdr.nfs_argop4;
+import org.dcache.nfs.v4.xdr.nfs_resop4;
 
 public interface NFSv4OperationFactory {
 
     AbstractNFSv4Operation getOperation(nfs_argop4 op);
 
+    /**
+     * Process a given operation. The default implementation creates a new
+     * operation with {@link #getOperation(nfs_argop4)}. Factories, which have
+     * stateless handlers for some operations, can override it to avoid per
+     * operation allocation.
+     *
+     * @param context compound context.
+     * @param op operation arguments.
+     * @param result result of the operation.
+     * @return completion stage of the operation.
+     */
+    default CompletionStage<Void> process(CompoundContext context, nfs_argop4 op, nfs_resop4 result) {
+        return getOperation(op).processAsync(context, result);
+    }
+
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.v4;
+
+import java.util.concurrent.CompletionStage;
+import org.dcache.nfs.v4.xdr.nfs_argop4;
+import org.dcache.nfs.v4.xdr.nfs_resop4;
+
+/**
+ * Stateless NFSv4 operation handler. Unlike {@link AbstractNFSv4Operation},
+ * a single handler instance serves all requests, as operation arguments are
+ * passed on each invocation.
+ */
+@FunctionalInterface
+public interface NFSv4OperationHandler {
+
+    /**
+     * Process operation. The returned stage is completed when {@code result}
+     * is ready, or exceptionally, if operation has failed.
+     *
+     * @param context compound context.
+     * @param args operation arguments.
+     * @param result result of the operation.
+     * @return completion stage of the operation.
+     */
+    CompletionStage<Void> process(CompoundContext context, nfs_argop4 args, nfs_resop4 result);
+}
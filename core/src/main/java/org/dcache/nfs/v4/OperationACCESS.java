@@ -42,9 +42,14 @@ public class OperationACCESS extends AbstractNFSv4Operation {
     @Override
     public void process(CompoundContext context, nfs_resop4 result)
             throws ChimeraNFSException, IOException {
+        process(context, _args, result);
+    }
+
+    static void process(CompoundContext context, nfs_argop4 args, nfs_resop4 result)
+            throws ChimeraNFSException, IOException {
 
         final ACCESS4res res = result.opaccess;
-        int requestedAccess = _args.opaccess.access.value;
+        int requestedAccess = args.opaccess.access.value;
 
         int realAccess = context.getFs().access(context.currentInode(), requestedAccess);
 
@@ -45,7 +45,7 @@ public class OperationCOMMIT extends AbstractNFSv4Operation {
         context.getFs().commit(inode, _args.opcommit.offset.value, _args.opcommit.count.value);
 
         res.resok4 = new COMMIT4resok();
-        res.resok4.writeverf = context.getRebootVerifier();
+        res.resok4.writeverf = context.getWriteVerifier();
         result.opcommit.status = nfsstat.NFS_OK;
     }
 }
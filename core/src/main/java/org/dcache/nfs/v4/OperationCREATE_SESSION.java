@@ -103,11 +103,18 @@ public class OperationCREATE_SESSION extends AbstractNFSv4Operation {
             throw new ClidInUseException("client already in use: " + client.principal() + " " + context.getPrincipal());
         }
 
+        SlotTableController slotTableController = context.getSlotTableController();
+        int maxSlots = slotTableController == null
+                ? NFSv4Defaults.NFS4_MAX_SESSION_SLOTS : slotTableController.getMaxSlots();
+
         NFSv41Session session = client.createSession(_args.opcreate_session.csa_sequence.value,
-                Math.min(NFSv4Defaults.NFS4_MAX_SESSION_SLOTS, _args.opcreate_session.csa_fore_chan_attrs.ca_maxrequests.value),
+                Math.min(maxSlots, _args.opcreate_session.csa_fore_chan_attrs.ca_maxrequests.value),
                 Math.min(NFSv4Defaults.NFS4_MAX_SESSION_SLOTS, _args.opcreate_session.csa_back_chan_attrs.ca_maxrequests.value),
                 Math.min(NFSv4Defaults.NFS4_MAX_OPS, _args.opcreate_session.csa_fore_chan_attrs.ca_maxoperations.value),
                 Math.min(NFSv4Defaults.NFS4_MAX_OPS, _args.opcreate_session.csa_back_chan_attrs.ca_maxoperations.value));
+        if (slotTableController != null) {
+            slotTableController.sessionCreated(session);
+        }
         _log.debug("adding new session [{}]", session);
 
         /*
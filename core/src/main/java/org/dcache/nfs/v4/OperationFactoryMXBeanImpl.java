@@ -20,9 +20,8 @@
 package org.dcache.nfs.v4;
 
 import java.lang.management.ManagementFactory;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanRegistrationException;
 import javax.management.MBeanServer;
@@ -31,13 +30,19 @@ import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
 import org.dcache.nfs.v4.xdr.nfs_argop4;
 import org.dcache.nfs.v4.xdr.nfs_opnum4;
+import org.dcache.nfs.v4.xdr.nfs_resop4;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class OperationFactoryMXBeanImpl implements OperationFactoryMXBean, NFSv4OperationFactory {
 
     private static final Logger _log = LoggerFactory.getLogger(OperationFactoryMXBeanImpl.class);
-    private final Map<Integer, AtomicLong> _counters = new ConcurrentHashMap<>();
+
+    /**
+     * Per operation counters indexed by operation number.
+     */
+    private final LongAdder[] _counters = new LongAdder[nfs_opnum4.OP_CLONE + 1];
+    private final LongAdder _illegal = new LongAdder();
     private final NFSv4OperationFactory _inner;
 
     /**
@@ -49,63 +54,9 @@ public class OperationFactoryMXBeanImpl implements OperationFactoryMXBean, NFSv4
     public OperationFactoryMXBeanImpl(NFSv4OperationFactory inner, String name) {
         _inner = inner;
 
-        _counters.put(nfs_opnum4.OP_ACCESS, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_CLOSE, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_COMMIT, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_CREATE, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_DELEGPURGE, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_DELEGRETURN, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_GETATTR, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_GETFH, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_LINK, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_LOCK, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_LOCKT, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_LOCKU, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_LOOKUP, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_LOOKUPP, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_NVERIFY, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_OPEN, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_OPENATTR, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_OPEN_CONFIRM, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_OPEN_DOWNGRADE, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_PUTFH, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_PUTPUBFH, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_PUTROOTFH, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_READ, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_READDIR, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_READLINK, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_REMOVE, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_RENAME, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_RENEW, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_RESTOREFH, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_SAVEFH, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_SECINFO, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_SETATTR, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_SETCLIENTID, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_SETCLIENTID_CONFIRM, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_VERIFY, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_WRITE, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_RELEASE_LOCKOWNER, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_BACKCHANNEL_CTL, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_BIND_CONN_TO_SESSION, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_EXCHANGE_ID, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_CREATE_SESSION, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_DESTROY_SESSION, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_FREE_STATEID, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_GET_DIR_DELEGATION, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_GETDEVICEINFO, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_GETDEVICELIST, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_LAYOUTCOMMIT, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_LAYOUTGET, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_LAYOUTRETURN, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_SECINFO_NO_NAME, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_SEQUENCE, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_SET_SSV, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_TEST_STATEID, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_WANT_DELEGATION, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_DESTROY_CLIENTID, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_RECLAIM_COMPLETE, new AtomicLong());
-        _counters.put(nfs_opnum4.OP_ILLEGAL, new AtomicLong());
+        for (int i = 0; i < _counters.length; i++) {
+            _counters[i] = new LongAdder();
+        }
 
         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
         try {
@@ -122,238 +73,259 @@ public class OperationFactoryMXBeanImpl implements OperationFactoryMXBean, NFSv4
     }
 
     public long getAccess() {
-        return _counters.get(nfs_opnum4.OP_ACCESS).get();
+        return count(nfs_opnum4.OP_ACCESS);
     }
 
     public long getClose() {
-        return _counters.get(nfs_opnum4.OP_CLOSE).get();
+        return count(nfs_opnum4.OP_CLOSE);
     }
 
     public long getCommit() {
-        return _counters.get(nfs_opnum4.OP_COMMIT).get();
+        return count(nfs_opnum4.OP_COMMIT);
     }
 
     public long getCreate() {
-        return _counters.get(nfs_opnum4.OP_CREATE).get();
+        return count(nfs_opnum4.OP_CREATE);
     }
 
     public long getDelegpurge() {
-        return _counters.get(nfs_opnum4.OP_DELEGPURGE).get();
+        return count(nfs_opnum4.OP_DELEGPURGE);
     }
 
     public long getDelegreturn() {
-        return _counters.get(nfs_opnum4.OP_DELEGRETURN).get();
+        return count(nfs_opnum4.OP_DELEGRETURN);
     }
 
     public long getGetattr() {
-        return _counters.get(nfs_opnum4.OP_GETATTR).get();
+        return count(nfs_opnum4.OP_GETATTR);
     }
 
     public long getGetfh() {
-        return _counters.get(nfs_opnum4.OP_GETFH).get();
+        return count(nfs_opnum4.OP_GETFH);
     }
 
     public long getLink() {
-        return _counters.get(nfs_opnum4.OP_LINK).get();
+        return count(nfs_opnum4.OP_LINK);
     }
 
     public long getLock() {
-        return _counters.get(nfs_opnum4.OP_LOCK).get();
+        return count(nfs_opnum4.OP_LOCK);
     }
 
     public long getLockt() {
-        return _counters.get(nfs_opnum4.OP_LOCKT).get();
+        return count(nfs_opnum4.OP_LOCKT);
     }
 
     public long getLocku() {
-        return _counters.get(nfs_opnum4.OP_LOCKU).get();
+        return count(nfs_opnum4.OP_LOCKU);
     }
 
     public long getLookup() {
-        return _counters.get(nfs_opnum4.OP_ACCESS).get();
+        return count(nfs_opnum4.OP_LOOKUP);
     }
 
     public long getLookupp() {
-        return _counters.get(nfs_opnum4.OP_LOOKUPP).get();
+        return count(nfs_opnum4.OP_LOOKUPP);
     }
 
     public long getNverify() {
-        return _counters.get(nfs_opnum4.OP_NVERIFY).get();
+        return count(nfs_opnum4.OP_NVERIFY);
     }
 
     public long getOpen() {
-        return _counters.get(nfs_opnum4.OP_OPEN).get();
+        return count(nfs_opnum4.OP_OPEN);
     }
 
     public long getOpenattr() {
-        return _counters.get(nfs_opnum4.OP_OPENATTR).get();
+        return count(nfs_opnum4.OP_OPENATTR);
     }
 
     public long getOpenConfirm() {
-        return _counters.get(nfs_opnum4.OP_OPEN_CONFIRM).get();
+        return count(nfs_opnum4.OP_OPEN_CONFIRM);
     }
 
     public long getOpenDowngrade() {
-        return _counters.get(nfs_opnum4.OP_OPEN_DOWNGRADE).get();
+        return count(nfs_opnum4.OP_OPEN_DOWNGRADE);
     }
 
     public long getPutfh() {
-        return _counters.get(nfs_opnum4.OP_PUTFH).get();
+        return count(nfs_opnum4.OP_PUTFH);
     }
 
     public long getPutpubfh() {
-        return _counters.get(nfs_opnum4.OP_PUTPUBFH).get();
+        return count(nfs_opnum4.OP_PUTPUBFH);
     }
 
     public long getPutrootfh() {
-        return _counters.get(nfs_opnum4.OP_PUTROOTFH).get();
+        return count(nfs_opnum4.OP_PUTROOTFH);
     }
 
     public long getRead() {
-        return _counters.get(nfs_opnum4.OP_READ).get();
+        return count(nfs_opnum4.OP_READ);
     }
 
     public long getReaddir() {
-        return _counters.get(nfs_opnum4.OP_READDIR).get();
+        return count(nfs_opnum4.OP_READDIR);
     }
 
     public long getReadlink() {
-        return _counters.get(nfs_opnum4.OP_READLINK).get();
+        return count(nfs_opnum4.OP_READLINK);
     }
 
     public long getRemove() {
-        return _counters.get(nfs_opnum4.OP_REMOVE).get();
+        return count(nfs_opnum4.OP_REMOVE);
     }
 
     public long getRename() {
-        return _counters.get(nfs_opnum4.OP_RENAME).get();
+        return count(nfs_opnum4.OP_RENAME);
     }
 
     public long getRenew() {
-        return _counters.get(nfs_opnum4.OP_RENEW).get();
+        return count(nfs_opnum4.OP_RENEW);
     }
 
     public long getRestorefh() {
-        return _counters.get(nfs_opnum4.OP_RESTOREFH).get();
+        return count(nfs_opnum4.OP_RESTOREFH);
     }
 
     public long getSavefh() {
-        return _counters.get(nfs_opnum4.OP_SAVEFH).get();
+        return count(nfs_opnum4.OP_SAVEFH);
     }
 
     public long getSecinfo() {
-        return _counters.get(nfs_opnum4.OP_SECINFO).get();
+        return count(nfs_opnum4.OP_SECINFO);
     }
 
     public long getSetattr() {
-        return _counters.get(nfs_opnum4.OP_SETATTR).get();
+        return count(nfs_opnum4.OP_SETATTR);
     }
 
     public long getSetclientid() {
-        return _counters.get(nfs_opnum4.OP_SETCLIENTID).get();
+        return count(nfs_opnum4.OP_SETCLIENTID);
     }
 
     public long getSetclientidConfirm() {
-        return _counters.get(nfs_opnum4.OP_SETCLIENTID_CONFIRM).get();
+        return count(nfs_opnum4.OP_SETCLIENTID_CONFIRM);
     }
 
     public long getVerify() {
-        return _counters.get(nfs_opnum4.OP_VERIFY).get();
+        return count(nfs_opnum4.OP_VERIFY);
     }
 
     public long getWrite() {
-        return _counters.get(nfs_opnum4.OP_WRITE).get();
+        return count(nfs_opnum4.OP_WRITE);
     }
 
     public long getReleaseLockowner() {
-        return _counters.get(nfs_opnum4.OP_RELEASE_LOCKOWNER).get();
+        return count(nfs_opnum4.OP_RELEASE_LOCKOWNER);
     }
 
     public long getBackchannelCtl() {
-        return _counters.get(nfs_opnum4.OP_BACKCHANNEL_CTL).get();
+        return count(nfs_opnum4.OP_BACKCHANNEL_CTL);
     }
 
     public long getBindConnToSession() {
-        return _counters.get(nfs_opnum4.OP_BIND_CONN_TO_SESSION).get();
+        return count(nfs_opnum4.OP_BIND_CONN_TO_SESSION);
     }
 
     public long getExchangeId() {
-        return _counters.get(nfs_opnum4.OP_EXCHANGE_ID).get();
+        return count(nfs_opnum4.OP_EXCHANGE_ID);
     }
 
     public long getCreateSession() {
-        return _counters.get(nfs_opnum4.OP_CREATE_SESSION).get();
+        return count(nfs_opnum4.OP_CREATE_SESSION);
     }
 
     public long getDestroySession() {
-        return _counters.get(nfs_opnum4.OP_DESTROY_SESSION).get();
+        return count(nfs_opnum4.OP_DESTROY_SESSION);
     }
 
     public long getFreeStateid() {
-        return _counters.get(nfs_opnum4.OP_FREE_STATEID).get();
+        return count(nfs_opnum4.OP_FREE_STATEID);
     }
 
     public long getGetDirDelegation() {
-        return _counters.get(nfs_opnum4.OP_GET_DIR_DELEGATION).get();
+        return count(nfs_opnum4.OP_GET_DIR_DELEGATION);
     }
 
     public long getGetdeviceinfo() {
-        return _counters.get(nfs_opnum4.OP_GETDEVICEINFO).get();
+        return count(nfs_opnum4.OP_GETDEVICEINFO);
     }
 
     public long getGetdevicelist() {
-        return _counters.get(nfs_opnum4.OP_GETDEVICELIST).get();
+        return count(nfs_opnum4.OP_GETDEVICELIST);
     }
 
     public long getLayoutcommit() {
-        return _counters.get(nfs_opnum4.OP_LAYOUTCOMMIT).get();
+        return count(nfs_opnum4.OP_LAYOUTCOMMIT);
     }
 
     public long getLayoutget() {
-        return _counters.get(nfs_opnum4.OP_LAYOUTGET).get();
+        return count(nfs_opnum4.OP_LAYOUTGET);
     }
 
     public long getLayoutreturn() {
-        return _counters.get(nfs_opnum4.OP_LAYOUTRETURN).get();
+        return count(nfs_opnum4.OP_LAYOUTRETURN);
     }
 
     public long getSecinfoNoName() {
-        return _counters.get(nfs_opnum4.OP_SECINFO_NO_NAME).get();
+        return count(nfs_opnum4.OP_SECINFO_NO_NAME);
     }
 
     public long getSequence() {
-        return _counters.get(nfs_opnum4.OP_SEQUENCE).get();
+        return count(nfs_opnum4.OP_SEQUENCE);
     }
 
     public long getSetSsv() {
-        return _counters.get(nfs_opnum4.OP_SET_SSV).get();
+        return count(nfs_opnum4.OP_SET_SSV);
     }
 
     public long getTestStateid() {
-        return _counters.get(nfs_opnum4.OP_TEST_STATEID).get();
+        return count(nfs_opnum4.OP_TEST_STATEID);
     }
 
     public long getWantDelegation() {
-        return _counters.get(nfs_opnum4.OP_WANT_DELEGATION).get();
+        return count(nfs_opnum4.OP_WANT_DELEGATION);
     }
 
     public long getDestroyClientid() {
-        return _counters.get(nfs_opnum4.OP_DESTROY_CLIENTID).get();
+        return count(nfs_opnum4.OP_DESTROY_CLIENTID);
     }
 
     public long getReclaimComplete() {
-        return _counters.get(nfs_opnum4.OP_RECLAIM_COMPLETE).get();
+        return count(nfs_opnum4.OP_RECLAIM_COMPLETE);
     }
 
     public long getIllegal() {
-        return _counters.get(nfs_opnum4.OP_ILLEGAL).get();
+        return count(nfs_opnum4.OP_ILLEGAL);
     }
 
     public AbstractNFSv4Operation getOperation(nfs_argop4 op) {
-        AtomicLong counter = _counters.get(op.argop);
+        increment(op.argop);
+        return _inner.getOperation(op);
+    }
+
+    @Override
+    public CompletionStage<Void> process(CompoundContext context, nfs_argop4 op, nfs_resop4 result) {
+        increment(op.argop);
+        return _inner.process(context, op, result);
+    }
+
+    private LongAdder counterOf(int opnum) {
+        if (opnum >= 0 && opnum < _counters.length) {
+            return _counters[opnum];
+        }
+        return opnum == nfs_opnum4.OP_ILLEGAL ? _illegal : null;
+    }
+
+    private void increment(int opnum) {
+        LongAdder counter = counterOf(opnum);
         if (counter != null) {
-            counter.incrementAndGet();
+            counter.increment();
         }
-        return _inner.getOperation(op);
+    }
+
+    private long count(int opnum) {
+        return counterOf(opnum).sum();
     }
 }
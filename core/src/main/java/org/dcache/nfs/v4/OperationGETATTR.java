@@ -23,6 +23,9 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
 
 import org.dcache.nfs.v4.xdr.fattr4_numlinks;
@@ -93,6 +96,8 @@ import org.dcache.nfs.v4.xdr.fattr4_space_avail;
 import org.dcache.nfs.v4.xdr.fattr4_time_delta;
 import org.dcache.nfs.v4.xdr.nfstime4;
 import org.dcache.nfs.v4.xdr.nfs_resop4;
+import org.dcache.nfs.ChimeraNFSException;
+import org.dcache.nfs.vfs.AsyncVirtualFileSystem;
 import org.dcache.nfs.vfs.FsStat;
 import org.dcache.nfs.vfs.Inode;
 import org.dcache.nfs.vfs.VirtualFileSystem;
@@ -115,11 +120,20 @@ public class OperationGETATTR extends AbstractNFSv4Operation {
 
     @Override
     public void process(CompoundContext context, nfs_resop4 result) throws IOException, OncRpcException {
+        process(context, _args, result);
+    }
+
+    @Override
+    public CompletionStage<Void> processAsync(CompoundContext context, nfs_resop4 result) {
+        return processAsync(context, _args, result);
+    }
+
+    static void process(CompoundContext context, nfs_argop4 args, nfs_resop4 result) throws IOException, OncRpcException {
 
         final GETATTR4res res = result.opgetattr;
 
         res.resok4 = new GETATTR4resok();
-        res.resok4.obj_attributes = getAttributes(_args.opgetattr.attr_request,
+        res.resok4.obj_attributes = getAttributes(args.opgetattr.attr_request,
                 context.getFs(),
                 context.currentInode(), context);
 
@@ -127,8 +141,56 @@ public class OperationGETATTR extends AbstractNFSv4Operation {
 
     }
 
+    static CompletionStage<Void> processAsync(CompoundContext context, nfs_argop4 args, nfs_resop4 result) {
+
+        Optional<AsyncVirtualFileSystem> asyncFs = context.getAsyncFs();
+        if (!asyncFs.isPresent()) {
+            try {
+                process(context, args, result);
+                return DONE;
+            } catch (Exception e) {
+                return failedStage(e);
+            }
+        }
+
+        final GETATTR4res res = result.opgetattr;
+        final Inode inode;
+        try {
+            inode = context.currentInode();
+        } catch (ChimeraNFSException e) {
+            return failedStage(e);
+        }
+
+        /*
+         * Usage information is fetched in parallel with attributes, as getting
+         * it synchronously could block the thread which completes the stage.
+         */
+        CompletionStage<FsStat> fsStat = needsFsStat(args.opgetattr.attr_request)
+                ? asyncFs.get().getFsStat() : CompletableFuture.completedFuture(null);
+
+        return asyncFs.get().getattr(inode).thenAcceptBoth(fsStat, (stat, fss) -> {
+            try {
+                res.resok4 = new GETATTR4resok();
+                res.resok4.obj_attributes = getAttributes(args.opgetattr.attr_request,
+                        context.getFs(), inode, stat, fss, context);
+                res.status = nfsstat.NFS_OK;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
     static fattr4 getAttributes(bitmap4 bitmap, VirtualFileSystem fs, Inode inode, Stat stat, CompoundContext context)
             throws IOException, OncRpcException {
+        return getAttributes(bitmap, fs, inode, stat, null, context);
+    }
+
+    /**
+     * Get requested attributes with file system's usage information, if
+     * already known, or {@code null} to fetch it when needed.
+     */
+    static fattr4 getAttributes(bitmap4 bitmap, VirtualFileSystem fs, Inode inode, Stat stat, FsStat fsStat, CompoundContext context)
+            throws IOException, OncRpcException {
 
         /*
          * bitmap we send back. can't be uninitialized.
@@ -140,7 +202,7 @@ public class OperationGETATTR extends AbstractNFSv4Operation {
             xdr.beginEncoding();
 
             for (int i : bitmap) {
-                Optional<XdrAble> optionalAttr = (Optional<XdrAble>) fattr2xdr(i, fs, inode, stat, context);
+                Optional<XdrAble> optionalAttr = (Optional<XdrAble>) fattr2xdr(i, fs, inode, stat, fsStat, context);
                 if (optionalAttr.isPresent()) {
                     XdrAble attr = optionalAttr.get();
                     _log.debug("   getAttributes : {} ({}) OK.", i, attrMask2String(i));
@@ -167,6 +229,24 @@ public class OperationGETATTR extends AbstractNFSv4Operation {
         return getAttributes(bitmap, fs, inode, context.getFs().getattr(inode), context);
     }
 
+    /**
+     * Check whether any of requested attributes needs file system's usage information.
+     */
+    private static boolean needsFsStat(bitmap4 bitmap) {
+        for (int i : bitmap) {
+            switch (i) {
+                case nfs4_prot.FATTR4_FILES_AVAIL:
+                case nfs4_prot.FATTR4_FILES_FREE:
+                case nfs4_prot.FATTR4_FILES_TOTAL:
+                case nfs4_prot.FATTR4_SPACE_AVAIL:
+                case nfs4_prot.FATTR4_SPACE_FREE:
+                case nfs4_prot.FATTR4_SPACE_TOTAL:
+                    return true;
+            }
+        }
+        return false;
+    }
+
     private static FsStat getFsStat(FsStat fsStat, VirtualFileSystem fs) throws IOException {
         if (fsStat != null) {
             return fsStat;
@@ -187,8 +267,10 @@ public class OperationGETATTR extends AbstractNFSv4Operation {
 
     // read/read-write
     static Optional<? extends XdrAble> fattr2xdr(int fattr, VirtualFileSystem fs, Inode inode, Stat stat, CompoundContext context) throws IOException {
+        return fattr2xdr(fattr, fs, inode, stat, null, context);
+    }
 
-        FsStat fsStat = null;
+    static Optional<? extends XdrAble> fattr2xdr(int fattr, VirtualFileSystem fs, Inode inode, Stat stat, FsStat fsStat, CompoundContext context) throws IOException {
 
         switch (fattr) {
 
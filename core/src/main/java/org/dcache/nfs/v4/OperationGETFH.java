@@ -41,6 +41,10 @@ public class OperationGETFH extends AbstractNFSv4Operation {
 
     @Override
     public void process(CompoundContext context, nfs_resop4 result) throws ChimeraNFSException, IOException {
+        process(context, _args, result);
+    }
+
+    static void process(CompoundContext context, nfs_argop4 args, nfs_resop4 result) throws ChimeraNFSException, IOException {
 
         final GETFH4res res = result.opgetfh;
 
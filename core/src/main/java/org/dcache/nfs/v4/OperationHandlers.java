@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.v4;
+
+import org.dcache.nfs.v4.xdr.nfs_argop4;
+import org.dcache.nfs.v4.xdr.nfs_opnum4;
+import org.dcache.nfs.v4.xdr.nfs_resop4;
+
+/**
+ * Stateless handlers of frequently used operations. Operation factories use
+ * them to process an operation without creating a new operation object.
+ */
+public final class OperationHandlers {
+
+    /**
+     * Stateless handlers indexed by operation number.
+     */
+    private static final NFSv4OperationHandler[] HANDLERS = new NFSv4OperationHandler[nfs_opnum4.OP_CLONE + 1];
+
+    static {
+        HANDLERS[nfs_opnum4.OP_ACCESS] = sync(OperationACCESS::process);
+        HANDLERS[nfs_opnum4.OP_GETATTR] = OperationGETATTR::processAsync;
+        HANDLERS[nfs_opnum4.OP_GETFH] = sync(OperationGETFH::process);
+        HANDLERS[nfs_opnum4.OP_PUTFH] = sync(OperationPUTFH::process);
+        HANDLERS[nfs_opnum4.OP_PUTROOTFH] = sync(OperationPUTROOTFH::process);
+        HANDLERS[nfs_opnum4.OP_RESTOREFH] = sync(OperationRESTOREFH::process);
+        HANDLERS[nfs_opnum4.OP_SAVEFH] = sync(OperationSAVEFH::process);
+        HANDLERS[nfs_opnum4.OP_SEQUENCE] = sync(OperationSEQUENCE::process);
+    }
+
+    private OperationHandlers() {
+    }
+
+    @FunctionalInterface
+    private interface SyncHandler {
+        void process(CompoundContext context, nfs_argop4 args, nfs_resop4 result) throws Exception;
+    }
+
+    private static NFSv4OperationHandler sync(SyncHandler handler) {
+        return (context, args, result) -> {
+            try {
+                handler.process(context, args, result);
+                return AbstractNFSv4Operation.DONE;
+            } catch (Exception e) {
+                return AbstractNFSv4Operation.failedStage(e);
+            }
+        };
+    }
+
+    /**
+     * Get stateless handler of the given operation.
+     *
+     * @param opnum operation number.
+     * @return handler or {@code null}, if operation has no stateless handler.
+     */
+    public static NFSv4OperationHandler forOperation(int opnum) {
+        return opnum >= 0 && opnum < HANDLERS.length ? HANDLERS[opnum] : null;
+    }
+
+    /**
+     * Check whether {@code factory} overrides {@link NFSv4OperationFactory#getOperation}
+     * of {@code base}. Such factory might replace operations, which have
+     * a stateless handler, thus handlers can't be used on its behalf.
+     *
+     * @param factory operation factory to check.
+     * @param base class, which {@code factory} extends.
+     * @return true, if {@code getOperation} is overridden by a subclass of {@code base}.
+     */
+    public static boolean overridesGetOperation(NFSv4OperationFactory factory, Class<? extends NFSv4OperationFactory> base) {
+        try {
+            return factory.getClass().getMethod("getOperation", nfs_argop4.class).getDeclaringClass() != base;
+        } catch (NoSuchMethodException e) {
+            // can't happen, as the method is part of the interface
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -20,6 +20,9 @@
 package org.dcache.nfs.v4;
 
 import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import org.dcache.nfs.nfsstat;
 import org.dcache.nfs.v4.xdr.nfs_argop4;
 import org.dcache.nfs.v4.xdr.nfs_opnum4;
@@ -28,6 +31,7 @@ import org.dcache.nfs.ChimeraNFSException;
 import org.dcache.nfs.status.NotDirException;
 import org.dcache.nfs.status.SymlinkException;
 import org.dcache.nfs.v4.xdr.nfs_resop4;
+import org.dcache.nfs.vfs.AsyncVirtualFileSystem;
 import org.dcache.nfs.vfs.Inode;
 import org.dcache.nfs.vfs.Stat;
 import org.slf4j.Logger;
@@ -49,6 +53,55 @@ public class OperationLOOKUP extends AbstractNFSv4Operation {
         String name = NameFilter.convertName(_args.oplookup.objname.value);
 
         Stat stat = context.getFs().getattr(context.currentInode());
+        checkIsDirectory(stat);
+
+        Inode newInode = context.getFs().lookup(context.currentInode(), name);
+
+        context.currentInode(newInode);
+        context.currentStateid(Stateids.ZeroStateId());
+        res.status = nfsstat.NFS_OK;
+    }
+
+    @Override
+    public CompletionStage<Void> processAsync(CompoundContext context, nfs_resop4 result) {
+
+        Optional<AsyncVirtualFileSystem> asyncFs = context.getAsyncFs();
+        if (!asyncFs.isPresent()) {
+            return super.processAsync(context, result);
+        }
+
+        final LOOKUP4res res = result.oplookup;
+        final AsyncVirtualFileSystem fs = asyncFs.get();
+        final Inode parent;
+        final String name;
+        try {
+            name = NameFilter.convertName(_args.oplookup.objname.value);
+            parent = context.currentInode();
+        } catch (ChimeraNFSException e) {
+            return failedStage(e);
+        }
+
+        return fs.getattr(parent).thenCompose(stat -> {
+            try {
+                checkIsDirectory(stat);
+            } catch (ChimeraNFSException e) {
+                throw new CompletionException(e);
+            }
+
+            return fs.lookup(parent, name).thenAccept(newInode -> {
+                try {
+                    context.currentInode(newInode);
+                } catch (ChimeraNFSException e) {
+                    throw new CompletionException(e);
+                }
+                context.currentStateid(Stateids.ZeroStateId());
+                res.status = nfsstat.NFS_OK;
+            });
+        });
+    }
+
+    private static void checkIsDirectory(Stat stat) throws ChimeraNFSException {
+
         if (stat.type() == Stat.Type.SYMLINK) {
             throw new SymlinkException("parent not a symbolic link");
         }
@@ -56,11 +109,5 @@ public class OperationLOOKUP extends AbstractNFSv4Operation {
         if (stat.type() != Stat.Type.DIRECTORY) {
             throw new NotDirException("parent not a directory");
         }
-
-        Inode newInode = context.getFs().lookup(context.currentInode(), name);
-
-        context.currentInode(newInode);
-        context.currentStateid(Stateids.ZeroStateId());
-        res.status = nfsstat.NFS_OK;
     }
 }
@@ -40,10 +40,14 @@ public class OperationPUTFH extends AbstractNFSv4Operation {
 
     @Override
     public void process(CompoundContext context, nfs_resop4 result) throws ChimeraNFSException, IOException {
+        process(context, _args, result);
+    }
+
+    static void process(CompoundContext context, nfs_argop4 args, nfs_resop4 result) throws ChimeraNFSException, IOException {
         final PUTFH4res res = result.opputfh;
 
         try {
-            context.currentInode(new Inode(_args.opputfh.object.value));
+            context.currentInode(new Inode(args.opputfh.object.value));
             context.currentStateid(Stateids.ZeroStateId());
             _log.debug("NFS Request  PUTFH4 current: {}", context.currentInode());
             res.status = nfsstat.NFS_OK;
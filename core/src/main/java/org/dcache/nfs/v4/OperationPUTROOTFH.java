@@ -39,6 +39,10 @@ public class OperationPUTROOTFH extends AbstractNFSv4Operation {
 
     @Override
     public void process(CompoundContext context, nfs_resop4 result) throws ChimeraNFSException, IOException {
+        process(context, _args, result);
+    }
+
+    static void process(CompoundContext context, nfs_argop4 args, nfs_resop4 result) throws ChimeraNFSException, IOException {
 
         final PUTROOTFH4res res = result.opputrootfh;
 
@@ -21,6 +21,10 @@ package org.dcache.nfs.v4;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import org.dcache.nfs.ChimeraNFSException;
 import org.dcache.nfs.nfsstat;
 import org.dcache.nfs.v4.xdr.nfs_argop4;
 import org.dcache.nfs.v4.xdr.nfs_opnum4;
@@ -30,6 +34,8 @@ import org.dcache.nfs.status.InvalException;
 import org.dcache.nfs.status.IsDirException;
 import org.dcache.nfs.status.NfsIoException;
 import org.dcache.nfs.v4.xdr.nfs_resop4;
+import org.dcache.nfs.vfs.AsyncVirtualFileSystem;
+import org.dcache.nfs.vfs.Inode;
 import org.dcache.nfs.vfs.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,14 +53,7 @@ public class OperationREAD extends AbstractNFSv4Operation {
         final READ4res res = result.opread;
 
         Stat inodeStat = context.getFs().getattr(context.currentInode());
-
-        if (inodeStat.type() == Stat.Type.DIRECTORY) {
-            throw new IsDirException();
-        }
-
-        if (inodeStat.type() == Stat.Type.SYMLINK) {
-            throw new InvalException();
-        }
+        checkCanRead(inodeStat);
 
         if (context.getMinorversion() == 0) {
             /*
@@ -70,19 +69,74 @@ public class OperationREAD extends AbstractNFSv4Operation {
         long offset = _args.opread.offset.value;
         int count = _args.opread.count.value;
 
-        ByteBuffer buf = ByteBuffer.allocate(count);
+        ByteBuffer buf = context.replyBuffer(count);
 
         int bytesReaded = context.getFs().read(context.currentInode(),
-                buf.array(), offset, count);
+                buf, offset);
+
+        fillResult(res, inodeStat, buf, offset, bytesReaded);
+    }
+
+    @Override
+    public CompletionStage<Void> processAsync(CompoundContext context, nfs_resop4 result) {
+
+        Optional<AsyncVirtualFileSystem> asyncFs = context.getAsyncFs();
+        if (!asyncFs.isPresent()) {
+            return super.processAsync(context, result);
+        }
+
+        final READ4res res = result.opread;
+        final AsyncVirtualFileSystem fs = asyncFs.get();
+        final Inode inode;
+        try {
+            inode = context.currentInode();
+            if (context.getMinorversion() == 0) {
+                context.getStateHandler().updateClientLeaseTime(_args.opread.stateid);
+            }
+        } catch (ChimeraNFSException e) {
+            return failedStage(e);
+        }
+
+        long offset = _args.opread.offset.value;
+        int count = _args.opread.count.value;
+
+        return fs.getattr(inode).thenCompose(inodeStat -> {
+            try {
+                checkCanRead(inodeStat);
+            } catch (ChimeraNFSException e) {
+                throw new CompletionException(e);
+            }
+
+            ByteBuffer buf = context.replyBuffer(count);
+            return fs.read(inode, buf, offset).thenAccept(bytesReaded -> {
+                try {
+                    fillResult(res, inodeStat, buf, offset, bytesReaded);
+                } catch (ChimeraNFSException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        });
+    }
+
+    private static void checkCanRead(Stat inodeStat) throws ChimeraNFSException {
+
+        if (inodeStat.type() == Stat.Type.DIRECTORY) {
+            throw new IsDirException();
+        }
+
+        if (inodeStat.type() == Stat.Type.SYMLINK) {
+            throw new InvalException();
+        }
+    }
+
+    private static void fillResult(READ4res res, Stat inodeStat, ByteBuffer buf, long offset, int bytesReaded)
+            throws ChimeraNFSException {
+
         if (bytesReaded < 0) {
             throw new NfsIoException("IO not allowd");
         }
 
-        /*
-         * As we have written directly into back-end byte array tell the byte
-         * buffer where the limit is.
-         */
-        buf.limit(bytesReaded);
+        buf.flip();
 
         res.status = nfsstat.NFS_OK;
         res.resok4 = new READ4resok();
@@ -21,6 +21,7 @@ package org.dcache.nfs.v4;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 import org.dcache.nfs.nfsstat;
 import org.dcache.nfs.v4.xdr.entry4;
 import org.dcache.nfs.v4.xdr.dirlist4;
@@ -37,6 +38,7 @@ import org.dcache.nfs.status.BadCookieException;
 import org.dcache.nfs.status.NotDirException;
 import org.dcache.nfs.status.TooSmallException;
 import org.dcache.nfs.v4.xdr.nfs_resop4;
+import org.dcache.nfs.vfs.DirectoryEntries;
 import org.dcache.nfs.vfs.DirectoryEntry;
 import org.dcache.nfs.vfs.DirectoryStream;
 import org.dcache.nfs.vfs.Inode;
@@ -67,6 +69,12 @@ public class OperationREADDIR extends AbstractNFSv4Operation {
      */
     private static final long COOKIE_OFFSET = 3;
 
+    /**
+     * Maximal number of directory entries for which missing attributes are
+     * fetched with a single request.
+     */
+    private static final int ATTR_BATCH_SIZE = 128;
+
     OperationREADDIR(nfs_argop4 args) {
         super(args, nfs_opnum4.OP_READDIR);
     }
@@ -117,51 +125,61 @@ public class OperationREADDIR extends AbstractNFSv4Operation {
         entry4 lastEntry = null;
 
         int fcount = 0;
-        while (dirList.hasNext()) {
-
-            DirectoryEntry le = dirList.next();
-            String name = le.getName();
-
-            // skip . and .. while nfsv4 do not care about them
-            if (name.equals(".")) {
-                continue;
-            }
-            if (name.equals("..")) {
-                continue;
+        fill:
+        while (true) {
+            int batchSize = Math.min(
+                    DirectoryEntries.batchSize(_args.opreaddir.maxcount.value - currcount,
+                            currcount - READDIR4RESOK_SIZE, fcount, ATTR_BATCH_SIZE),
+                    DirectoryEntries.batchSize(_args.opreaddir.dircount.value - dircount,
+                            dircount, fcount, ATTR_BATCH_SIZE));
+            List<DirectoryEntry> batch = DirectoryEntries.nextWithStat(context.getFs(), dirList, batchSize);
+            if (batch.isEmpty()) {
+                break;
             }
+            for (DirectoryEntry le : batch) {
+                String name = le.getName();
 
-            Inode ei = le.getInode();
-
-            entry4 currentEntry = new entry4();
-            currentEntry.name = new component4(name);
-            // shift all cookies by OFFSET, as 1 and 2 are reserved
-            currentEntry.cookie = new nfs_cookie4(le.getCookie() + COOKIE_OFFSET);
+                // skip . and .. while nfsv4 do not care about them
+                if (name.equals(".")) {
+                    continue;
+                }
+                if (name.equals("..")) {
+                    continue;
+                }
 
-            // TODO: catch here error from getattr and reply 'fattr4_rdattr_error' to the client
-            currentEntry.attrs = OperationGETATTR.getAttributes(_args.opreaddir.attr_request, context.getFs(), ei, le.getStat(), context);
+                Inode ei = le.getInode();
+
+                entry4 currentEntry = new entry4();
+                currentEntry.name = new component4(name);
+                // shift all cookies by OFFSET, as 1 and 2 are reserved
+                currentEntry.cookie = new nfs_cookie4(le.getCookie() + COOKIE_OFFSET);
+
+                // TODO: catch here error from getattr and reply 'fattr4_rdattr_error' to the client
+                currentEntry.attrs = OperationGETATTR.getAttributes(_args.opreaddir.attr_request, context.getFs(), ei, le.getStat(), context);
+
+                // check if writing this entry exceeds the count limit
+                int newSize = ENTRY4_SIZE + name.length() + currentEntry.name.value.length + currentEntry.attrs.attr_vals.value.length;
+                int newDirSize = name.length() + 4; // name + sizeof(long)
+                if ((currcount + newSize > _args.opreaddir.maxcount.value) || (dircount + newDirSize > _args.opreaddir.dircount.value)) {
+                    if (lastEntry == null) {
+                        //corner case - means we didnt have enough space to
+                        //write even a single entry.
+                        throw new TooSmallException("can't send even a single entry");
+                    }
+                    res.resok4.reply.eof = false;
+                    break fill;
+                }
+                fcount++;
+                dircount += newDirSize;
+                currcount += newSize;
 
-            // check if writing this entry exceeds the count limit
-            int newSize = ENTRY4_SIZE + name.length() + currentEntry.name.value.length + currentEntry.attrs.attr_vals.value.length;
-            int newDirSize = name.length() + 4; // name + sizeof(long)
-            if ((currcount + newSize > _args.opreaddir.maxcount.value) || (dircount + newDirSize > _args.opreaddir.dircount.value)) {
                 if (lastEntry == null) {
-                    //corner case - means we didnt have enough space to
-                    //write even a single entry.
-                    throw new TooSmallException("can't send even a single entry");
+                    res.resok4.reply.entries = currentEntry;
+                } else {
+                    lastEntry.nextentry = currentEntry;
                 }
-                res.resok4.reply.eof = false;
-                break;
-            }
-            fcount++;
-            dircount += newDirSize;
-            currcount += newSize;
-
-            if (lastEntry == null) {
-                res.resok4.reply.entries = currentEntry;
-            } else {
-                lastEntry.nextentry = currentEntry;
+                lastEntry = currentEntry;
             }
-            lastEntry = currentEntry;
         }
 
         _log.debug("Sending {} entries ({} bytes from {}, dircount = {}) cookie = {} EOF={}",
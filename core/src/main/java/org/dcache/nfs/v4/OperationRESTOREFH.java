@@ -38,6 +38,10 @@ public class OperationRESTOREFH extends AbstractNFSv4Operation {
 
     @Override
     public void process(CompoundContext context, nfs_resop4 result) throws ChimeraNFSException {
+        process(context, _args, result);
+    }
+
+    static void process(CompoundContext context, nfs_argop4 args, nfs_resop4 result) throws ChimeraNFSException {
 
         final RESTOREFH4res res = result.oprestorefh;
 
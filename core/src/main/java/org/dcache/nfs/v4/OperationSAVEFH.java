@@ -38,6 +38,10 @@ public class OperationSAVEFH extends AbstractNFSv4Operation {
 
     @Override
     public void process(CompoundContext context, nfs_resop4 result) throws ChimeraNFSException {
+        process(context, _args, result);
+    }
+
+    static void process(CompoundContext context, nfs_argop4 args, nfs_resop4 result) throws ChimeraNFSException {
         final SAVEFH4res res = result.opsavefh;
 
         context.saveCurrentInode();
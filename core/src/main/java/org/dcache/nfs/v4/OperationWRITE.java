@@ -20,8 +20,11 @@
 package org.dcache.nfs.v4;
 
 import java.io.IOException;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import org.dcache.nfs.nfsstat;
-import org.dcache.nfs.v4.xdr.stable_how4;
 import org.dcache.nfs.v4.xdr.nfs_argop4;
 import org.dcache.nfs.v4.xdr.nfs_opnum4;
 import org.dcache.nfs.v4.xdr.count4;
@@ -33,6 +36,8 @@ import org.dcache.nfs.status.InvalException;
 import org.dcache.nfs.status.IsDirException;
 import org.dcache.nfs.status.NfsIoException;
 import org.dcache.nfs.v4.xdr.nfs_resop4;
+import org.dcache.nfs.vfs.AsyncVirtualFileSystem;
+import org.dcache.nfs.vfs.Inode;
 import org.dcache.nfs.vfs.Stat;
 import org.dcache.nfs.vfs.VirtualFileSystem;
 import org.slf4j.Logger;
@@ -54,6 +59,58 @@ public class OperationWRITE extends AbstractNFSv4Operation {
         _args.opwrite.offset.checkOverflow(_args.opwrite.data.remaining(), "offset + length overflow");
 
         Stat stat = context.getFs().getattr(context.currentInode());
+        checkCanWrite(stat);
+
+        updateLeaseTime(context);
+
+        long offset = _args.opwrite.offset.value;
+
+        VirtualFileSystem.WriteResult writeResult = context.getFs().write(context.currentInode(),
+                _args.opwrite.data, offset, VirtualFileSystem.StabilityLevel.fromStableHow(_args.opwrite.stable));
+
+        fillResult(context, res, writeResult);
+    }
+
+    @Override
+    public CompletionStage<Void> processAsync(CompoundContext context, nfs_resop4 result) {
+
+        Optional<AsyncVirtualFileSystem> asyncFs = context.getAsyncFs();
+        if (!asyncFs.isPresent()) {
+            return super.processAsync(context, result);
+        }
+
+        final WRITE4res res = result.opwrite;
+        final AsyncVirtualFileSystem fs = asyncFs.get();
+        final Inode inode;
+        try {
+            _args.opwrite.offset.checkOverflow(_args.opwrite.data.remaining(), "offset + length overflow");
+            inode = context.currentInode();
+        } catch (ChimeraNFSException e) {
+            return failedStage(e);
+        }
+
+        long offset = _args.opwrite.offset.value;
+
+        return fs.getattr(inode).thenCompose(stat -> {
+            try {
+                checkCanWrite(stat);
+                updateLeaseTime(context);
+            } catch (ChimeraNFSException e) {
+                throw new CompletionException(e);
+            }
+
+            return fs.write(inode, _args.opwrite.data, offset, VirtualFileSystem.StabilityLevel.fromStableHow(_args.opwrite.stable))
+                    .thenAccept(writeResult -> {
+                        try {
+                            fillResult(context, res, writeResult);
+                        } catch (ChimeraNFSException e) {
+                            throw new CompletionException(e);
+                        }
+                    });
+        });
+    }
+
+    private static void checkCanWrite(Stat stat) throws ChimeraNFSException {
 
         if (stat.type() == Stat.Type.DIRECTORY) {
             throw new IsDirException();
@@ -62,20 +119,18 @@ public class OperationWRITE extends AbstractNFSv4Operation {
         if (stat.type() == Stat.Type.SYMLINK) {
             throw new InvalException("path is a symlink");
         }
+    }
 
+    private void updateLeaseTime(CompoundContext context) throws ChimeraNFSException {
         if (context.getMinorversion() > 0) {
             context.getSession().getClient().updateLeaseTime();
         } else {
             context.getStateHandler().updateClientLeaseTime(_args.opwrite.stateid);
         }
+    }
 
-        long offset = _args.opwrite.offset.value;
-        int count = _args.opwrite.data.remaining();
-        byte[] data = new byte[count];
-        _args.opwrite.data.get(data);
-
-        VirtualFileSystem.WriteResult writeResult = context.getFs().write(context.currentInode(),
-                data, offset, count, VirtualFileSystem.StabilityLevel.fromStableHow(_args.opwrite.stable));
+    private static void fillResult(CompoundContext context, WRITE4res res, VirtualFileSystem.WriteResult writeResult)
+            throws ChimeraNFSException {
 
         if (writeResult.getBytesWritten() < 0) {
             throw new NfsIoException("IO not allowed");
@@ -84,8 +139,10 @@ public class OperationWRITE extends AbstractNFSv4Operation {
         res.status = nfsstat.NFS_OK;
         res.resok4 = new WRITE4resok();
         res.resok4.count = new count4(writeResult.getBytesWritten());
-        res.resok4.committed = stable_how4.FILE_SYNC4;
-        res.resok4.writeverf = context.getRebootVerifier();
-
+        res.resok4.committed = writeResult.getStabilityLevel().toStableHow();
+        OptionalLong generation = writeResult.getWriteVerifier();
+        res.resok4.writeverf = generation.isPresent()
+                ? context.getWriteVerifier(generation.getAsLong())
+                : context.getWriteVerifier();
     }
 }
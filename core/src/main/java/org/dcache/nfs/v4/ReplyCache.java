@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.v4;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import org.dcache.nfs.v4.xdr.nfs_opnum4;
+import org.dcache.nfs.v4.xdr.nfs_resop4;
+import org.dcache.nfs.nfsstat;
+import org.dcache.oncrpc4j.xdr.Xdr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Session reply cache shared by all sessions of the server.
+ * <p>
+ * Replies are kept in XDR encoded form, thus a cached reply does not keep
+ * any objects, like data buffers of READ replies, reachable. The total size of
+ * cached replies is bounded. A reply, which does not fit into the cache, is not
+ * stored and retransmission of the request is answered with
+ * {@code NFS4ERR_RETRY_UNCACHED_REP}.
+ */
+public class ReplyCache implements ReplyCacheMXBean {
+
+    private static final Logger _log = LoggerFactory.getLogger(ReplyCache.class);
+
+    /**
+     * Default cache size of 64MB.
+     */
+    private static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    private final long _maxBytes;
+    private final AtomicLong _usedBytes = new AtomicLong();
+    private final LongAdder _entries = new LongAdder();
+    private final LongAdder _cached = new LongAdder();
+    private final LongAdder _uncached = new LongAdder();
+    private final LongAdder _replayed = new LongAdder();
+
+    /**
+     * Create reply cache of 64MB.
+     */
+    public ReplyCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create reply cache of a given size.
+     *
+     * @param maxBytes maximal number of bytes used by cached replies.
+     */
+    public ReplyCache(long maxBytes) {
+        checkArgument(maxBytes >= 0, "Cache size can't be negative");
+        _maxBytes = maxBytes;
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName mxBeanName = new ObjectName(getClass().getPackage().getName() + ":type=ReplyCache");
+            if (!server.isRegistered(mxBeanName)) {
+                server.registerMBean(this, mxBeanName);
+            }
+        } catch (MalformedObjectNameException | InstanceAlreadyExistsException
+                | MBeanRegistrationException | NotCompliantMBeanException ex) {
+            _log.warn("Failed to register JMX bean: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * Encode reply and account it in cache's memory budget.
+     *
+     * @param reply results of compound's operations.
+     * @return encoded reply or {@code null}, if reply doesn't fit into cache.
+     */
+    byte[] store(List<nfs_resop4> reply) {
+
+        byte[] encoded;
+        try {
+            encoded = encode(reply);
+        } catch (IOException e) {
+            _log.warn("Failed to encode reply: {}", e.getMessage());
+            _uncached.increment();
+            return null;
+        }
+
+        if (_usedBytes.addAndGet(encoded.length) > _maxBytes) {
+            _usedBytes.addAndGet(-encoded.length);
+            _uncached.increment();
+            return null;
+        }
+
+        _entries.increment();
+        _cached.increment();
+        return encoded;
+    }
+
+    /**
+     * Return memory of a reply, which was stored by {@link #store(List)}.
+     *
+     * @param encoded encoded reply.
+     */
+    void release(byte[] encoded) {
+        _usedBytes.addAndGet(-encoded.length);
+        _entries.decrement();
+    }
+
+    /**
+     * Decode reply, which was stored by {@link #store(List)}.
+     *
+     * @param encoded encoded reply.
+     * @return results of compound's operations.
+     * @throws IOException if reply can't be decoded.
+     */
+    List<nfs_resop4> replay(byte[] encoded) throws IOException {
+        try (Xdr xdr = new Xdr(encoded)) {
+            xdr.beginDecoding();
+            int count = xdr.xdrDecodeInt();
+            List<nfs_resop4> reply = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                reply.add(new nfs_resop4(xdr));
+            }
+            xdr.endDecoding();
+            _replayed.increment();
+            return reply;
+        }
+    }
+
+    private static byte[] encode(List<nfs_resop4> reply) throws IOException {
+        try (Xdr xdr = new Xdr(1024)) {
+            xdr.beginEncoding();
+            xdr.xdrEncodeInt(reply.size());
+            for (nfs_resop4 op : reply) {
+                if (op.resop == nfs_opnum4.OP_READ && op.opread.status == nfsstat.NFS_OK) {
+                    /*
+                     * encoding consumes data buffer, which is still needed to
+                     * send the reply.
+                     */
+                    ByteBuffer data = op.opread.resok4.data;
+                    op.opread.resok4.data = data.duplicate();
+                    try {
+                        op.xdrEncode(xdr);
+                    } finally {
+                        op.opread.resok4.data = data;
+                    }
+                } else {
+                    op.xdrEncode(xdr);
+                }
+            }
+            xdr.endEncoding();
+            return xdr.getBytes();
+        }
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return _maxBytes;
+    }
+
+    @Override
+    public long getUsedBytes() {
+        return _usedBytes.get();
+    }
+
+    @Override
+    public long getEntries() {
+        return _entries.sum();
+    }
+
+    @Override
+    public long getCachedReplies() {
+        return _cached.sum();
+    }
+
+    @Override
+    public long getUncachedReplies() {
+        return _uncached.sum();
+    }
+
+    @Override
+    public long getReplayedReplies() {
+        return _replayed.sum();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.v4;
+
+/**
+ * JMX view of the session {@link ReplyCache}.
+ */
+public interface ReplyCacheMXBean {
+
+    /**
+     * Get maximal number of bytes used by cached replies of all sessions.
+     */
+    long getMaxBytes();
+
+    /**
+     * Get number of bytes currently used by cached replies.
+     */
+    long getUsedBytes();
+
+    /**
+     * Get number of currently cached replies.
+     */
+    long getEntries();
+
+    /**
+     * Get number of replies stored in the cache.
+     */
+    long getCachedReplies();
+
+    /**
+     * Get number of replies, which were not stored as cache was full.
+     */
+    long getUncachedReplies();
+
+    /**
+     * Get number of retransmitted requests answered from the cache.
+     */
+    long getReplayedReplies();
+}
@@ -19,6 +19,7 @@
  */
 package org.dcache.nfs.v4;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import org.dcache.nfs.v4.xdr.nfs_resop4;
@@ -36,6 +37,12 @@ public class SessionSlot {
     private int _sequence;
     private List<nfs_resop4> _reply;
 
+    /**
+     * Reply stored in {@link #_replyCache}, if any.
+     */
+    private byte[] _encodedReply;
+    private ReplyCache _replyCache;
+
     public SessionSlot() {
        _sequence = 0;
     }
@@ -59,7 +66,7 @@ public class SessionSlot {
      * cached reply does not exist.
      * @throws SeqMisorderedException if {@code sequnce} is out of order.
      */
-    List<nfs_resop4> acquire(int sequence) throws SeqMisorderedException {
+    synchronized List<nfs_resop4> acquire(int sequence) throws SeqMisorderedException {
 
         if( sequence == _sequence ) {
 
@@ -68,6 +75,14 @@ public class SessionSlot {
                 return _reply;
             }
 
+            if (_encodedReply != null) {
+                try {
+                    return _replyCache.replay(_encodedReply);
+                } catch (IOException e) {
+                    _log.warn("Failed to decode cached reply: {}", e.getMessage());
+                }
+            }
+
             return Collections.emptyList();
         }
 
@@ -78,11 +93,38 @@ public class SessionSlot {
         }
 
         _sequence = sequence;
-        _reply = null;
+        release();
         return null;
     }
 
-    void update(List<nfs_resop4> reply) {
+    synchronized void update(List<nfs_resop4> reply) {
         _reply = reply;
     }
+
+    /**
+     * Store reply in a given cache. If reply doesn't fit into the cache,
+     * a retransmitted request will get {@code NFS4ERR_RETRY_UNCACHED_REP}.
+     *
+     * @param reply the reply to store.
+     * @param replyCache cache to store reply in.
+     */
+    synchronized void update(List<nfs_resop4> reply, ReplyCache replyCache) {
+        release();
+        _encodedReply = replyCache.store(reply);
+        if (_encodedReply != null) {
+            _replyCache = replyCache;
+        }
+    }
+
+    /**
+     * Discard cached reply, if any.
+     */
+    synchronized void release() {
+        _reply = null;
+        if (_encodedReply != null) {
+            _replyCache.release(_encodedReply);
+            _encodedReply = null;
+            _replyCache = null;
+        }
+    }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.v4;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Adjusts the number of session slots, which clients are asked to use,
+ * according to server load.
+ * <p>
+ * Sessions are created with up to {@code maxSlots} slots, but clients
+ * initially are asked to use only {@link NFSv4Defaults#NFS4_MAX_SESSION_SLOTS}
+ * of them with {@code sr_target_highest_slotid}. As long as the server is
+ * not overloaded, the target of a session is increased by one each time the
+ * client uses all slots it was asked for. When the number of requests in
+ * progress or the average request latency exceeds configured limit, the
+ * target of a session is halved, but not more often than once per
+ * {@code shrinkInterval}.
+ * <p>
+ * The target is only advisory. The server keeps accepting requests on all
+ * slots of the session, thus requests in flight and retransmissions on
+ * slots above the target are not affected.
+ */
+public class SlotTableController {
+
+    private static final int DEFAULT_MAX_SLOTS = 128;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    private static final long DEFAULT_LATENCY_LIMIT = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long DEFAULT_SHRINK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final int _maxSlots;
+    private final int _maxInFlight;
+    private final long _latencyLimit;
+    private final long _shrinkInterval;
+
+    /**
+     * Number of compound requests in progress.
+     */
+    private final AtomicInteger _inFlight = new AtomicInteger();
+
+    /**
+     * Exponentially weighted moving average of request latency in nanoseconds.
+     */
+    private volatile long _avgLatency;
+
+    /**
+     * Create controller which allows up to 128 slots per session and shrinks
+     * sessions if more than 1024 requests are in progress or average request
+     * latency exceeds 50 milliseconds.
+     */
+    public SlotTableController() {
+        this(DEFAULT_MAX_SLOTS, DEFAULT_MAX_IN_FLIGHT,
+                DEFAULT_LATENCY_LIMIT, DEFAULT_SHRINK_INTERVAL, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Create controller with given limits.
+     *
+     * @param maxSlots maximal number of slots per session.
+     * @param maxInFlight number of requests in progress above which server is overloaded.
+     * @param latencyLimit average request latency above which server is overloaded.
+     * @param shrinkInterval minimal time between two reductions of a session's target.
+     * @param unit time unit of {@code latencyLimit} and {@code shrinkInterval}.
+     */
+    public SlotTableController(int maxSlots, int maxInFlight, long latencyLimit, long shrinkInterval, TimeUnit unit) {
+        checkArgument(maxSlots > 0, "Number of slots must be positive");
+        _maxSlots = maxSlots;
+        _maxInFlight = maxInFlight;
+        _latencyLimit = unit.toNanos(latencyLimit);
+        _shrinkInterval = unit.toNanos(shrinkInterval);
+    }
+
+    /**
+     * Get maximal number of slots per session.
+     */
+    public int getMaxSlots() {
+        return _maxSlots;
+    }
+
+    /**
+     * Get number of compound requests in progress.
+     */
+    public int getInFlight() {
+        return _inFlight.get();
+    }
+
+    /**
+     * Get average request latency in nanoseconds.
+     */
+    public long getAverageLatency() {
+        return _avgLatency;
+    }
+
+    /**
+     * Check whatever server is overloaded.
+     */
+    public boolean isOverloaded() {
+        return _inFlight.get() > _maxInFlight || _avgLatency > _latencyLimit;
+    }
+
+    void requestStarted() {
+        _inFlight.incrementAndGet();
+    }
+
+    void requestCompleted(long latency) {
+        _inFlight.decrementAndGet();
+        // races between concurrent updates are acceptable for an estimate
+        long avg = _avgLatency;
+        _avgLatency = avg + (latency - avg) / 8;
+    }
+
+    /**
+     * Set initial target of a newly created session.
+     */
+    void sessionCreated(NFSv41Session session) {
+        session.setTargetHighestSlot(Math.min(session.getHighestSlot(),
+                NFSv4Defaults.NFS4_MAX_SESSION_SLOTS - 1));
+    }
+
+    /**
+     * Get highest slot id, which client should use on a given session.
+     *
+     * @param session the client's session.
+     * @param clientHighestSlot highest slot id currently used by the client.
+     * @return target highest slot id.
+     */
+    int targetHighestSlot(NFSv41Session session, int clientHighestSlot) {
+
+        int target = session.getTargetHighestSlot();
+        if (isOverloaded()) {
+            long now = System.nanoTime();
+            if (target > 0 && now - session.getTargetChangeTime() >= _shrinkInterval) {
+                target /= 2;
+                session.setTargetHighestSlot(target);
+            }
+        } else if (clientHighestSlot >= target && target < session.getHighestSlot()) {
+            target++;
+            session.setTargetHighestSlot(target);
+        }
+        return target;
+    }
+}
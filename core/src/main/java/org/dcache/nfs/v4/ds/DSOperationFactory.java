@@ -19,6 +19,8 @@
  */
 package org.dcache.nfs.v4.ds;
 
+import java.util.concurrent.CompletionStage;
+import org.dcache.nfs.v4.CompoundContext;
 import org.dcache.nfs.v4.OperationGETATTR;
 import org.dcache.nfs.v4.OperationBIND_CONN_TO_SESSION;
 import org.dcache.nfs.v4.OperationPUTROOTFH;
@@ -32,16 +34,39 @@ import org.dcache.nfs.v4.OperationCREATE_SESSION;
 import org.dcache.nfs.v4.OperationPUTFH;
 import org.dcache.nfs.v4.AbstractNFSv4Operation;
 import org.dcache.nfs.v4.OperationEXCHANGE_ID;
+import org.dcache.nfs.v4.OperationHandlers;
 import org.dcache.nfs.v4.xdr.nfs_argop4;
 import org.dcache.nfs.v4.xdr.nfs_opnum4;
+import org.dcache.nfs.v4.xdr.nfs_resop4;
 import org.dcache.nfs.vfs.FsCache;
 
 public class DSOperationFactory implements NFSv4OperationFactory {
 
     private final FsCache _fs;
 
+    /**
+     * Whether stateless handlers can be used for operations, which are
+     * shared with MDS. False, if a subclass overrides getOperation.
+     */
+    private final boolean _useHandlers;
+
     public DSOperationFactory(FsCache fs) {
         _fs = fs;
+        _useHandlers = !OperationHandlers.overridesGetOperation(this, DSOperationFactory.class);
+    }
+
+    @Override
+    public CompletionStage<Void> process(CompoundContext context, nfs_argop4 op, nfs_resop4 result) {
+        if (_useHandlers) {
+            switch (op.argop) {
+                case nfs_opnum4.OP_GETATTR:
+                case nfs_opnum4.OP_PUTFH:
+                case nfs_opnum4.OP_PUTROOTFH:
+                case nfs_opnum4.OP_SEQUENCE:
+                    return OperationHandlers.forOperation(op.argop).process(context, op, result);
+            }
+        }
+        return getOperation(op).processAsync(context, result);
     }
 
     @Override
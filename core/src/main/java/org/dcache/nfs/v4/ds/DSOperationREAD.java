@@ -44,7 +44,10 @@ import org.slf4j.LoggerFactory;
 public class DSOperationREAD extends AbstractNFSv4Operation {
 
     private static final Logger _log = LoggerFactory.getLogger(DSOperationREAD.class);
-     private final FsCache _fsCache;
+
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    private final FsCache _fsCache;
 
     public DSOperationREAD(nfs_argop4 args, FsCache fsCache) {
         super(args, nfs_opnum4.OP_READ);
@@ -81,18 +84,15 @@ public class DSOperationREAD extends AbstractNFSv4Operation {
         long offset = _args.opread.offset.value;
         int count = _args.opread.count.value;
 
-        ByteBuffer bb = ByteBuffer.allocateDirect(count);
         FileChannel in = _fsCache.get(inode);
-
-        int bytesReaded = in.read(bb, offset);
-        if (bytesReaded < 0) {
+        ByteBuffer bb = readRegion(context, in, offset, count);
+        int bytesReaded = bb.remaining();
+        if (bytesReaded == 0 && offset >= in.size()) {
             eof = true;
-            bytesReaded = 0;
         }
 
         res.status = nfsstat.NFS_OK;
         res.resok4 = new READ4resok();
-        bb.flip();
         res.resok4.data = bb;
 
         if (offset + bytesReaded == stat.getSize()) {
@@ -103,4 +103,30 @@ public class DSOperationREAD extends AbstractNFSv4Operation {
         _log.debug("MOVER: {}@{} readed, {} requested.",
                 bytesReaded, offset, _args.opread.count.value);
     }
+
+    /**
+     * Read file region of up to {@code count} bytes starting at {@code offset}
+     * into a reply buffer provided by compound context, which is pooled if
+     * the server is configured so. The file is not memory mapped: mappings
+     * are released only by garbage collector and fail the reply if the file is
+     * truncated while being encoded. The returned buffer is ready to be read.
+     */
+    private static ByteBuffer readRegion(CompoundContext context, FileChannel in, long offset, int count) throws IOException {
+
+        long size = in.size();
+        if (offset >= size) {
+            return EMPTY_BUFFER;
+        }
+
+        int len = (int) Math.min(count, size - offset);
+        ByteBuffer bb = context.replyBuffer(len);
+        while (bb.hasRemaining()) {
+            int n = in.read(bb, offset + bb.position());
+            if (n < 0) {
+                break;
+            }
+        }
+        bb.flip();
+        return bb;
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import java.security.Principal;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.security.auth.Subject;
+import org.dcache.nfs.FsExport;
+import org.dcache.utils.GuavaCacheMXBeanImpl;
+
+/**
+ * Short living cache of permission check results made by {@link PseudoFs},
+ * shared between requests.
+ * <p>
+ * A decision is keyed by subject's principals, export, inode and requested
+ * access mask. Decisions of an inode are dropped when its attributes or ACL
+ * are modified through {@link PseudoFs}. Changes made by other means become
+ * visible after the entry life time.
+ * <p>
+ * Decisions of an inode are tagged with a version, which changes when they
+ * are dropped. A decision is stored only if the version has not changed since
+ * the check was started, thus a check which raced with a modification can't
+ * store a decision based on old attributes.
+ */
+public class AccessDecisionCache {
+
+    private static final int DEFAULT_MAX_ENTRIES = 8192;
+    private static final long DEFAULT_LIFETIME = 2;
+
+    private final Cache<Inode, Decisions> _cache;
+
+    /**
+     * Source of unique versions of inode's decisions.
+     */
+    private final AtomicLong _versions = new AtomicLong();
+
+    /**
+     * Create cache which keeps decisions for up to 8192 inodes for 2 seconds.
+     */
+    public AccessDecisionCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_LIFETIME, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Create cache with given size and entry life time. The life time bounds
+     * for how long permission changes, which are not made through
+     * {@link PseudoFs}, are not visible to the clients.
+     *
+     * @param maxEntries maximal number of inodes with cached decisions.
+     * @param lifeTime decision validity time.
+     * @param unit unit of life time.
+     */
+    public AccessDecisionCache(int maxEntries, long lifeTime, TimeUnit unit) {
+        _cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(lifeTime, unit)
+                .recordStats()
+                .build();
+        new GuavaCacheMXBeanImpl("vfs-access-decision", _cache);
+    }
+
+    /**
+     * Get cached decision.
+     *
+     * @return {@code true} if access is allowed, {@code false} if denied or
+     * {@code null} if no decision is cached.
+     */
+    Boolean get(Subject subject, FsExport export, Inode inode, int mask) {
+        Decisions decisions = _cache.getIfPresent(inode);
+        return decisions == null ? null : decisions._decisions.get(new Key(subject, export, mask));
+    }
+
+    /**
+     * Get current version of decisions of the given inode. Must be taken
+     * before the information, which decision is based on, is fetched.
+     *
+     * @return version to be passed to {@link #put}.
+     */
+    long version(Inode inode) {
+        try {
+            return _cache.get(inode, () -> new Decisions(_versions.incrementAndGet()))._version;
+        } catch (ExecutionException e) {
+            // never happens, as creation of decisions does not fail
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Store decision, unless decisions of the inode have been dropped since
+     * the given version was taken.
+     */
+    void put(Subject subject, FsExport export, Inode inode, int mask, boolean allowed, long version) {
+        Decisions decisions = _cache.getIfPresent(inode);
+        if (decisions != null && decisions._version == version) {
+            decisions._decisions.put(new Key(subject, export, mask), allowed);
+        }
+    }
+
+    /**
+     * Discard all decisions made for the given inode.
+     *
+     * @param inode inode which attributes or ACL has been modified.
+     */
+    public void invalidate(Inode inode) {
+        _cache.invalidate(inode);
+    }
+
+    /**
+     * Discard all cached decisions.
+     */
+    public void invalidateAll() {
+        _cache.invalidateAll();
+    }
+
+    private static class Decisions {
+
+        private final long _version;
+        private final ConcurrentMap<Key, Boolean> _decisions = new ConcurrentHashMap<>();
+
+        Decisions(long version) {
+            _version = version;
+        }
+    }
+
+    private static class Key {
+
+        private final Set<Principal> _principals;
+        private final FsExport _export;
+        private final int _mask;
+        private final int _hashCode;
+
+        Key(Subject subject, FsExport export, int mask) {
+            _principals = ImmutableSet.copyOf(subject.getPrincipals());
+            _export = export;
+            _mask = mask;
+            _hashCode = 31 * (31 * _principals.hashCode() + System.identityHashCode(export)) + mask;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return _mask == other._mask
+                    && _export == other._export
+                    && _principals.equals(other._principals);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hashCode;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
+import org.dcache.nfs.vfs.VirtualFileSystem.StabilityLevel;
+import org.dcache.nfs.vfs.VirtualFileSystem.WriteResult;
+
+/**
+ * Non-blocking counterpart of {@link VirtualFileSystem} for back-ends with
+ * high latency, like remote object stores or tape-backed storage.
+ *
+ * <p>
+ * Methods must not block the calling thread. The returned {@link CompletionStage}
+ * is completed by the back-end when the operation is done. Failures are reported
+ * by completing the stage exceptionally, with the same {@link java.io.IOException}s
+ * as thrown by the corresponding {@link VirtualFileSystem} methods.</p>
+ *
+ * <p>
+ * Only the operations on the hot path are provided. All other operations are
+ * served by the synchronous {@link VirtualFileSystem}, which must
+ * represent the same file system.</p>
+ *
+ * @since 0.18
+ */
+public interface AsyncVirtualFileSystem {
+
+    /**
+     * Get file system object's attributes.
+     *
+     * @param inode inode of the file system object.
+     * @return completion stage of file's attributes.
+     * @see VirtualFileSystem#getattr(Inode)
+     */
+    CompletionStage<Stat> getattr(Inode inode);
+
+    /**
+     * Get inode of the object with a given name in provided directory.
+     *
+     * @param parent parent directory's inode.
+     * @param name object name.
+     * @return completion stage of object's inode.
+     * @see VirtualFileSystem#lookup(Inode, String)
+     */
+    CompletionStage<Inode> lookup(Inode parent, String name);
+
+    /**
+     * Get list of file system objects in the given directory.
+     *
+     * @param inode inode of the directory to list.
+     * @param verifier opaque verifier to identify {@code snapshot} to list.
+     * @param cookie a logical offset in the listing.
+     * @return completion stage of directory listing.
+     * @see VirtualFileSystem#list(Inode, byte[], long)
+     */
+    CompletionStage<DirectoryStream> list(Inode inode, byte[] verifier, long cookie);
+
+    /**
+     * Read data from file with a given inode into {@code data}. The buffer must
+     * not be accessed by the caller until returned stage is completed.
+     *
+     * @param inode inode of the file to read from.
+     * @param data buffer for writing.
+     * @param offset file's position to read from.
+     * @return completion stage of number of bytes read from the file.
+     * @see VirtualFileSystem#read(Inode, ByteBuffer, long)
+     */
+    CompletionStage<Integer> read(Inode inode, ByteBuffer data, long offset);
+
+    /**
+     * Write provided {@code data} into inode with a given stability level. The
+     * buffer must not be modified by the caller until returned stage is completed.
+     *
+     * @param inode inode of the file to write.
+     * @param data data to be written.
+     * @param offset the file position to begin writing at.
+     * @param stabilityLevel data stability level.
+     * @return completion stage of write result.
+     * @see VirtualFileSystem#write(Inode, ByteBuffer, long, StabilityLevel)
+     */
+    CompletionStage<WriteResult> write(Inode inode, ByteBuffer data, long offset, StabilityLevel stabilityLevel);
+
+    /**
+     * Get file system's usage information.
+     *
+     * @return completion stage of file system's usage information.
+     * @see VirtualFileSystem#getFsStat()
+     */
+    CompletionStage<FsStat> getFsStat();
+}
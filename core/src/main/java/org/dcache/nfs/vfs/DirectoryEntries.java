@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.dcache.nfs.status.NoEntException;
+
+/**
+ * Utility methods to work with directory entries.
+ */
+public class DirectoryEntries {
+
+    /**
+     * Number of entries in the first batch, when the size of encoded entries
+     * is not known yet.
+     */
+    private static final int FIRST_BATCH_SIZE = 8;
+
+    private DirectoryEntries() {
+    }
+
+    /**
+     * Get number of entries to request with the next call to
+     * {@link #nextWithStat(VirtualFileSystem, Iterator, int)}, such that
+     * attributes are not fetched for entries which won't fit into the reply.
+     * The first batch is small, later batches are estimated from the average
+     * size of already encoded entries.
+     *
+     * @param remaining space left in the reply.
+     * @param used space taken by already encoded entries.
+     * @param count number of already encoded entries.
+     * @param max maximal batch size.
+     * @return number of entries to request.
+     */
+    public static int batchSize(int remaining, int used, int count, int max) {
+        if (count == 0) {
+            return Math.min(FIRST_BATCH_SIZE, max);
+        }
+        int entrySize = Math.max(1, used / count);
+        // one more entry to detect that the reply is full
+        return (int) Math.max(1, Math.min(max, (long) remaining / entrySize + 1));
+    }
+
+    /**
+     * Get up to {@code max} next entries of a directory listing, where all
+     * entries carry file attributes. An empty list is returned when there are
+     * no more entries. Attributes, which are not provided by
+     * directory listing, are fetched with a single bulk request. Entries,
+     * which are removed after they were listed, are skipped.
+     *
+     * @param fs file system to query for missing attributes.
+     * @param entries directory entries iterator.
+     * @param max maximal number of entries to return.
+     * @return list of directory entries with attributes.
+     * @throws IOException
+     */
+    public static List<DirectoryEntry> nextWithStat(VirtualFileSystem fs, Iterator<DirectoryEntry> entries, int max)
+            throws IOException {
+
+        List<DirectoryEntry> batch = new ArrayList<>(max);
+        // an empty batch means end of listing, thus continue if all entries are gone
+        while (batch.isEmpty() && hasNext(entries)) {
+            batch = withStat(fs, next(entries, max));
+        }
+        return batch;
+    }
+
+    private static boolean hasNext(Iterator<DirectoryEntry> entries) throws IOException {
+        try {
+            return entries.hasNext();
+        } catch (UncheckedIOException e) {
+            // lazy directory stream failed to fetch next page
+            throw e.getCause();
+        }
+    }
+
+    private static List<DirectoryEntry> next(Iterator<DirectoryEntry> entries, int max) throws IOException {
+        List<DirectoryEntry> batch = new ArrayList<>(max);
+        while (batch.size() < max && hasNext(entries)) {
+            batch.add(entries.next());
+        }
+        return batch;
+    }
+
+    private static List<DirectoryEntry> withStat(VirtualFileSystem fs, List<DirectoryEntry> batch) throws IOException {
+
+        List<Inode> missing = new ArrayList<>();
+        for (DirectoryEntry entry : batch) {
+            if (entry.getStat() == null) {
+                missing.add(entry.getInode());
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return batch;
+        }
+
+        Map<Inode, Stat> stats = fs.getattr(missing);
+        List<DirectoryEntry> result = new ArrayList<>(batch.size());
+        for (DirectoryEntry entry : batch) {
+            if (entry.getStat() != null) {
+                result.add(entry);
+                continue;
+            }
+
+            Stat stat = stats.get(entry.getInode());
+            if (stat == null) {
+                try {
+                    stat = fs.getattr(entry.getInode());
+                } catch (NoEntException e) {
+                    // removed after it was listed
+                    continue;
+                }
+            }
+            result.add(new DirectoryEntry(entry.getName(), entry.getInode(), stat, entry.getCookie()));
+        }
+        return result;
+    }
+}
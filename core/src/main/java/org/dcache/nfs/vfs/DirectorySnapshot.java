@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.dcache.nfs.vfs.Stat.StatAttribute;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compact, immutable representation of a directory listing. Instead of keeping
+ * a {@link DirectoryEntry} object graph per entry, names and file handles are
+ * packed into single byte arrays, while cookies and file attributes are stored
+ * in primitive arrays, one per attribute. Entries are materialized only when
+ * the listing is iterated. Entries are located by cookie with binary search.
+ */
+public class DirectorySnapshot implements DirectoryStream.PageLoader {
+
+    /**
+     * Number of entries materialized at once.
+     */
+    private static final int PAGE_SIZE = 256;
+
+    /**
+     * Marker of entries without file attributes.
+     */
+    private static final short NO_STAT = -1;
+
+    private static final StatAttribute[] ATTRIBUTES = StatAttribute.values();
+
+    private final int size;
+
+    private final long[] cookies;
+    private final byte[] names;
+    private final int[] nameOffsets;
+    private final byte[] handles;
+    private final int[] handleOffsets;
+
+    private final short[] defined;
+    private final int[] dev;
+    private final int[] ino;
+    private final int[] mode;
+    private final int[] nlink;
+    private final int[] uid;
+    private final int[] gid;
+    private final int[] rdev;
+    private final long[] fileSize;
+    private final long[] fileId;
+    private final long[] generation;
+    private final long[] atime;
+    private final long[] mtime;
+    private final long[] ctime;
+
+    /**
+     * Create snapshot of provided directory entries.
+     *
+     * @param entries directory entries sorted by cookie.
+     */
+    public DirectorySnapshot(Collection<DirectoryEntry> entries) {
+
+        size = entries.size();
+        cookies = new long[size];
+        nameOffsets = new int[size + 1];
+        handleOffsets = new int[size + 1];
+
+        defined = new short[size];
+        dev = new int[size];
+        ino = new int[size];
+        mode = new int[size];
+        nlink = new int[size];
+        uid = new int[size];
+        gid = new int[size];
+        rdev = new int[size];
+        fileSize = new long[size];
+        fileId = new long[size];
+        generation = new long[size];
+        atime = new long[size];
+        mtime = new long[size];
+        ctime = new long[size];
+
+        ByteArrayOutputStream nameBytes = new ByteArrayOutputStream(size * 16);
+        ByteArrayOutputStream handleBytes = new ByteArrayOutputStream(size * 32);
+
+        int i = 0;
+        for (DirectoryEntry entry : entries) {
+            cookies[i] = entry.getCookie();
+
+            byte[] name = entry.getName().getBytes(UTF_8);
+            nameBytes.write(name, 0, name.length);
+            nameOffsets[i + 1] = nameBytes.size();
+
+            byte[] handle = entry.getInode().toNfsHandle();
+            handleBytes.write(handle, 0, handle.length);
+            handleOffsets[i + 1] = handleBytes.size();
+
+            pack(i, entry.getStat());
+            i++;
+        }
+
+        names = nameBytes.toByteArray();
+        handles = handleBytes.toByteArray();
+    }
+
+    /**
+     * Get number of entries in the snapshot.
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public List<DirectoryEntry> load(long cookie) {
+        int from = indexAfter(cookie);
+        int to = Math.min(size, from + PAGE_SIZE);
+        List<DirectoryEntry> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add(entryAt(i));
+        }
+        return page;
+    }
+
+    /**
+     * Get index of the first entry with cookie greater than specified one.
+     */
+    private int indexAfter(long cookie) {
+        int i = Arrays.binarySearch(cookies, cookie);
+        return i < 0 ? -i - 1 : i + 1;
+    }
+
+    private DirectoryEntry entryAt(int i) {
+        String name = new String(names, nameOffsets[i], nameOffsets[i + 1] - nameOffsets[i], UTF_8);
+        Inode inode = new Inode(Arrays.copyOfRange(handles, handleOffsets[i], handleOffsets[i + 1]));
+        return new DirectoryEntry(name, inode, unpack(i), cookies[i]);
+    }
+
+    private void pack(int i, Stat stat) {
+
+        if (stat == null) {
+            defined[i] = NO_STAT;
+            return;
+        }
+
+        short mask = 0;
+        for (StatAttribute attr : ATTRIBUTES) {
+            if (stat.isDefined(attr)) {
+                mask |= 1 << attr.ordinal();
+            }
+        }
+        defined[i] = mask;
+
+        if (stat.isDefined(StatAttribute.DEV)) {
+            dev[i] = stat.getDev();
+        }
+        if (stat.isDefined(StatAttribute.INO)) {
+            ino[i] = stat.getIno();
+        }
+        if (stat.isDefined(StatAttribute.MODE)) {
+            mode[i] = stat.getMode();
+        }
+        if (stat.isDefined(StatAttribute.NLINK)) {
+            nlink[i] = stat.getNlink();
+        }
+        if (stat.isDefined(StatAttribute.OWNER)) {
+            uid[i] = stat.getUid();
+        }
+        if (stat.isDefined(StatAttribute.GROUP)) {
+            gid[i] = stat.getGid();
+        }
+        if (stat.isDefined(StatAttribute.RDEV)) {
+            rdev[i] = stat.getRdev();
+        }
+        if (stat.isDefined(StatAttribute.SIZE)) {
+            fileSize[i] = stat.getSize();
+        }
+        if (stat.isDefined(StatAttribute.FILEID)) {
+            fileId[i] = stat.getFileId();
+        }
+        if (stat.isDefined(StatAttribute.GENERATION)) {
+            generation[i] = stat.getGeneration();
+        }
+        if (stat.isDefined(StatAttribute.ATIME)) {
+            atime[i] = stat.getATime();
+        }
+        if (stat.isDefined(StatAttribute.MTIME)) {
+            mtime[i] = stat.getMTime();
+        }
+        if (stat.isDefined(StatAttribute.CTIME)) {
+            ctime[i] = stat.getCTime();
+        }
+    }
+
+    private Stat unpack(int i) {
+
+        short mask = defined[i];
+        if (mask == NO_STAT) {
+            return null;
+        }
+
+        Stat stat = new Stat();
+        if (isDefined(mask, StatAttribute.DEV)) {
+            stat.setDev(dev[i]);
+        }
+        if (isDefined(mask, StatAttribute.INO)) {
+            stat.setIno(ino[i]);
+        }
+        if (isDefined(mask, StatAttribute.MODE)) {
+            stat.setMode(mode[i]);
+        }
+        if (isDefined(mask, StatAttribute.NLINK)) {
+            stat.setNlink(nlink[i]);
+        }
+        if (isDefined(mask, StatAttribute.OWNER)) {
+            stat.setUid(uid[i]);
+        }
+        if (isDefined(mask, StatAttribute.GROUP)) {
+            stat.setGid(gid[i]);
+        }
+        if (isDefined(mask, StatAttribute.RDEV)) {
+            stat.setRdev(rdev[i]);
+        }
+        if (isDefined(mask, StatAttribute.SIZE)) {
+            stat.setSize(fileSize[i]);
+        }
+        if (isDefined(mask, StatAttribute.FILEID)) {
+            stat.setFileid(fileId[i]);
+        }
+        if (isDefined(mask, StatAttribute.GENERATION)) {
+            stat.setGeneration(generation[i]);
+        }
+        if (isDefined(mask, StatAttribute.ATIME)) {
+            stat.setATime(atime[i]);
+        }
+        if (isDefined(mask, StatAttribute.MTIME)) {
+            stat.setMTime(mtime[i]);
+        }
+        if (isDefined(mask, StatAttribute.CTIME)) {
+            stat.setCTime(ctime[i]);
+        }
+        return stat;
+    }
+
+    private static boolean isDefined(short mask, StatAttribute attr) {
+        return (mask & (1 << attr.ordinal())) != 0;
+    }
+}
@@ -20,23 +20,52 @@
 package org.dcache.nfs.vfs;
 
 import com.google.common.collect.Sets;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NavigableSet;
+import java.util.NoSuchElementException;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.dcache.nfs.v4.xdr.nfs4_prot;
 
 /**
- *
+ * Directory listing. The entries are either provided up front or, for very
+ * large directories, are fetched lazily, page by page, by a {@link PageLoader}
+ * as the stream is iterated.
  */
 public class DirectoryStream implements Iterable<DirectoryEntry>{
 
     // v4 and v3 have the same verifier size
     public final static byte[] ZERO_VERIFIER = new byte[nfs4_prot.NFS4_VERIFIER_SIZE];
 
+    /**
+     * Source of directory entries for lazily iterated directory streams.
+     */
+    @FunctionalInterface
+    public interface PageLoader {
+
+        /**
+         * Get next page of directory entries, which have cookies greater than
+         * specified {@code cookie}, sorted by cookies. Empty list indicates end
+         * of the directory.
+         *
+         * @param cookie cookie of the last entry of the previous page, exclusive.
+         * @return page of directory entries.
+         * @throws IOException
+         */
+        List<DirectoryEntry> load(long cookie) throws IOException;
+    }
+
     private final byte[] verifier;
     private final NavigableSet<DirectoryEntry> entries;
+    private final PageLoader loader;
+    private final long fromCookie;
 
     public DirectoryStream(Collection<DirectoryEntry> entries) {
         this(ZERO_VERIFIER, new TreeSet<>(entries));
@@ -49,6 +78,26 @@ public class DirectoryStream implements Iterable<DirectoryEntry>{
     public DirectoryStream(byte[] verifier, NavigableSet<DirectoryEntry> entries) {
         this.verifier = verifier;
         this.entries = Sets.unmodifiableNavigableSet(entries);
+        this.loader = null;
+        this.fromCookie = 0L;
+    }
+
+    /**
+     * Create lazily iterated directory stream. No entries are fetched until
+     * the stream is iterated.
+     *
+     * @param verifier directory verifier.
+     * @param loader source of directory entries.
+     */
+    public DirectoryStream(byte[] verifier, PageLoader loader) {
+        this(verifier, loader, 0L);
+    }
+
+    private DirectoryStream(byte[] verifier, PageLoader loader, long fromCookie) {
+        this.verifier = verifier;
+        this.entries = null;
+        this.loader = loader;
+        this.fromCookie = fromCookie;
     }
 
     public byte[] getVerifier() {
@@ -56,17 +105,47 @@ public class DirectoryStream implements Iterable<DirectoryEntry>{
     }
 
     /**
-     * Get listing entries sorted by cookies.
+     * Get listing entries sorted by cookies. For lazily iterated streams all
+     * remaining entries are fetched, thus {@link #iterator()} should be
+     * preferred.
      *
      * @return listing entries.
      */
     public SortedSet<DirectoryEntry> getEntries() {
-        return entries;
+        if (entries != null) {
+            return entries;
+        }
+
+        NavigableSet<DirectoryEntry> all = new TreeSet<>();
+        iterator().forEachRemaining(all::add);
+        return Collections.unmodifiableSortedSet(all);
+    }
+
+    /**
+     * Returns {@code true} if entries of this stream are fetched on demand.
+     *
+     * @return true, if stream is lazy.
+     */
+    public boolean isLazy() {
+        return loader != null;
+    }
+
+    /**
+     * Get page loader of a lazily iterated stream.
+     */
+    PageLoader getPageLoader() {
+        return loader;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * For lazily iterated streams the returned iterator throws
+     * {@link UncheckedIOException} if next page of entries can't be fetched.
+     */
     @Override
     public Iterator<DirectoryEntry> iterator() {
-        return entries.iterator();
+        return entries != null ? entries.iterator() : new PageIterator(fromCookie);
     }
 
     /**
@@ -78,7 +157,66 @@ public class DirectoryStream implements Iterable<DirectoryEntry>{
      * greater than specified {@code fromCookie}.
      */
     public DirectoryStream tail(long fromCookie) {
+        if (entries == null) {
+            return new DirectoryStream(verifier, loader, fromCookie);
+        }
         final DirectoryEntry cookieEntry = new DirectoryEntry("", null, null, fromCookie);
         return new DirectoryStream(verifier, entries.tailSet(cookieEntry, false));
     }
+
+    /**
+     * Get view of this DirectoryStream, where each entry is converted by
+     * provided function. The function must not change entry's cookie. Lazily
+     * iterated streams stay lazy.
+     *
+     * @param transformer function to apply to each entry.
+     * @return transformed view of this DirectoryStream.
+     */
+    public DirectoryStream transform(Function<DirectoryEntry, DirectoryEntry> transformer) {
+        if (entries == null) {
+            return new DirectoryStream(verifier,
+                    c -> loader.load(c).stream().map(transformer).collect(Collectors.toList()),
+                    fromCookie);
+        }
+        return new DirectoryStream(verifier, entries.stream().map(transformer).collect(Collectors.toList()));
+    }
+
+    private class PageIterator implements Iterator<DirectoryEntry> {
+
+        private long cookie;
+        private Iterator<DirectoryEntry> page = Collections.emptyIterator();
+        private boolean eof;
+
+        PageIterator(long cookie) {
+            this.cookie = cookie;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext() && !eof) {
+                List<DirectoryEntry> next;
+                try {
+                    next = loader.load(cookie);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (next.isEmpty()) {
+                    eof = true;
+                } else {
+                    page = next.iterator();
+                }
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public DirectoryEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            DirectoryEntry entry = page.next();
+            cookie = entry.getCookie();
+            return entry;
+        }
+    }
 }
@@ -19,6 +19,7 @@ package org.dcache.nfs.vfs;
 import com.google.common.io.BaseEncoding;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 /**
  * NFS file handle on wire representation format v1.
@@ -49,6 +50,14 @@ public class FileHandle {
     private final int type;
     private final byte[] fs_opaque;
 
+    /**
+     * Wire representation of this handle. As file handles are used as
+     * cache keys on every lookup, the encoded form and its hash code are
+     * computed only once.
+     */
+    private final byte[] encoded;
+    private final int hashCode;
+
     public FileHandle(int generation, int exportIdx, int type, byte[] fs_opaque) {
         this.version = VERSION;
         this.magic = MAGIC;
@@ -56,6 +65,8 @@ public class FileHandle {
         this.exportIdx = exportIdx;
         this.type = type;
         this.fs_opaque = fs_opaque;
+        this.encoded = encode();
+        this.hashCode = Arrays.hashCode(encoded);
     }
 
 
@@ -106,6 +117,8 @@ public class FileHandle {
         } else {
             throw new IllegalArgumentException("Unsupported version: " + geussVersion);
         }
+        encoded = encode();
+        hashCode = Arrays.hashCode(encoded);
     }
 
     public int getVersion() {
@@ -132,7 +145,17 @@ public class FileHandle {
         return fs_opaque;
     }
 
+    /**
+     * Returns wire representation of this file handle. The returned array
+     * is shared and must not be modified.
+     *
+     * @return encoded file handle.
+     */
     public byte[] bytes() {
+        return encoded;
+    }
+
+    private byte[] encode() {
         int len = fs_opaque.length + MIN_LEN;
         byte[] bytes = new byte[len];
         ByteBuffer b = ByteBuffer.wrap(bytes);
@@ -147,6 +170,23 @@ public class FileHandle {
         return bytes;
     }
 
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof FileHandle)) {
+            return false;
+        }
+        final FileHandle other = (FileHandle) obj;
+        return hashCode == other.hashCode && Arrays.equals(encoded, other.encoded);
+    }
+
     @Override
     public String toString() {
         return BaseEncoding.base16().lowerCase().encode(this.bytes());
@@ -20,6 +20,9 @@
 package org.dcache.nfs.vfs;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
 import javax.security.auth.Subject;
 import org.dcache.nfs.v4.NfsIdMapping;
 import org.dcache.nfs.v4.xdr.nfsace4;
@@ -95,6 +98,11 @@ public abstract class ForwardingFileSystem implements VirtualFileSystem {
         return delegate().read(inode, data, offset, count);
     }
 
+    @Override
+    public int read(Inode inode, ByteBuffer data, long offset) throws IOException {
+        return delegate().read(inode, data, offset);
+    }
+
     @Override
     public String readlink(Inode inode) throws IOException {
         return delegate().readlink(inode);
@@ -115,6 +123,11 @@ public abstract class ForwardingFileSystem implements VirtualFileSystem {
         return delegate().write(inode, data, offset, count, stabilityLevel);
     }
 
+    @Override
+    public WriteResult write(Inode inode, ByteBuffer data, long offset, StabilityLevel stabilityLevel) throws IOException {
+        return delegate().write(inode, data, offset, stabilityLevel);
+    }
+
     @Override
     public void commit(Inode inode, long offset, int count) throws IOException {
         delegate().commit(inode, offset, count);
@@ -125,6 +138,11 @@ public abstract class ForwardingFileSystem implements VirtualFileSystem {
         return delegate().getattr(inode);
     }
 
+    @Override
+    public Map<Inode, Stat> getattr(Collection<Inode> inodes) throws IOException {
+        return delegate().getattr(inodes);
+    }
+
     @Override
     public void setattr(Inode inode, Stat stat) throws IOException {
         delegate().setattr(inode, stat);
@@ -160,4 +178,9 @@ public abstract class ForwardingFileSystem implements VirtualFileSystem {
         return delegate().directoryVerifier(inode);
     }
 
+    @Override
+    public long getWriteVerifier() {
+        return delegate().getWriteVerifier();
+    }
+
 }
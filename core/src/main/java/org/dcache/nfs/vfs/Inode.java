@@ -19,8 +19,6 @@
  */
 package org.dcache.nfs.vfs;
 
-import java.util.Arrays;
-
 public class Inode {
 
     FileHandle fh;
@@ -47,11 +45,14 @@ public class Inode {
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(fh.bytes());
+        return fh.hashCode();
     }
 
     @Override
     public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
         if (obj == null) {
             return false;
         }
@@ -59,7 +60,7 @@ public class Inode {
             return false;
         }
         final Inode other = (Inode) obj;
-        return Arrays.equals(fh.bytes(), other.fh.bytes());
+        return fh.equals(other.fh);
     }
 
     public boolean isPesudoInode() {
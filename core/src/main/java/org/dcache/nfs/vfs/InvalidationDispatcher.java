@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects {@link InvalidationEvent}s published by a file system backend
+ * and delivers them in batches to registered {@link InvalidationListener}s.
+ * <p>
+ * Events are delivered at most {@code delay} after being published, or as
+ * soon as {@code maxBatchSize} events are pending. Duplicate events within
+ * a batch are delivered only once.
+ * <p>
+ * Example:
+ * <pre>
+ *   VfsCache cache = new VfsCache(fs, config);
+ *   InvalidationDispatcher dispatcher = new InvalidationDispatcher(10, TimeUnit.MILLISECONDS, 1024);
+ *   dispatcher.addListener(cache);
+ *   ...
+ *   // called by backend on external modification
+ *   dispatcher.publish(InvalidationEvent.forEntry(dir, "foo"));
+ * </pre>
+ */
+public class InvalidationDispatcher implements Closeable {
+
+    private static final Logger _log = LoggerFactory.getLogger(InvalidationDispatcher.class);
+
+    private final List<InvalidationListener> _listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService _executor;
+    private final long _delay;
+    private final TimeUnit _unit;
+    private final int _maxBatchSize;
+
+    /**
+     * Events not delivered yet. Guarded by {@code this}.
+     */
+    private Set<InvalidationEvent> _pending = new LinkedHashSet<>();
+
+    /**
+     * Whether dispatcher is closed. Guarded by {@code this}.
+     */
+    private boolean _closed;
+
+    /**
+     * Create a new dispatcher.
+     *
+     * @param delay maximal time an event is held back to build a batch.
+     * @param unit unit of delay.
+     * @param maxBatchSize number of events which triggers immediate delivery.
+     */
+    public InvalidationDispatcher(long delay, TimeUnit unit, int maxBatchSize) {
+        _delay = delay;
+        _unit = unit;
+        _maxBatchSize = maxBatchSize;
+        _executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("vfs-invalidation-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    /**
+     * Register listener to receive events.
+     * @param listener to register.
+     */
+    public void addListener(InvalidationListener listener) {
+        _listeners.add(listener);
+    }
+
+    /**
+     * Unregister listener.
+     * @param listener to unregister.
+     */
+    public void removeListener(InvalidationListener listener) {
+        _listeners.remove(listener);
+    }
+
+    /**
+     * Publish an event. The method never blocks on listeners. Events published
+     * after the dispatcher is closed are dropped.
+     * @param event to publish.
+     */
+    public void publish(InvalidationEvent event) {
+        boolean first;
+        boolean full;
+        synchronized (this) {
+            if (_closed) {
+                _log.debug("Dropping invalidation event published after close: {}", event);
+                return;
+            }
+            first = _pending.isEmpty();
+            _pending.add(event);
+            full = _pending.size() >= _maxBatchSize;
+        }
+
+        try {
+            if (full) {
+                _executor.execute(this::flush);
+            } else if (first) {
+                _executor.schedule(this::flush, _delay, _unit);
+            }
+        } catch (RejectedExecutionException e) {
+            // closed concurrently, the event is delivered by close
+        }
+    }
+
+    /**
+     * Deliver all pending events to listeners.
+     */
+    public void flush() {
+        Collection<InvalidationEvent> batch;
+        synchronized (this) {
+            if (_pending.isEmpty()) {
+                return;
+            }
+            batch = _pending;
+            _pending = new LinkedHashSet<>();
+        }
+
+        for (InvalidationListener listener : _listeners) {
+            try {
+                listener.invalidate(batch);
+            } catch (RuntimeException e) {
+                _log.error("Failed to deliver invalidation events to {}: {}", listener, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Deliver pending events and stop the dispatcher.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            _closed = true;
+        }
+        _executor.shutdown();
+        flush();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Notification that an object of the file system was modified by means
+ * other than this server. The event either refers to the object itself,
+ * in which case its attributes, parent and, for directories, listing
+ * are affected, or to a single entry of a directory.
+ */
+public class InvalidationEvent implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] handle;
+    private final String name;
+
+    private InvalidationEvent(Inode inode, String name) {
+        this.handle = inode.toNfsHandle();
+        this.name = name;
+    }
+
+    /**
+     * Create event for an object which attributes or content have changed.
+     *
+     * @param inode modified object.
+     * @return new event.
+     */
+    public static InvalidationEvent forInode(Inode inode) {
+        return new InvalidationEvent(inode, null);
+    }
+
+    /**
+     * Create event for a directory entry which was created, removed or
+     * renamed.
+     *
+     * @param parent directory containing the entry.
+     * @param name name of the entry.
+     * @return new event.
+     */
+    public static InvalidationEvent forEntry(Inode parent, String name) {
+        return new InvalidationEvent(parent, Objects.requireNonNull(name));
+    }
+
+    /**
+     * Returns modified object or, for directory entry events, the directory.
+     * @return inode.
+     */
+    public Inode getInode() {
+        return new Inode(handle);
+    }
+
+    /**
+     * Returns name of modified directory entry or {@code null} if event
+     * refers to the object itself.
+     * @return name of the directory entry or null.
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof InvalidationEvent)) {
+            return false;
+        }
+        InvalidationEvent other = (InvalidationEvent) obj;
+        return Arrays.equals(handle, other.handle) && Objects.equals(name, other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(handle) + Objects.hashCode(name);
+    }
+
+    @Override
+    public String toString() {
+        return name == null ? getInode().toString() : getInode() + "/" + name;
+    }
+}
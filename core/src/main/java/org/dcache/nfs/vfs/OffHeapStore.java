@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A hash table of byte array keys and values kept in direct memory.
+ * <p>
+ * Entries are stored in fixed size slots of pre-allocated direct buffers,
+ * thus the store never uses more than the configured number of bytes
+ * and does not create any per-entry objects on the java heap. The table
+ * is split into independently locked segments. Each segment uses open
+ * addressing with linear probing and is kept at most three quarters full;
+ * when it is full, entries are evicted with the CLOCK algorithm, an
+ * approximation of LRU. Entries older than the configured life time are
+ * dropped on access.
+ * <p>
+ * Keys or values which do not fit into a slot are not stored.
+ */
+class OffHeapStore {
+
+    /*
+     * Slot layout:
+     *
+     *   byte   state       // EMPTY or USED
+     *   byte   referenced  // CLOCK reference bit
+     *   short  key length
+     *   short  value length
+     *   short  unused
+     *   int    hash
+     *   int    unused
+     *   long   expiration time
+     *   byte[] key         // maxKeySize bytes
+     *   byte[] value       // maxValueSize bytes
+     */
+    private static final int STATE_OFFSET = 0;
+    private static final int REF_OFFSET = 1;
+    private static final int KEY_LEN_OFFSET = 2;
+    private static final int VALUE_LEN_OFFSET = 4;
+    private static final int HASH_OFFSET = 8;
+    private static final int EXPIRES_OFFSET = 16;
+    private static final int HEADER_SIZE = 24;
+
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+
+    /**
+     * Maximal size of a single direct buffer.
+     */
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+    private static final int MIN_SEGMENTS = 16;
+
+    private final int maxKeySize;
+    private final int maxValueSize;
+    private final int slotSize;
+    private final long lifeTime;
+    private final LongSupplier clock;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a new store.
+     *
+     * @param maxKeySize maximal key size in bytes.
+     * @param maxValueSize maximal value size in bytes.
+     * @param maxBytes memory budget of the store in bytes.
+     * @param lifeTime time in milliseconds after which entries expire.
+     */
+    OffHeapStore(int maxKeySize, int maxValueSize, long maxBytes, long lifeTime) {
+        this(maxKeySize, maxValueSize, maxBytes, lifeTime, System::currentTimeMillis);
+    }
+
+    OffHeapStore(int maxKeySize, int maxValueSize, long maxBytes, long lifeTime, LongSupplier clock) {
+        checkArgument(maxKeySize > 0 && maxKeySize <= Short.MAX_VALUE, "invalid key size");
+        checkArgument(maxValueSize > 0 && maxValueSize <= Short.MAX_VALUE, "invalid value size");
+
+        this.maxKeySize = maxKeySize;
+        this.maxValueSize = maxValueSize;
+        this.slotSize = align(HEADER_SIZE + maxKeySize + maxValueSize);
+        this.lifeTime = lifeTime;
+        this.clock = clock;
+
+        int segmentCount = MIN_SEGMENTS;
+        while (maxBytes / segmentCount > MAX_SEGMENT_SIZE) {
+            segmentCount <<= 1;
+        }
+
+        // number of slots per segment rounded down to a power of two
+        long slots = Math.max(1, maxBytes / segmentCount / slotSize);
+        int slotsPerSegment = Integer.highestOneBit((int) Math.min(slots, Integer.MAX_VALUE / slotSize));
+        checkArgument(slotsPerSegment >= 4, "memory budget too small");
+
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(slotsPerSegment);
+        }
+        segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    /**
+     * Get value associated with the given key.
+     *
+     * @param key the key.
+     * @return value or {@code null} if there is no valid entry for the key.
+     */
+    byte[] get(byte[] key) {
+        if (key.length > maxKeySize) {
+            misses.increment();
+            return null;
+        }
+        int hash = hash(key);
+        byte[] value = segmentFor(hash).get(key, hash);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Associate value with the given key, replacing existing value, if any.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @return true if value is stored, false if key or value are too big.
+     */
+    boolean put(byte[] key, byte[] value) {
+        if (key.length > maxKeySize || value.length > maxValueSize) {
+            return false;
+        }
+        int hash = hash(key);
+        segmentFor(hash).put(key, hash, value);
+        return true;
+    }
+
+    /**
+     * Replace value of an existing entry with the result of the given
+     * function. The function is called while holding the segment lock and
+     * must not access the store. The life time of the entry is not changed.
+     *
+     * @param key the key.
+     * @param update function to compute new value from the current one.
+     */
+    void update(byte[] key, UnaryOperator<byte[]> update) {
+        if (key.length > maxKeySize) {
+            return;
+        }
+        int hash = hash(key);
+        segmentFor(hash).update(key, hash, update);
+    }
+
+    /**
+     * Remove entry with the given key, if any.
+     *
+     * @param key the key.
+     */
+    void remove(byte[] key) {
+        if (key.length > maxKeySize) {
+            return;
+        }
+        int hash = hash(key);
+        segmentFor(hash).remove(key, hash);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return number of entries in the store.
+     */
+    long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return number of bytes allocated by the store.
+     */
+    long capacityBytes() {
+        return (long) segments.length * segments[0].capacity * slotSize;
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    long evictionCount() {
+        return evictions.sum();
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> segmentShift];
+    }
+
+    private static int hash(byte[] key) {
+        int h = 1;
+        for (byte b : key) {
+            h = 31 * h + b;
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    private class Segment {
+
+        private final ByteBuffer data;
+        private final int capacity;
+        private final int mask;
+        private final int maxCount;
+        private int count;
+        private int hand;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.maxCount = capacity - capacity / 4;
+            this.data = ByteBuffer.allocateDirect(capacity * slotSize);
+        }
+
+        synchronized byte[] get(byte[] key, int hash) {
+            int slot = find(key, hash);
+            if (slot < 0) {
+                return null;
+            }
+
+            int offset = slot * slotSize;
+            if (data.getLong(offset + EXPIRES_OFFSET) < clock.getAsLong()) {
+                delete(slot);
+                return null;
+            }
+
+            data.put(offset + REF_OFFSET, (byte) 1);
+            byte[] value = new byte[data.getShort(offset + VALUE_LEN_OFFSET)];
+            read(offset + HEADER_SIZE + maxKeySize, value);
+            return value;
+        }
+
+        synchronized void put(byte[] key, int hash, byte[] value) {
+            int slot = find(key, hash);
+            if (slot < 0) {
+                if (count >= maxCount) {
+                    evict();
+                }
+                slot = hash & mask;
+                while (data.get(slot * slotSize + STATE_OFFSET) == USED) {
+                    slot = (slot + 1) & mask;
+                }
+                count++;
+            }
+
+            int offset = slot * slotSize;
+            data.put(offset + STATE_OFFSET, USED);
+            data.put(offset + REF_OFFSET, (byte) 0);
+            data.putShort(offset + KEY_LEN_OFFSET, (short) key.length);
+            data.putShort(offset + VALUE_LEN_OFFSET, (short) value.length);
+            data.putInt(offset + HASH_OFFSET, hash);
+            data.putLong(offset + EXPIRES_OFFSET, clock.getAsLong() + lifeTime);
+            write(offset + HEADER_SIZE, key);
+            write(offset + HEADER_SIZE + maxKeySize, value);
+        }
+
+        synchronized void update(byte[] key, int hash, UnaryOperator<byte[]> update) {
+            int slot = find(key, hash);
+            if (slot < 0) {
+                return;
+            }
+
+            int offset = slot * slotSize;
+            byte[] value = new byte[data.getShort(offset + VALUE_LEN_OFFSET)];
+            read(offset + HEADER_SIZE + maxKeySize, value);
+            byte[] updated = update.apply(value);
+            if (updated.length > maxValueSize) {
+                delete(slot);
+                return;
+            }
+            data.putShort(offset + VALUE_LEN_OFFSET, (short) updated.length);
+            write(offset + HEADER_SIZE + maxKeySize, updated);
+        }
+
+        synchronized void remove(byte[] key, int hash) {
+            int slot = find(key, hash);
+            if (slot >= 0) {
+                delete(slot);
+            }
+        }
+
+        synchronized void clear() {
+            for (int slot = 0; slot < capacity; slot++) {
+                data.put(slot * slotSize + STATE_OFFSET, EMPTY);
+            }
+            count = 0;
+        }
+
+        synchronized int size() {
+            return count;
+        }
+
+        /**
+         * Returns slot index of the entry with the given key or -1.
+         */
+        private int find(byte[] key, int hash) {
+            int slot = hash & mask;
+            while (true) {
+                int offset = slot * slotSize;
+                if (data.get(offset + STATE_OFFSET) == EMPTY) {
+                    return -1;
+                }
+                if (data.getInt(offset + HASH_OFFSET) == hash
+                        && data.getShort(offset + KEY_LEN_OFFSET) == key.length
+                        && keyEquals(offset + HEADER_SIZE, key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Frees one slot using CLOCK algorithm: entries referenced since the
+         * last pass of the hand get a second chance.
+         */
+        private void evict() {
+            while (true) {
+                int offset = hand * slotSize;
+                if (data.get(offset + STATE_OFFSET) == USED) {
+                    if (data.get(offset + REF_OFFSET) == 0) {
+                        delete(hand);
+                        evictions.increment();
+                        return;
+                    }
+                    data.put(offset + REF_OFFSET, (byte) 0);
+                }
+                hand = (hand + 1) & mask;
+            }
+        }
+
+        /**
+         * Removes entry in the given slot. Following entries of the same
+         * probe sequence are shifted back to keep them reachable.
+         */
+        private void delete(int slot) {
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                int offset = next * slotSize;
+                if (data.get(offset + STATE_OFFSET) == EMPTY) {
+                    break;
+                }
+                int home = data.getInt(offset + HASH_OFFSET) & mask;
+                // move the entry if its home slot is not between the hole and the entry
+                boolean movable = hole <= next
+                        ? home <= hole || home > next
+                        : home <= hole && home > next;
+                if (movable) {
+                    copySlot(next, hole);
+                    hole = next;
+                }
+            }
+            data.put(hole * slotSize + STATE_OFFSET, EMPTY);
+            count--;
+        }
+
+        private void copySlot(int from, int to) {
+            ByteBuffer src = data.duplicate();
+            src.position(from * slotSize).limit(from * slotSize + slotSize);
+            ByteBuffer dst = data.duplicate();
+            dst.position(to * slotSize);
+            dst.put(src);
+        }
+
+        private boolean keyEquals(int offset, byte[] key) {
+            for (int i = 0; i < key.length; i++) {
+                if (data.get(offset + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void read(int offset, byte[] dst) {
+            for (int i = 0; i < dst.length; i++) {
+                dst[i] = data.get(offset + i);
+            }
+        }
+
+        private void write(int offset, byte[] src) {
+            for (int i = 0; i < src.length; i++) {
+                data.put(offset + i, src[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.security.auth.Subject;
+import org.dcache.nfs.vfs.Stat.StatAttribute;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Caching decorator which keeps file attributes and name lookups in direct
+ * memory.
+ * <p>
+ * Unlike {@link VfsCache}, which keeps {@link Stat} and {@link Inode} objects
+ * behind soft references, this cache stores fixed-layout records in
+ * pre-allocated off-heap buffers. The memory used is bound by
+ * {@link VfsCacheConfig#getOffHeapMaxBytes()}, split evenly between
+ * attributes and lookups, and is independent of garbage collector behavior.
+ * This makes it suitable for working sets of tens of millions of inodes.
+ * Entries expire after {@link VfsCacheConfig#getLifeTime()}.
+ * <p>
+ * Only lookup and getattr results are cached. Other requests are passed to
+ * the inner file system.
+ */
+public class OffHeapVfsCache extends ForwardingFileSystem {
+
+    /**
+     * Maximal size of NFS file handle.
+     */
+    private static final int MAX_HANDLE_SIZE = 128;
+
+    /**
+     * Parent handle and name; longer names are not cached.
+     */
+    private static final int MAX_LOOKUP_KEY_SIZE = 256;
+
+    private final VirtualFileSystem _inner;
+    private final OffHeapStore _statStore;
+    private final OffHeapStore _lookupStore;
+
+    public OffHeapVfsCache(VirtualFileSystem inner, VfsCacheConfig cacheConfig) {
+        _inner = inner;
+        long lifeTime = cacheConfig.getTimeUnit().toMillis(cacheConfig.getLifeTime());
+        long budget = cacheConfig.getOffHeapMaxBytes() / 2;
+        _statStore = new OffHeapStore(MAX_HANDLE_SIZE, StatRecord.SIZE, budget, lifeTime);
+        _lookupStore = new OffHeapStore(MAX_LOOKUP_KEY_SIZE, MAX_HANDLE_SIZE, budget, lifeTime);
+    }
+
+    @Override
+    protected VirtualFileSystem delegate() {
+        return _inner;
+    }
+
+    @Override
+    public Inode lookup(Inode parent, String path) throws IOException {
+        byte[] key = lookupKey(parent, path);
+        byte[] handle = _lookupStore.get(key);
+        if (handle != null) {
+            return new Inode(handle);
+        }
+
+        Inode inode = _inner.lookup(parent, path);
+        _lookupStore.put(key, inode.toNfsHandle());
+        return inode;
+    }
+
+    @Override
+    public Stat getattr(Inode inode) throws IOException {
+        byte[] record = _statStore.get(inode.getFileId());
+        if (record != null) {
+            return StatRecord.unpack(record);
+        }
+
+        Stat stat = _inner.getattr(inode);
+        _statStore.put(inode.getFileId(), StatRecord.pack(stat));
+        return stat;
+    }
+
+    @Override
+    public Map<Inode, Stat> getattr(Collection<Inode> inodes) throws IOException {
+
+        Map<Inode, Stat> stats = new HashMap<>(inodes.size());
+        List<Inode> missing = new ArrayList<>();
+        for (Inode inode : inodes) {
+            byte[] record = _statStore.get(inode.getFileId());
+            if (record == null) {
+                missing.add(inode);
+            } else {
+                stats.put(inode, StatRecord.unpack(record));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Map<Inode, Stat> loaded = _inner.getattr(missing);
+            loaded.forEach((inode, stat) -> {
+                _statStore.put(inode.getFileId(), StatRecord.pack(stat));
+                stats.put(inode, stat);
+            });
+        }
+        return stats;
+    }
+
+    @Override
+    public Inode create(Inode parent, Stat.Type type, String path, Subject subject, int mode) throws IOException {
+        Inode inode = _inner.create(parent, type, path, subject, mode);
+        _lookupStore.put(lookupKey(parent, path), inode.toNfsHandle());
+        _statStore.remove(parent.getFileId());
+        return inode;
+    }
+
+    @Override
+    public Inode mkdir(Inode parent, String path, Subject subject, int mode) throws IOException {
+        Inode inode = _inner.mkdir(parent, path, subject, mode);
+        _lookupStore.put(lookupKey(parent, path), inode.toNfsHandle());
+        _statStore.remove(parent.getFileId());
+        return inode;
+    }
+
+    @Override
+    public Inode link(Inode parent, Inode link, String path, Subject subject) throws IOException {
+        Inode inode = _inner.link(parent, link, path, subject);
+        _lookupStore.put(lookupKey(parent, path), inode.toNfsHandle());
+        _statStore.remove(parent.getFileId());
+        _statStore.remove(inode.getFileId());
+        return inode;
+    }
+
+    @Override
+    public Inode symlink(Inode parent, String path, String link, Subject subject, int mode) throws IOException {
+        Inode inode = _inner.symlink(parent, path, link, subject, mode);
+        _lookupStore.put(lookupKey(parent, path), inode.toNfsHandle());
+        _statStore.remove(parent.getFileId());
+        return inode;
+    }
+
+    @Override
+    public void remove(Inode parent, String path) throws IOException {
+        Inode inode = lookup(parent, path);
+        _inner.remove(parent, path);
+        _lookupStore.remove(lookupKey(parent, path));
+        _statStore.remove(parent.getFileId());
+        _statStore.remove(inode.getFileId());
+    }
+
+    @Override
+    public boolean move(Inode src, String oldName, Inode dest, String newName) throws IOException {
+        boolean isChanged = _inner.move(src, oldName, dest, newName);
+        if (isChanged) {
+            _lookupStore.remove(lookupKey(src, oldName));
+            _lookupStore.remove(lookupKey(dest, newName));
+            _statStore.remove(src.getFileId());
+            _statStore.remove(dest.getFileId());
+        }
+        return isChanged;
+    }
+
+    @Override
+    public void setattr(Inode inode, Stat stat) throws IOException {
+        _inner.setattr(inode, stat);
+        _statStore.remove(inode.getFileId());
+    }
+
+    @Override
+    public WriteResult write(Inode inode, byte[] data, long offset, int count, StabilityLevel stabilityLevel) throws IOException {
+        WriteResult res = _inner.write(inode, data, offset, count, stabilityLevel);
+        updateOnWrite(inode, offset + res.getBytesWritten());
+        return res;
+    }
+
+    @Override
+    public WriteResult write(Inode inode, ByteBuffer data, long offset, StabilityLevel stabilityLevel) throws IOException {
+        WriteResult res = _inner.write(inode, data, offset, stabilityLevel);
+        updateOnWrite(inode, offset + res.getBytesWritten());
+        return res;
+    }
+
+    @Override
+    public void commit(Inode inode, long offset, int count) throws IOException {
+        _statStore.remove(inode.getFileId());
+        _inner.commit(inode, offset, count);
+    }
+
+    /**
+     * Discards all cached entries.
+     */
+    public void invalidateAll() {
+        _statStore.clear();
+        _lookupStore.clear();
+    }
+
+    /**
+     * @return number of cached file attributes.
+     */
+    public long getStatCacheSize() {
+        return _statStore.size();
+    }
+
+    /**
+     * @return number of cached lookups.
+     */
+    public long getLookupCacheSize() {
+        return _lookupStore.size();
+    }
+
+    /**
+     * @return number of bytes of direct memory allocated by this cache.
+     */
+    public long getAllocatedBytes() {
+        return _statStore.capacityBytes() + _lookupStore.capacityBytes();
+    }
+
+    /**
+     * Updates cached attributes, if any, to reflect a successful write
+     * which ended at the given file position.
+     */
+    private void updateOnWrite(Inode inode, long end) {
+        _statStore.update(inode.getFileId(), record -> {
+            Stat stat = StatRecord.unpack(record);
+            long now = System.currentTimeMillis();
+            if (stat.isDefined(StatAttribute.SIZE) && end > stat.getSize()) {
+                stat.setSize(end);
+            }
+            if (stat.isDefined(StatAttribute.MTIME)) {
+                stat.setMTime(now);
+            }
+            if (stat.isDefined(StatAttribute.CTIME)) {
+                stat.setCTime(now);
+            }
+            if (stat.isDefined(StatAttribute.GENERATION)) {
+                stat.setGeneration(stat.getGeneration() + 1);
+            }
+            return StatRecord.pack(stat);
+        });
+    }
+
+    private static byte[] lookupKey(Inode parent, String name) {
+        byte[] handle = parent.toNfsHandle();
+        byte[] bytes = name.getBytes(UTF_8);
+        byte[] key = new byte[1 + handle.length + bytes.length];
+        key[0] = (byte) handle.length;
+        System.arraycopy(handle, 0, key, 1, handle.length);
+        System.arraycopy(bytes, 0, key, 1 + handle.length, bytes.length);
+        return key;
+    }
+}
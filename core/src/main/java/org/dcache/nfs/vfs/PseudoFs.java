@@ -24,11 +24,20 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.Collections2;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import javax.security.auth.Subject;
 import org.dcache.auth.Subjects;
 import org.dcache.nfs.ChimeraNFSException;
@@ -66,17 +75,44 @@ public class PseudoFs extends ForwardingFileSystem {
     private final VirtualFileSystem _inner;
     private final ExportFile _exportFile;
     private final RpcAuth _auth;
+    private final PseudoFsTreeCache _treeCache;
+    private final AccessDecisionCache _accessCache;
+
+    /**
+     * Permission check results of this request, as subject and client do
+     * not change within a single request.
+     */
+    private final Map<AccessKey, Boolean> _decisions = new ConcurrentHashMap<>();
 
     private final static int ACCESS4_MASK =
             ACCESS4_DELETE | ACCESS4_EXECUTE | ACCESS4_EXTEND
             | ACCESS4_LOOKUP | ACCESS4_MODIFY | ACCESS4_READ;
 
     public PseudoFs(VirtualFileSystem inner, RpcCall call, ExportFile exportFile) {
+        this(inner, call, exportFile, null);
+    }
+
+    /**
+     * Create pseudo file system which takes export tree from the given cache,
+     * if not {@code null}, instead of building it on each use.
+     */
+    public PseudoFs(VirtualFileSystem inner, RpcCall call, ExportFile exportFile, PseudoFsTreeCache treeCache) {
+        this(inner, call, exportFile, treeCache, null);
+    }
+
+    /**
+     * Create pseudo file system which, in addition, shares permission check
+     * results with other requests through the given cache, if not {@code null}.
+     */
+    public PseudoFs(VirtualFileSystem inner, RpcCall call, ExportFile exportFile,
+            PseudoFsTreeCache treeCache, AccessDecisionCache accessCache) {
         _inner = inner;
         _subject = call.getCredential().getSubject();
         _auth = call.getCredential();
         _inetAddress = call.getTransport().getRemoteSocketAddress().getAddress();
         _exportFile = exportFile;
+        _treeCache = treeCache;
+        _accessCache = accessCache;
     }
 
     @Override
@@ -209,7 +245,7 @@ public class PseudoFs extends ForwardingFileSystem {
             return new DirectoryStream(listPseudoDirectory(inode));
         }
         DirectoryStream innerStrem = _inner.list(inode, verifier, cookie);
-        return new DirectoryStream(innerStrem.getVerifier(), Collections2.transform(innerStrem.getEntries(), new PushParentIndex(inode)));
+        return innerStrem.transform(new PushParentIndex(inode)::apply);
     }
 
     @Override
@@ -254,6 +290,12 @@ public class PseudoFs extends ForwardingFileSystem {
         return _inner.read(inode, data, offset, count);
     }
 
+    @Override
+    public int read(Inode inode, ByteBuffer data, long offset) throws IOException {
+        checkAccess(inode, ACE4_READ_DATA);
+        return _inner.read(inode, data, offset);
+    }
+
     @Override
     public String readlink(Inode inode) throws IOException {
         checkAccess(inode, ACE4_READ_DATA);
@@ -291,12 +333,32 @@ public class PseudoFs extends ForwardingFileSystem {
         return _inner.write(inode, data, offset, count, stabilityLevel);
     }
 
+    @Override
+    public WriteResult write(Inode inode, ByteBuffer data, long offset, StabilityLevel stabilityLevel) throws IOException {
+        checkAccess(inode, ACE4_WRITE_DATA);
+        return _inner.write(inode, data, offset, stabilityLevel);
+    }
+
     @Override
     public Stat getattr(Inode inode) throws IOException {
         checkAccess(inode, ACE4_READ_ATTRIBUTES);
         return _inner.getattr(inode);
     }
 
+    @Override
+    public Map<Inode, Stat> getattr(Collection<Inode> inodes) throws IOException {
+        List<Inode> existing = new ArrayList<>(inodes.size());
+        for (Inode inode : inodes) {
+            try {
+                checkAccess(inode, ACE4_READ_ATTRIBUTES);
+                existing.add(inode);
+            } catch (NoEntException e) {
+                // removed after it was listed
+            }
+        }
+        return _inner.getattr(existing);
+    }
+
     @Override
     public void setattr(Inode inode, Stat stat) throws IOException {
         int mask = ACE4_WRITE_ATTRIBUTES;
@@ -310,6 +372,7 @@ public class PseudoFs extends ForwardingFileSystem {
 
         checkAccess(inode, mask);
         _inner.setattr(inode, stat);
+        invalidateAccessDecisions(inode);
     }
 
     @Override
@@ -322,6 +385,173 @@ public class PseudoFs extends ForwardingFileSystem {
     public void setAcl(Inode inode, nfsace4[] acl) throws IOException {
         checkAccess(inode, ACE4_WRITE_ACL);
         _inner.setAcl(inode, acl);
+        invalidateAccessDecisions(inode);
+    }
+
+    /**
+     * Get an {@link AsyncVirtualFileSystem} view of {@code inner} which applies
+     * the same export and permission checks as this file system. Parts of the
+     * checks, which may block, like building of the pseudo file system tree or
+     * ACL evaluation, are performed by the given executor.
+     *
+     * @param inner asynchronous file system to decorate.
+     * @param executor executor for blocking parts of the checks.
+     * @return decorated asynchronous file system.
+     */
+    public AsyncVirtualFileSystem asyncView(AsyncVirtualFileSystem inner, Executor executor) {
+        return new AsyncPseudoFs(inner, executor);
+    }
+
+    /**
+     * Non-blocking view of the pseudo file system. Permission checks, which
+     * can't be answered from memory, are composed on asynchronous
+     * {@code getattr} of the object; ACLs, if enabled, are checked by the
+     * executor when it completes. Pseudo directories are resolved by the
+     * executor as well, as the export tree might need to be built.
+     */
+    private class AsyncPseudoFs implements AsyncVirtualFileSystem {
+
+        private final AsyncVirtualFileSystem _asyncInner;
+        private final Executor _executor;
+
+        AsyncPseudoFs(AsyncVirtualFileSystem inner, Executor executor) {
+            _asyncInner = inner;
+            _executor = executor;
+        }
+
+        @Override
+        public CompletionStage<Stat> getattr(Inode inode) {
+            return checkAccessAsync(inode, ACE4_READ_ATTRIBUTES)
+                    .thenCompose(x -> _asyncInner.getattr(inode));
+        }
+
+        @Override
+        public CompletionStage<Inode> lookup(Inode parent, String name) {
+            if (parent.isPesudoInode()) {
+                long version = decisionVersion(parent);
+                return _asyncInner.getattr(parent).thenApplyAsync(stat -> {
+                    try {
+                        checkAccess(parent, ACE4_EXECUTE, true, stat, version);
+                        return lookupInPseudoDirectory(parent, name);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, _executor);
+            }
+
+            return checkAccessAsync(parent, ACE4_EXECUTE).thenCompose(x -> {
+                FsExport export = _exportFile.getExport(parent.exportIndex(), _inetAddress);
+                if (!export.isWithDcap() && ".(get)(cursor)".equals(name)) {
+                    return failedStage(new NoEntException("the dcap magic file is blocked"));
+                }
+                return _asyncInner.lookup(parent, name).thenApply(inode -> pushExportIndex(parent, inode));
+            });
+        }
+
+        @Override
+        public CompletionStage<DirectoryStream> list(Inode inode, byte[] verifier, long cookie) {
+            if (inode.isPesudoInode()) {
+                long version = decisionVersion(inode);
+                return _asyncInner.getattr(inode).thenApplyAsync(stat -> {
+                    try {
+                        checkAccess(inode, ACE4_LIST_DIRECTORY, true, stat, version);
+                        return findPseudoNode(inode);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, _executor).thenCompose(this::listPseudoDirectory);
+            }
+
+            return checkAccessAsync(inode, ACE4_LIST_DIRECTORY)
+                    .thenCompose(x -> _asyncInner.list(inode, verifier, cookie))
+                    .thenApply(s -> s.transform(new PushParentIndex(inode)::apply));
+        }
+
+        @Override
+        public CompletionStage<Integer> read(Inode inode, ByteBuffer data, long offset) {
+            return checkAccessAsync(inode, ACE4_READ_DATA)
+                    .thenCompose(x -> _asyncInner.read(inode, data, offset));
+        }
+
+        @Override
+        public CompletionStage<WriteResult> write(Inode inode, ByteBuffer data, long offset, StabilityLevel stabilityLevel) {
+            return checkAccessAsync(inode, ACE4_WRITE_DATA)
+                    .thenCompose(x -> _asyncInner.write(inode, data, offset, stabilityLevel));
+        }
+
+        @Override
+        public CompletionStage<FsStat> getFsStat() {
+            return _asyncInner.getFsStat();
+        }
+
+        /**
+         * Non-blocking counterpart of {@link PseudoFs#checkAccess(Inode, int)}.
+         * If the decision needs object's attributes, they are fetched
+         * asynchronously and the check is completed when they arrive.
+         */
+        private CompletionStage<Void> checkAccessAsync(Inode inode, int requestedMask) {
+            try {
+                if (!needsAttributes(inode, requestedMask)) {
+                    checkAccess(inode, requestedMask);
+                    return CompletableFuture.completedFuture(null);
+                }
+            } catch (IOException e) {
+                return failedStage(e);
+            }
+
+            // taken before attributes are fetched, see checkAccess
+            long version = decisionVersion(inode);
+            Consumer<Stat> check = stat -> {
+                try {
+                    checkAccess(inode, requestedMask, true, stat, version);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            };
+
+            CompletionStage<Stat> stat = _asyncInner.getattr(inode);
+            return checksAcls(inode) ? stat.thenAcceptAsync(check, _executor) : stat.thenAccept(check);
+        }
+
+        /**
+         * Build listing of a pseudo directory with attributes of the entries
+         * fetched asynchronously.
+         */
+        private CompletionStage<DirectoryStream> listPseudoDirectory(PseudoFsNode node) {
+
+            if (node.isMountPoint()) {
+                return _asyncInner.list(node.id(), null, 0L)
+                        .thenApply(s -> new DirectoryStream(
+                                Collections2.transform(s.getEntries(), new ConvertToRealInode(node))));
+            }
+
+            List<String> names = new ArrayList<>(node.getChildren());
+            List<CompletableFuture<Stat>> stats = new ArrayList<>(names.size());
+            for (String name : names) {
+                stats.add(_asyncInner.getattr(node.getChild(name).id()).toCompletableFuture());
+            }
+
+            return CompletableFuture.allOf(stats.toArray(new CompletableFuture<?>[0])).thenApply(x -> {
+                long cookie = 0; // artificial cookie
+                List<DirectoryEntry> pseudoLs = new ArrayList<>(names.size());
+                for (int i = 0; i < names.size(); i++) {
+                    PseudoFsNode subNode = node.getChild(names.get(i));
+                    Inode inode = subNode.id();
+                    pseudoLs.add(new DirectoryEntry(names.get(i),
+                            subNode.isMountPoint()
+                            ? pseudoIdToReal(inode, getIndexId(subNode)) : inode,
+                            stats.get(i).join(), cookie));
+                    cookie++;
+                }
+                return new DirectoryStream(pseudoLs);
+            });
+        }
+    }
+
+    private static <T> CompletionStage<T> failedStage(Throwable t) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        f.completeExceptionally(t);
+        return f;
     }
 
     private Subject checkAccess(Inode inode, int requestedMask) throws IOException {
@@ -329,9 +559,22 @@ public class PseudoFs extends ForwardingFileSystem {
     }
 
     private Subject checkAccess(Inode inode, int requestedMask, boolean shouldLog) throws IOException {
+        return checkAccess(inode, requestedMask, shouldLog, null, 0);
+    }
+
+    /**
+     * Check access to the inode.
+     *
+     * @param stat attributes of the inode or {@code null} to fetch them if needed.
+     * @param version version of shared decisions of the inode, taken with
+     * {@link #decisionVersion(Inode)} before {@code stat} was fetched. A decision
+     * based on attributes, which were modified meanwhile, is not shared. Ignored
+     * if {@code stat} is {@code null}.
+     */
+    private Subject checkAccess(Inode inode, int requestedMask, boolean shouldLog, Stat stat, long version) throws IOException {
 
         Subject effectiveSubject = _subject;
-        Access aclMatched = Access.UNDEFINED;
+        FsExport export = null;
 
         if (inode.isPesudoInode() && Acls.wantModify(requestedMask)) {
             if (shouldLog) {
@@ -345,7 +588,7 @@ public class PseudoFs extends ForwardingFileSystem {
 
         if (!inode.isPesudoInode()) {
             int exportIdx = getExportIndex(inode);
-            FsExport export = _exportFile.getExport(exportIdx, _inetAddress);
+            export = _exportFile.getExport(exportIdx, _inetAddress);
             if (exportIdx != 0 && export == null) {
                 if (shouldLog) {
                     _log.warn("Access denied: (no export) to inode {} for client {}", inode, _inetAddress);
@@ -371,15 +614,93 @@ public class PseudoFs extends ForwardingFileSystem {
             if (Subjects.isNobody(_subject) || export.hasAllSquash() || (!export.isTrusted() && Subjects.isRoot(_subject))) {
                 effectiveSubject = Subjects.of(export.getAnonUid(), export.getAnonGid());
             }
+        }
 
-            if (export.checkAcls()) {
-                aclMatched = _inner.getAclCheckable().checkAcl(_subject, inode, requestedMask);
-                if (aclMatched == Access.DENY) {
-                    if(shouldLog) {
-                        _log.warn("Access deny: {} {} {}", _inetAddress, acemask4.toString(requestedMask), new SubjectHolder(_subject));
-                    }
-                    throw new AccessException();
+        checkPermission(inode, requestedMask, effectiveSubject, export, shouldLog, stat, version);
+        return effectiveSubject;
+    }
+
+    /**
+     * Check whether permission check of the inode consults backend's ACLs.
+     */
+    private boolean checksAcls(Inode inode) {
+        if (inode.isPesudoInode()) {
+            return false;
+        }
+        FsExport export = _exportFile.getExport(getExportIndex(inode), _inetAddress);
+        return export != null && export.checkAcls();
+    }
+
+    /**
+     * Check whether {@link #checkAccess(Inode, int)} has to fetch attributes of
+     * the inode, e.g. it can't be answered from memory.
+     */
+    private boolean needsAttributes(Inode inode, int requestedMask) {
+
+        FsExport export = null;
+        if (inode.isPesudoInode()) {
+            if (Acls.wantModify(requestedMask)) {
+                return false;
+            }
+        } else {
+            export = _exportFile.getExport(getExportIndex(inode), _inetAddress);
+            if (export == null || export.isAllRoot()) {
+                return false;
+            }
+        }
+
+        if (_decisions.containsKey(new AccessKey(inode, requestedMask))) {
+            return false;
+        }
+
+        if (_accessCache != null && _accessCache.get(_subject, export, inode, requestedMask) != null) {
+            return false;
+        }
+
+        return requestedMask != ACE4_READ_ATTRIBUTES || (export != null && export.checkAcls());
+    }
+
+    private void checkPermission(Inode inode, int requestedMask, Subject effectiveSubject,
+            FsExport export, boolean shouldLog, Stat stat, long version) throws IOException {
+
+        AccessKey key = new AccessKey(inode, requestedMask);
+        Boolean allowed = _decisions.get(key);
+        if (allowed == null) {
+            if (_accessCache != null) {
+                allowed = _accessCache.get(_subject, export, inode, requestedMask);
+            }
+            if (allowed == null) {
+                if (stat == null) {
+                    // attributes are fetched below
+                    version = decisionVersion(inode);
+                }
+                allowed = isAllowed(inode, requestedMask, effectiveSubject, export, shouldLog, stat);
+                if (_accessCache != null) {
+                    _accessCache.put(_subject, export, inode, requestedMask, allowed, version);
+                }
+            } else if (!allowed && shouldLog) {
+                _log.warn("Access denied: (cached) {} {} {} {}", inode, _inetAddress,
+                        acemask4.toString(requestedMask), new SubjectHolder(_subject));
+            }
+            _decisions.put(key, allowed);
+        }
+
+        if (!allowed) {
+            throw new AccessException("permission deny");
+        }
+    }
+
+    private boolean isAllowed(Inode inode, int requestedMask, Subject effectiveSubject,
+            FsExport export, boolean shouldLog, Stat stat) throws IOException {
+
+        Access aclMatched = Access.UNDEFINED;
+        if (export != null && export.checkAcls()) {
+            aclMatched = _inner.getAclCheckable().checkAcl(_subject, inode, requestedMask);
+            if (aclMatched == Access.DENY) {
+                if(shouldLog) {
+                    _log.warn("Access deny: {} {} {}", _inetAddress, acemask4.toString(requestedMask), new SubjectHolder(_subject));
                 }
+                return false;
             }
         }
 
@@ -389,7 +710,9 @@ public class PseudoFs extends ForwardingFileSystem {
          * always allows it.
          */
         if ((aclMatched == Access.UNDEFINED) && (requestedMask != ACE4_READ_ATTRIBUTES)) {
-            Stat stat = _inner.getattr(inode);
+            if (stat == null) {
+                stat = _inner.getattr(inode);
+            }
             int unixAccessmask = unixToAccessmask(effectiveSubject, stat);
             if ((unixAccessmask & requestedMask) != requestedMask) {
                 if (shouldLog) {
@@ -397,10 +720,46 @@ public class PseudoFs extends ForwardingFileSystem {
                                 acemask4.toString(requestedMask),
                                 acemask4.toString(unixAccessmask), new SubjectHolder(_subject));
                 }
-                throw new AccessException("permission deny");
+                return false;
             }
         }
-        return effectiveSubject;
+        return true;
+    }
+
+    private long decisionVersion(Inode inode) {
+        return _accessCache == null ? 0 : _accessCache.version(inode);
+    }
+
+    private void invalidateAccessDecisions(Inode inode) {
+        _decisions.keySet().removeIf(k -> k.inode.equals(inode));
+        if (_accessCache != null) {
+            _accessCache.invalidate(inode);
+        }
+    }
+
+    private static class AccessKey {
+
+        private final Inode inode;
+        private final int mask;
+
+        AccessKey(Inode inode, int mask) {
+            this.inode = inode;
+            this.mask = mask;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof AccessKey)) {
+                return false;
+            }
+            AccessKey other = (AccessKey) o;
+            return mask == other.mask && inode.equals(other.inode);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * inode.hashCode() + mask;
+        }
     }
 
     /*
@@ -494,6 +853,15 @@ public class PseudoFs extends ForwardingFileSystem {
         }
     }
 
+    private PseudoFsNode findPseudoNode(Inode inode) throws ChimeraNFSException, IOException {
+        for (PseudoFsNode node : prepareExportTree()) {
+            if (node.id().equals(inode)) {
+                return node;
+            }
+        }
+        throw new NoEntException();
+    }
+
     private Collection<DirectoryEntry> listPseudoDirectory(Inode parent) throws ChimeraNFSException, IOException {
         Set<PseudoFsNode> nodes = prepareExportTree();
         for (PseudoFsNode node : nodes) {
@@ -594,11 +962,20 @@ public class PseudoFs extends ForwardingFileSystem {
 
     private Set<PseudoFsNode> prepareExportTree() throws ChimeraNFSException, IOException {
 
+        List<FsExport> exports = _exportFile.exportsFor(_inetAddress).collect(Collectors.toList());
+        if (_treeCache == null) {
+            return buildExportTree(exports);
+        }
+        return _treeCache.get(exports, () -> buildExportTree(exports));
+    }
+
+    private Set<PseudoFsNode> buildExportTree(List<FsExport> exports) throws ChimeraNFSException, IOException {
+
         Set<PseudoFsNode> nodes = new HashSet<>();
         Inode rootInode = realToPseudo(_inner.getRootInode());
         PseudoFsNode root = new PseudoFsNode(rootInode);
 
-        _exportFile.exportsFor(_inetAddress).forEach(e -> pathToPseudoFs(root, nodes, e));
+        exports.forEach(e -> pathToPseudoFs(root, nodes, e));
 
         if (nodes.isEmpty()) {
             _log.warn("No exports found for: {}", _inetAddress);
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.dcache.nfs.FsExport;
+import org.dcache.utils.GuavaCacheMXBeanImpl;
+
+/**
+ * Cache of pseudo file system trees built by {@link PseudoFs}.
+ * <p>
+ * The tree visible to a client depends only on the set of exports which
+ * match the client, thus all clients of the same export-match class share
+ * a single tree. As {@link FsExport} objects are re-created by
+ * {@link org.dcache.nfs.ExportFile#rescan()}, trees built for the old
+ * export table are not used after a rescan and age out of the cache.
+ * <p>
+ * Cached trees must not be modified.
+ */
+public class PseudoFsTreeCache {
+
+    private static final int DEFAULT_MAX_ENTRIES = 256;
+    private static final long DEFAULT_LIFETIME = 30;
+
+    private final Cache<List<FsExport>, Set<PseudoFsNode>> _cache;
+
+    /**
+     * Create cache which keeps up to 256 trees for 30 seconds.
+     */
+    public PseudoFsTreeCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_LIFETIME, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Create cache with given size and entry life time. The life time
+     * bounds for how long changes to exported directories themselves, like
+     * re-creation, are not visible in the pseudo file system.
+     *
+     * @param maxEntries maximal number of cached trees.
+     * @param lifeTime cached tree validity time.
+     * @param unit unit of life time.
+     */
+    public PseudoFsTreeCache(int maxEntries, long lifeTime, TimeUnit unit) {
+        _cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(lifeTime, unit)
+                .recordStats()
+                .build();
+        new GuavaCacheMXBeanImpl("vfs-pseudofs-tree", _cache);
+    }
+
+    /**
+     * Get tree for given set of exports, building it if required.
+     *
+     * @param exports exports visible to the client.
+     * @param builder to build the tree if not cached.
+     * @return set of pseudo file system nodes.
+     * @throws IOException if tree can't be built.
+     */
+    Set<PseudoFsNode> get(List<FsExport> exports, Callable<Set<PseudoFsNode>> builder) throws IOException {
+        try {
+            return _cache.get(exports, builder);
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            Throwables.throwIfInstanceOf(t, IOException.class);
+            throw new IOException(e.getMessage(), t);
+        }
+    }
+
+    /**
+     * Discard all cached trees.
+     */
+    public void invalidateAll() {
+        _cache.invalidateAll();
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.dcache.utils.GuavaCacheMXBeanImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Read-ahead decorator. Detects sequential access to a file and asynchronously
+ * prefetches the data which is expected to be requested next. Prefetched data
+ * is kept in fixed size chunks in a memory bounded cache and is used to serve
+ * subsequent reads. The amount of data fetched ahead starts with a single chunk
+ * and doubles with every sequential read up to configured maximum.
+ *
+ * As file system does not know which client or open-state issued a read, up to
+ * {@link #MAX_STREAMS} independent sequential streams are tracked per file.
+ */
+public class ReadAheadFs extends ForwardingFileSystem {
+
+    private static final Logger _log = LoggerFactory.getLogger(ReadAheadFs.class);
+
+    /**
+     * Maximal number of sequential streams tracked per file.
+     */
+    static final int MAX_STREAMS = 4;
+
+    /**
+     * Number of sequential reads after which read-ahead is triggered.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 2;
+
+    /**
+     * Time after which unused prefetched data and access pattern are discarded.
+     */
+    private static final long IDLE_TIME = 30;
+
+    private final VirtualFileSystem _inner;
+    private final Executor _executor;
+    private final int _chunkSize;
+    private final int _maxWindow;
+
+    private final Cache<ChunkKey, CompletableFuture<ByteBuffer>> _chunks;
+    private final Cache<Inode, AccessPattern> _patterns;
+
+    /**
+     * Create read-ahead decorator.
+     *
+     * @param inner file system to decorate.
+     * @param executor executor used to prefetch the data.
+     * @param chunkSize size of a single prefetch request.
+     * @param maxWindow maximal amount of data to prefetch ahead of a stream.
+     * @param maxCachedBytes maximal amount of memory used by prefetched data.
+     */
+    public ReadAheadFs(VirtualFileSystem inner, Executor executor, int chunkSize, int maxWindow, long maxCachedBytes) {
+        checkArgument(chunkSize > 0, "chunk size must be positive");
+        checkArgument(maxWindow >= chunkSize, "window can't be smaller than a chunk");
+        _inner = requireNonNull(inner);
+        _executor = requireNonNull(executor);
+        _chunkSize = chunkSize;
+        _maxWindow = maxWindow;
+
+        _chunks = CacheBuilder.newBuilder()
+                .maximumWeight(maxCachedBytes)
+                .weigher((ChunkKey k, CompletableFuture<ByteBuffer> v) -> _chunkSize)
+                .expireAfterAccess(IDLE_TIME, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+
+        _patterns = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(1, maxCachedBytes / chunkSize))
+                .expireAfterAccess(IDLE_TIME, TimeUnit.SECONDS)
+                .build();
+
+        new GuavaCacheMXBeanImpl("vfs-readahead", _chunks);
+    }
+
+    @Override
+    protected VirtualFileSystem delegate() {
+        return _inner;
+    }
+
+    @Override
+    public int read(Inode inode, byte[] data, long offset, int count) throws IOException {
+        return read(inode, ByteBuffer.wrap(data, 0, count), offset);
+    }
+
+    @Override
+    public int read(Inode inode, ByteBuffer data, long offset) throws IOException {
+
+        int count = data.remaining();
+        AccessPattern pattern = patternOf(inode);
+        long window = pattern.onRead(offset, count, _chunkSize, _maxWindow);
+
+        int n = readCached(inode, data, offset);
+        if (data.hasRemaining()) {
+            int direct = _inner.read(inode, data, offset + n);
+            if (direct > 0) {
+                n += direct;
+            }
+        }
+
+        if (window > 0) {
+            prefetch(inode, offset + count, window);
+        }
+        return n;
+    }
+
+    @Override
+    public WriteResult write(Inode inode, byte[] data, long offset, int count, StabilityLevel stabilityLevel) throws IOException {
+        invalidate(inode, offset, count);
+        try {
+            return _inner.write(inode, data, offset, count, stabilityLevel);
+        } finally {
+            // drop chunks prefetched while the write was in progress
+            invalidate(inode, offset, count);
+        }
+    }
+
+    @Override
+    public WriteResult write(Inode inode, ByteBuffer data, long offset, StabilityLevel stabilityLevel) throws IOException {
+        int count = data.remaining();
+        invalidate(inode, offset, count);
+        try {
+            return _inner.write(inode, data, offset, stabilityLevel);
+        } finally {
+            // drop chunks prefetched while the write was in progress
+            invalidate(inode, offset, count);
+        }
+    }
+
+    @Override
+    public void setattr(Inode inode, Stat stat) throws IOException {
+        _inner.setattr(inode, stat);
+        if (stat.isDefined(Stat.StatAttribute.SIZE)) {
+            _patterns.invalidate(inode);
+            _chunks.asMap().keySet().removeIf(k -> k.inode.equals(inode));
+        }
+    }
+
+    /**
+     * Copy into {@code data} as much as possible from already prefetched chunks,
+     * starting at {@code offset}. Consumed chunks are discarded. Never waits for
+     * in-flight prefetch and never reports end-of-file, as the file might have
+     * grown since the chunk was fetched; the remaining data has to be read
+     * directly.
+     *
+     * @return number of bytes copied.
+     */
+    private int readCached(Inode inode, ByteBuffer data, long offset) {
+
+        int n = 0;
+        while (data.hasRemaining()) {
+            long position = offset + n;
+            long index = position / _chunkSize;
+            ChunkKey key = new ChunkKey(inode, index);
+            CompletableFuture<ByteBuffer> f = _chunks.getIfPresent(key);
+            if (f == null) {
+                break;
+            }
+
+            ByteBuffer chunk;
+            try {
+                chunk = f.getNow(null);
+            } catch (CompletionException | CancellationException e) {
+                _chunks.invalidate(key);
+                break;
+            }
+
+            if (chunk == null) {
+                // still in-flight, don't block the request
+                _log.debug("Read-ahead of {}@{} is not ready", inode, position);
+                break;
+            }
+
+            int chunkOffset = (int) (position - index * _chunkSize);
+            int available = chunk.limit() - chunkOffset;
+            if (available <= 0) {
+                // read at end of a short chunk, the file might have been extended since
+                _chunks.invalidate(key);
+                break;
+            }
+
+            ByteBuffer src = chunk.duplicate();
+            src.position(chunkOffset);
+            int len = Math.min(available, data.remaining());
+            src.limit(chunkOffset + len);
+            data.put(src);
+            n += len;
+
+            if (chunkOffset + len == chunk.limit()) {
+                _chunks.invalidate(key);
+                if (chunk.limit() < _chunkSize) {
+                    // short chunk: end-of-file at the time of prefetch
+                    break;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Schedule prefetch of all chunks in the range [{@code offset}, {@code offset + length}),
+     * which are not already cached or in-flight.
+     */
+    private void prefetch(Inode inode, long offset, long length) {
+
+        long first = offset / _chunkSize;
+        long last = (offset + length - 1) / _chunkSize;
+        for (long index = first; index <= last; index++) {
+            ChunkKey key = new ChunkKey(inode, index);
+            CompletableFuture<ByteBuffer> f = _chunks.getIfPresent(key);
+            if (f != null) {
+                ByteBuffer chunk = f.getNow(null);
+                if (chunk != null && chunk.limit() < _chunkSize) {
+                    // nothing to read beyond end-of-file
+                    return;
+                }
+                continue;
+            }
+
+            CompletableFuture<ByteBuffer> load = new CompletableFuture<>();
+            if (_chunks.asMap().putIfAbsent(key, load) != null) {
+                continue;
+            }
+
+            long position = index * _chunkSize;
+            try {
+                _executor.execute(() -> {
+                    try {
+                        load.complete(readChunk(inode, position));
+                    } catch (IOException | RuntimeException e) {
+                        _log.debug("Read-ahead of {}@{} failed: {}", inode, position, e.toString());
+                        _chunks.asMap().remove(key, load);
+                        load.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // executor is saturated or shut down, try with the next read
+                _log.debug("Read-ahead of {}@{} rejected: {}", inode, position, e.toString());
+                _chunks.asMap().remove(key, load);
+                load.completeExceptionally(e);
+                return;
+            }
+        }
+    }
+
+    private ByteBuffer readChunk(Inode inode, long offset) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(_chunkSize);
+        while (chunk.hasRemaining()) {
+            int n = _inner.read(inode, chunk, offset + chunk.position());
+            if (n <= 0) {
+                break;
+            }
+        }
+        chunk.flip();
+        return chunk;
+    }
+
+    private void invalidate(Inode inode, long offset, int count) {
+        long first = offset / _chunkSize;
+        long last = (offset + Math.max(count, 1) - 1) / _chunkSize;
+        for (long index = first; index <= last; index++) {
+            _chunks.invalidate(new ChunkKey(inode, index));
+        }
+    }
+
+    private AccessPattern patternOf(Inode inode) throws IOException {
+        try {
+            return _patterns.get(inode, AccessPattern::new);
+        } catch (ExecutionException e) {
+            // AccessPattern constructor does not throw
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Access pattern of a single file.
+     */
+    private static class AccessPattern {
+
+        private final long[] _next = new long[MAX_STREAMS];
+        private final int[] _sequential = new int[MAX_STREAMS];
+        private final long[] _window = new long[MAX_STREAMS];
+        private final long[] _lastUse = new long[MAX_STREAMS];
+        private long _clock;
+
+        /**
+         * Register a read and get number of bytes to prefetch ahead of it.
+         *
+         * @return read-ahead window or zero if access is not sequential.
+         */
+        synchronized long onRead(long offset, int count, int chunkSize, int maxWindow) {
+
+            _clock++;
+            int stream = -1;
+            int lru = 0;
+            for (int i = 0; i < MAX_STREAMS; i++) {
+                /*
+                 * Clients issue multiple reads in parallel, which may arrive
+                 * slightly out of order. Accept any read which falls into the
+                 * prefetched window as a continuation of a stream.
+                 */
+                if (_lastUse[i] != 0 && offset >= _next[i] - count
+                        && offset <= _next[i] + _window[i]) {
+                    stream = i;
+                    break;
+                }
+                if (_lastUse[i] < _lastUse[lru]) {
+                    lru = i;
+                }
+            }
+
+            if (stream < 0) {
+                stream = lru;
+                _sequential[stream] = 0;
+                _window[stream] = 0;
+                _next[stream] = offset + count;
+                _lastUse[stream] = _clock;
+                return 0;
+            }
+
+            _lastUse[stream] = _clock;
+            _next[stream] = Math.max(_next[stream], offset + count);
+            if (++_sequential[stream] < SEQUENTIAL_THRESHOLD) {
+                return 0;
+            }
+
+            long window = _window[stream] == 0 ? Math.max(chunkSize, count)
+                    : _window[stream] * 2;
+            _window[stream] = Math.min(window, maxWindow);
+            return _window[stream];
+        }
+    }
+
+    private static class ChunkKey {
+
+        private final Inode inode;
+        private final long index;
+
+        ChunkKey(Inode inode, long index) {
+            this.inode = inode;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof ChunkKey)) {
+                return false;
+            }
+            ChunkKey other = (ChunkKey) obj;
+            return index == other.index && inode.equals(other.inode);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * inode.hashCode() + Long.hashCode(index);
+        }
+    }
+}
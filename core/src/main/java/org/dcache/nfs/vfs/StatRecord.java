@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.nio.ByteBuffer;
+import org.dcache.nfs.vfs.Stat.StatAttribute;
+
+/**
+ * Fixed-layout binary representation of {@link Stat}, used to keep file
+ * attributes outside of the java heap.
+ *
+ * <pre>
+ *   short  defined attributes mask
+ *   short  unused
+ *   int    dev, ino, mode, nlink, uid, gid, rdev
+ *   long   size, fileid, generation, atime, mtime, ctime
+ * </pre>
+ */
+final class StatRecord {
+
+    /**
+     * Size of encoded record in bytes.
+     */
+    static final int SIZE = 4 + 7 * 4 + 6 * 8;
+
+    private static final StatAttribute[] ATTRIBUTES = StatAttribute.values();
+
+    private StatRecord() {}
+
+    /**
+     * Encode given {@link Stat} into a new record.
+     *
+     * @param stat file attributes.
+     * @return encoded record of {@link #SIZE} bytes.
+     */
+    static byte[] pack(Stat stat) {
+        byte[] record = new byte[SIZE];
+        ByteBuffer b = ByteBuffer.wrap(record);
+
+        short mask = 0;
+        for (StatAttribute attr : ATTRIBUTES) {
+            if (stat.isDefined(attr)) {
+                mask |= 1 << attr.ordinal();
+            }
+        }
+        b.putShort(mask);
+        b.putShort((short) 0);
+
+        b.putInt(stat.isDefined(StatAttribute.DEV) ? stat.getDev() : 0);
+        b.putInt(stat.isDefined(StatAttribute.INO) ? stat.getIno() : 0);
+        b.putInt(stat.isDefined(StatAttribute.MODE) ? stat.getMode() : 0);
+        b.putInt(stat.isDefined(StatAttribute.NLINK) ? stat.getNlink() : 0);
+        b.putInt(stat.isDefined(StatAttribute.OWNER) ? stat.getUid() : 0);
+        b.putInt(stat.isDefined(StatAttribute.GROUP) ? stat.getGid() : 0);
+        b.putInt(stat.isDefined(StatAttribute.RDEV) ? stat.getRdev() : 0);
+
+        b.putLong(stat.isDefined(StatAttribute.SIZE) ? stat.getSize() : 0);
+        b.putLong(stat.isDefined(StatAttribute.FILEID) ? stat.getFileId() : 0);
+        b.putLong(stat.isDefined(StatAttribute.GENERATION) ? stat.getGeneration() : 0);
+        b.putLong(stat.isDefined(StatAttribute.ATIME) ? stat.getATime() : 0);
+        b.putLong(stat.isDefined(StatAttribute.MTIME) ? stat.getMTime() : 0);
+        b.putLong(stat.isDefined(StatAttribute.CTIME) ? stat.getCTime() : 0);
+        return record;
+    }
+
+    /**
+     * Decode a record created by {@link #pack(Stat)}.
+     *
+     * @param record encoded file attributes.
+     * @return new {@link Stat} object.
+     */
+    static Stat unpack(byte[] record) {
+        return unpack(ByteBuffer.wrap(record));
+    }
+
+    /**
+     * Decode a record at the current position of the given buffer. The
+     * position is advanced by {@link #SIZE} bytes.
+     *
+     * @param b buffer to read from.
+     * @return new {@link Stat} object.
+     */
+    static Stat unpack(ByteBuffer b) {
+        short mask = b.getShort();
+        b.getShort();
+
+        int dev = b.getInt();
+        int ino = b.getInt();
+        int mode = b.getInt();
+        int nlink = b.getInt();
+        int uid = b.getInt();
+        int gid = b.getInt();
+        int rdev = b.getInt();
+        long size = b.getLong();
+        long fileid = b.getLong();
+        long generation = b.getLong();
+        long atime = b.getLong();
+        long mtime = b.getLong();
+        long ctime = b.getLong();
+
+        Stat stat = new Stat();
+        if (isDefined(mask, StatAttribute.DEV)) {
+            stat.setDev(dev);
+        }
+        if (isDefined(mask, StatAttribute.INO)) {
+            stat.setIno(ino);
+        }
+        if (isDefined(mask, StatAttribute.MODE)) {
+            stat.setMode(mode);
+        }
+        if (isDefined(mask, StatAttribute.NLINK)) {
+            stat.setNlink(nlink);
+        }
+        if (isDefined(mask, StatAttribute.OWNER)) {
+            stat.setUid(uid);
+        }
+        if (isDefined(mask, StatAttribute.GROUP)) {
+            stat.setGid(gid);
+        }
+        if (isDefined(mask, StatAttribute.RDEV)) {
+            stat.setRdev(rdev);
+        }
+        if (isDefined(mask, StatAttribute.SIZE)) {
+            stat.setSize(size);
+        }
+        if (isDefined(mask, StatAttribute.FILEID)) {
+            stat.setFileid(fileid);
+        }
+        if (isDefined(mask, StatAttribute.GENERATION)) {
+            stat.setGeneration(generation);
+        }
+        if (isDefined(mask, StatAttribute.ATIME)) {
+            stat.setATime(atime);
+        }
+        if (isDefined(mask, StatAttribute.MTIME)) {
+            stat.setMTime(mtime);
+        }
+        if (isDefined(mask, StatAttribute.CTIME)) {
+            stat.setCTime(ctime);
+        }
+        return stat;
+    }
+
+    private static boolean isDefined(short mask, StatAttribute attr) {
+        return (mask & (1 << attr.ordinal())) != 0;
+    }
+}
@@ -26,49 +26,115 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Objects;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import javax.security.auth.Subject;
+import org.dcache.nfs.status.NoEntException;
 import org.dcache.utils.GuavaCacheMXBeanImpl;
 import org.dcache.utils.Opaque;
-
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Objects.requireNonNull;
 
 /**
  * Caching decorator.
  */
-public class VfsCache extends ForwardingFileSystem {
+public class VfsCache extends ForwardingFileSystem implements InvalidationListener {
+
+    private static final Logger _log = LoggerFactory.getLogger(VfsCache.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x5643534e; // VCSN
+    private static final int SNAPSHOT_VERSION = 1;
 
     private final LoadingCache<CacheKey, Inode> _lookupCache;
-    private final Cache<Opaque, Stat> _statCache;
+    private final Cache<CacheKey, Boolean> _negativeLookupCache;
+    private final LoadingCache<StatCacheKey, Stat> _statCache;
     private final LoadingCache<Inode, Inode> _parentCache;
     private final Supplier<FsStat> _fsStatSupplier;
 
     private final Cache<InodeCacheEntry, DirectoryStream> _readdirCache;
+    private final Cache<PageCacheEntry, List<DirectoryEntry>> _readdirPageCache;
 
     private final VirtualFileSystem _inner;
 
+    /**
+     * Executor used to reload cached values in the background, or
+     * {@code null} if refresh-ahead is disabled.
+     */
+    private final ExecutorService _refreshExecutor;
+
+    private final GuavaCacheMXBeanImpl _statCacheMXBean;
+    private final GuavaCacheMXBeanImpl _parentCacheMXBean;
+    private final GuavaCacheMXBeanImpl _lookupCacheMXBean;
+
+    /**
+     * Keys of entries restored from a snapshot and not validated yet.
+     */
+    private final Set<Object> _restored = ConcurrentHashMap.newKeySet();
+
     public VfsCache(VirtualFileSystem inner, VfsCacheConfig cacheConfig) {
         _inner = inner;
-	_lookupCache = CacheBuilder.newBuilder()
-		.maximumSize(cacheConfig.getMaxEntries())
-		.expireAfterWrite(cacheConfig.getLifeTime(), cacheConfig.getTimeUnit())
-		.softValues()
+
+        _refreshExecutor = cacheConfig.getRefreshTime() > 0 ?
+                Executors.newFixedThreadPool(cacheConfig.getRefreshThreads(),
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("vfs-cache-refresh-%d")
+                                .setDaemon(true)
+                                .build()) :
+                null;
+
+        _lookupCache = withRefresh(CacheBuilder.newBuilder(), cacheConfig)
+                .maximumSize(cacheConfig.getMaxEntries())
+                .expireAfterWrite(cacheConfig.getLifeTime(), cacheConfig.getTimeUnit())
+                .softValues()
                 .recordStats()
-		.build(new LoockupLoader());
+                .build(new LoockupLoader());
 
-	_statCache = CacheBuilder.newBuilder()
-		.maximumSize(cacheConfig.getMaxEntries())
-		.expireAfterWrite(cacheConfig.getLifeTime(), cacheConfig.getTimeUnit())
-		.softValues()
+        _negativeLookupCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheConfig.getMaxEntries())
+                .expireAfterWrite(cacheConfig.getNegativeLookupLifeTime(), cacheConfig.getNegativeLookupLifeTimeUnit())
                 .recordStats()
-		.build();
+                .build();
 
-        _parentCache = CacheBuilder.newBuilder()
+        _statCache = withRefresh(CacheBuilder.newBuilder(), cacheConfig)
+                .maximumSize(cacheConfig.getMaxEntries())
+                .expireAfterWrite(cacheConfig.getLifeTime(), cacheConfig.getTimeUnit())
+                .softValues()
+                .recordStats()
+                .build(new StatLoader());
+
+        _parentCache = withRefresh(CacheBuilder.newBuilder(), cacheConfig)
                 .maximumSize(cacheConfig.getMaxEntries())
                 .expireAfterWrite(100, TimeUnit.MILLISECONDS)
                 .softValues()
@@ -82,14 +148,23 @@ public class VfsCache extends ForwardingFileSystem {
                 .recordStats()
                 .build();
 
+        _readdirPageCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheConfig.getReaddirMaxEntries())
+                .expireAfterWrite(cacheConfig.getReaddirLifeTime(), cacheConfig.getReaddirLifeTimeUnit())
+                .softValues()
+                .recordStats()
+                .build();
+
         _fsStatSupplier = cacheConfig.getFsStatLifeTime() > 0 ?
                 Suppliers.memoizeWithExpiration(new FsStatSupplier(), cacheConfig.getFsStatLifeTime(), cacheConfig.getFsSataTimeUnit()) :
                 new FsStatSupplier();
 
-        new GuavaCacheMXBeanImpl("vfs-stat", _statCache);
-        new GuavaCacheMXBeanImpl("vfs-parent", _parentCache);
-        new GuavaCacheMXBeanImpl("vfs-lookup", _lookupCache);
+        _statCacheMXBean = new GuavaCacheMXBeanImpl("vfs-stat", _statCache);
+        _parentCacheMXBean = new GuavaCacheMXBeanImpl("vfs-parent", _parentCache);
+        _lookupCacheMXBean = new GuavaCacheMXBeanImpl("vfs-lookup", _lookupCache);
+        new GuavaCacheMXBeanImpl("vfs-negative-lookup", _negativeLookupCache);
         new GuavaCacheMXBeanImpl("vfs-readdir", _readdirCache);
+        new GuavaCacheMXBeanImpl("vfs-readdir-pages", _readdirPageCache);
     }
 
     @Override
@@ -97,6 +172,20 @@ public class VfsCache extends ForwardingFileSystem {
         return _inner;
     }
 
+    @Override
+    public WriteResult write(Inode inode, byte[] data, long offset, int count, StabilityLevel stabilityLevel) throws IOException {
+        WriteResult res = _inner.write(inode, data, offset, count, stabilityLevel);
+        updateStatCacheOnWrite(inode, offset + res.getBytesWritten());
+        return res;
+    }
+
+    @Override
+    public WriteResult write(Inode inode, ByteBuffer data, long offset, StabilityLevel stabilityLevel) throws IOException {
+        WriteResult res = _inner.write(inode, data, offset, stabilityLevel);
+        updateStatCacheOnWrite(inode, offset + res.getBytesWritten());
+        return res;
+    }
+
     @Override
     public void commit(Inode inode, long offset, int count) throws IOException {
         invalidateStatCache(inode);
@@ -106,6 +195,7 @@ public class VfsCache extends ForwardingFileSystem {
     @Override
     public Inode symlink(Inode parent, String path, String link, Subject subject, int mode) throws IOException {
         Inode inode = _inner.symlink(parent, path, link, subject, mode);
+        _negativeLookupCache.invalidate(new CacheKey(parent, path));
 	invalidateStatCache(parent);
 	return inode;
     }
@@ -178,6 +268,32 @@ public class VfsCache extends ForwardingFileSystem {
         return statFromCacheOrLoad(inode);
     }
 
+    @Override
+    public Map<Inode, Stat> getattr(Collection<Inode> inodes) throws IOException {
+
+        Map<Inode, Stat> stats = new HashMap<>(inodes.size());
+        List<Inode> missing = new ArrayList<>();
+        for (Inode inode : inodes) {
+            StatCacheKey key = new StatCacheKey(inode);
+            revalidateIfRestored(_statCache, key, () -> _inner.getattr(inode));
+            Stat stat = _statCache.getIfPresent(key);
+            if (stat == null) {
+                missing.add(inode);
+            } else {
+                stats.put(inode, stat);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Map<Inode, Stat> loaded = _inner.getattr(missing);
+            loaded.forEach((inode, stat) -> {
+                _statCache.put(new StatCacheKey(inode), stat);
+                stats.put(inode, stat);
+            });
+        }
+        return stats;
+    }
+
     @Override
     public void setattr(Inode inode, Stat stat) throws IOException {
         _inner.setattr(inode, stat);
@@ -189,17 +305,23 @@ public class VfsCache extends ForwardingFileSystem {
      */
 
     /**
-     * Discards cached value in lookup cache for given inode and path.
+     * Discards cached value, positive or negative, in lookup cache for given
+     * inode and path.
      *
      * @param parent inode
      * @param path to invalidate
      */
     public void invalidateLookupCache(Inode parent, String path) {
-	_lookupCache.invalidate(new CacheKey(parent, path));
+        CacheKey key = new CacheKey(parent, path);
+	_lookupCache.invalidate(key);
+        _negativeLookupCache.invalidate(key);
+        _restored.remove(key);
     }
 
     private void updateLookupCache(Inode parent, String path, Inode inode) {
-	_lookupCache.put(new CacheKey(parent, path), inode);
+        CacheKey key = new CacheKey(parent, path);
+        _negativeLookupCache.invalidate(key);
+	_lookupCache.put(key, inode);
     }
 
     /**
@@ -209,26 +331,297 @@ public class VfsCache extends ForwardingFileSystem {
      * @param path to invalidate
      */
     public void invalidateStatCache(final Inode inode) {
-	_statCache.invalidate(new Opaque(inode.getFileId()));
+        StatCacheKey key = new StatCacheKey(inode);
+	_statCache.invalidate(key);
+        _restored.remove(key);
+    }
+
+    /**
+     * Discards cached directory listings of given {@link Inode}.
+     *
+     * @param inode directory inode to invalidate
+     */
+    public void invalidateReaddirCache(Inode inode) {
+        _readdirCache.asMap().keySet().removeIf(k -> k._inode.equals(inode));
+        _readdirPageCache.asMap().keySet().removeIf(k -> k._inode.equals(inode));
+    }
+
+    /**
+     * Discards cached information about objects modified outside of this
+     * server. For directory entry events the entry's lookup result as well as
+     * attributes and listing of the directory are dropped, otherwise all
+     * cached information about the object itself.
+     *
+     * @param events batch of events
+     */
+    @Override
+    public void invalidate(Collection<InvalidationEvent> events) {
+        for (InvalidationEvent event : events) {
+            Inode inode = event.getInode();
+            if (event.getName() != null) {
+                invalidateLookupCache(inode, event.getName());
+            } else {
+                _parentCache.invalidate(inode);
+                _restored.remove(inode);
+            }
+            invalidateStatCache(inode);
+            invalidateReaddirCache(inode);
+        }
+    }
+
+    /**
+     * Writes content of lookup, parent and attribute caches into the given
+     * file. The file is replaced atomically, thus a concurrent crash leaves
+     * the previous snapshot intact. Intended to be called on shutdown or
+     * periodically to allow a warm restart with {@link #loadSnapshot(Path)}.
+     *
+     * @param file snapshot file.
+     * @throws IOException if snapshot can't be written.
+     */
+    public void writeSnapshot(Path file) throws IOException {
+
+        Map<CacheKey, Inode> lookups = new HashMap<>(_lookupCache.asMap());
+        Map<Inode, Inode> parents = new HashMap<>(_parentCache.asMap());
+        Map<StatCacheKey, Stat> stats = new HashMap<>(_statCache.asMap());
+
+        List<byte[]> names = new ArrayList<>(lookups.size());
+        long size = 3 * 4 + 2 * 4;
+        for (Map.Entry<CacheKey, Inode> e : lookups.entrySet()) {
+            byte[] name = e.getKey().getName().getBytes(UTF_8);
+            names.add(name);
+            size += 3 * 2 + e.getKey().getParent().toNfsHandle().length
+                    + name.length + e.getValue().toNfsHandle().length;
+        }
+        for (Map.Entry<Inode, Inode> e : parents.entrySet()) {
+            size += 2 * 2 + e.getKey().toNfsHandle().length + e.getValue().toNfsHandle().length;
+        }
+        for (StatCacheKey key : stats.keySet()) {
+            size += 2 + key.getInode().toNfsHandle().length + StatRecord.SIZE;
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(SNAPSHOT_MAGIC);
+            out.putInt(SNAPSHOT_VERSION);
+
+            out.putInt(lookups.size());
+            int i = 0;
+            for (Map.Entry<CacheKey, Inode> e : lookups.entrySet()) {
+                putBytes(out, e.getKey().getParent().toNfsHandle());
+                putBytes(out, names.get(i++));
+                putBytes(out, e.getValue().toNfsHandle());
+            }
+
+            out.putInt(parents.size());
+            for (Map.Entry<Inode, Inode> e : parents.entrySet()) {
+                putBytes(out, e.getKey().toNfsHandle());
+                putBytes(out, e.getValue().toNfsHandle());
+            }
+
+            out.putInt(stats.size());
+            for (Map.Entry<StatCacheKey, Stat> e : stats.entrySet()) {
+                putBytes(out, e.getKey().getInode().toNfsHandle());
+                out.put(StatRecord.pack(e.getValue()));
+            }
+            out.force();
+        }
+        Files.move(tmp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * Populates lookup, parent and attribute caches from a snapshot written
+     * by {@link #writeSnapshot(Path)}. Restored entries are served as usual,
+     * but are reloaded from the backend on first access by refresh-ahead
+     * threads, thus requests are not delayed. Entries which fail to reload,
+     * e.g. objects removed while the server was down, are discarded.
+     * Requires refresh-ahead to be configured, as revalidation by the request
+     * thread would cost the same backend load as a cold cache.
+     *
+     * @param file snapshot file.
+     * @return number of restored entries.
+     * @throws IOException if snapshot can't be read or is corrupted.
+     * @throws IllegalStateException if refresh-ahead is not configured.
+     */
+    public int loadSnapshot(Path file) throws IOException {
+
+        checkState(_refreshExecutor != null, "snapshot requires refresh-ahead");
+
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != SNAPSHOT_MAGIC || in.getInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a cache snapshot: " + file);
+            }
+
+            int restored = 0;
+            int count = in.getInt();
+            for (int i = 0; i < count; i++, restored++) {
+                Inode parent = new Inode(getBytes(in));
+                String name = new String(getBytes(in), UTF_8);
+                Inode inode = new Inode(getBytes(in));
+                CacheKey key = new CacheKey(parent, name);
+                _lookupCache.put(key, inode);
+                _restored.add(key);
+            }
+
+            count = in.getInt();
+            for (int i = 0; i < count; i++, restored++) {
+                Inode inode = new Inode(getBytes(in));
+                Inode parent = new Inode(getBytes(in));
+                _parentCache.put(inode, parent);
+                _restored.add(inode);
+            }
+
+            count = in.getInt();
+            for (int i = 0; i < count; i++, restored++) {
+                StatCacheKey key = new StatCacheKey(new Inode(getBytes(in)));
+                _statCache.put(key, StatRecord.unpack(in));
+                _restored.add(key);
+            }
+            return restored;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupted cache snapshot " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void putBytes(ByteBuffer out, byte[] bytes) {
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Triggers reload of an entry restored from a snapshot on its first
+     * access. The current value is served until the reload completes. If
+     * reload fails, the entry is discarded, so that the next access reports
+     * the error of the backend.
+     */
+    private <K, V> void revalidateIfRestored(LoadingCache<K, V> cache, K key, Callable<V> loader) {
+        if (!_restored.isEmpty() && _restored.remove(key)) {
+            _refreshExecutor.execute(() -> {
+                try {
+                    // entry might be invalidated in the meantime
+                    cache.asMap().replace(key, loader.call());
+                } catch (Exception e) {
+                    _log.debug("Failed to revalidate restored entry {}: {}", key, e.toString());
+                    cache.invalidate(key);
+                }
+            });
+        }
+    }
+
+    /**
+     * Updates cached {@link Stat}, if any, to reflect a successful write
+     * which ended at the given file position. The size is extended if the
+     * write went beyond the end of file, modification and change times as
+     * well as change id are advanced. The cached object is never modified
+     * in place as it might be in use by other threads.
+     *
+     * @param inode inode of the modified file
+     * @param end file position following the last written byte
+     */
+    private void updateStatCacheOnWrite(Inode inode, long end) {
+        _statCache.asMap().computeIfPresent(new StatCacheKey(inode), (k, stat) -> {
+            Stat updated = stat.clone();
+            long now = System.currentTimeMillis();
+            if (updated.isDefined(Stat.StatAttribute.SIZE) && end > updated.getSize()) {
+                updated.setSize(end);
+            }
+            if (updated.isDefined(Stat.StatAttribute.MTIME)) {
+                updated.setMTime(now);
+            }
+            if (updated.isDefined(Stat.StatAttribute.CTIME)) {
+                updated.setCTime(now);
+            }
+            if (updated.isDefined(Stat.StatAttribute.GENERATION)) {
+                updated.setGeneration(updated.getGeneration() + 1);
+            }
+            return updated;
+        });
     }
 
     private void updateParentCache(Inode inode, Inode parent) {
         _parentCache.put(inode, parent);
     }
 
+    /**
+     * Enables refresh-ahead on the given cache builder, if configured.
+     */
+    private CacheBuilder<Object, Object> withRefresh(CacheBuilder<Object, Object> builder, VfsCacheConfig cacheConfig) {
+        if (_refreshExecutor != null) {
+            builder.refreshAfterWrite(cacheConfig.getRefreshTime(), cacheConfig.getRefreshTimeUnit());
+        }
+        return builder;
+    }
+
+    /**
+     * Reloads a cached value on refresh executor. The old value is served
+     * by the cache until the returned future completes. Outcome of the
+     * reload is recorded by the cache's JMX bean.
+     */
+    private <V> ListenableFuture<V> reloadAsync(Callable<V> loader, GuavaCacheMXBeanImpl mxBean) throws Exception {
+        if (_refreshExecutor == null) {
+            return Futures.immediateFuture(loader.call());
+        }
+
+        ListenableFutureTask<V> task = ListenableFutureTask.create(() -> {
+            try {
+                V value = loader.call();
+                mxBean.recordRefresh();
+                return value;
+            } catch (Exception e) {
+                mxBean.recordRefreshFailure();
+                throw e;
+            }
+        });
+        _refreshExecutor.execute(task);
+        return task;
+    }
+
     private class LoockupLoader extends CacheLoader<CacheKey, Inode> {
 
         @Override
         public Inode load(CacheKey k) throws Exception {
             return _inner.lookup(k.getParent(), k.getName());
         }
+
+        @Override
+        public ListenableFuture<Inode> reload(CacheKey k, Inode oldValue) throws Exception {
+            return reloadAsync(() -> load(k), _lookupCacheMXBean);
+        }
+    }
+
+    private class StatLoader extends CacheLoader<StatCacheKey, Stat> {
+
+        @Override
+        public Stat load(StatCacheKey k) throws Exception {
+            return _inner.getattr(k.getInode());
+        }
+
+        @Override
+        public ListenableFuture<Stat> reload(StatCacheKey k, Stat oldValue) throws Exception {
+            return reloadAsync(() -> load(k), _statCacheMXBean);
+        }
     }
 
     private Inode lookupFromCacheOrLoad(final Inode parent, final String path) throws IOException {
+        CacheKey key = new CacheKey(parent, path);
+        if (_negativeLookupCache.getIfPresent(key) != null) {
+            throw new NoEntException("Path " + path + " does not exist (cached)");
+        }
 	try {
-	    return _lookupCache.get(new CacheKey(parent, path));
+            revalidateIfRestored(_lookupCache, key, () -> _inner.lookup(parent, path));
+	    return _lookupCache.get(key);
 	} catch (ExecutionException e) {
 	    Throwable t = e.getCause();
+            if (t instanceof NoEntException) {
+                _negativeLookupCache.put(key, Boolean.TRUE);
+            }
 	    Throwables.throwIfInstanceOf(t, IOException.class);
 	    throw new IOException(e.getMessage(), t);
 	}
@@ -236,7 +629,9 @@ public class VfsCache extends ForwardingFileSystem {
 
     private Stat statFromCacheOrLoad(final Inode inode) throws IOException {
 	try {
-	    return _statCache.get(new Opaque(inode.getFileId()), () -> _inner.getattr(inode));
+            StatCacheKey key = new StatCacheKey(inode);
+            revalidateIfRestored(_statCache, key, () -> _inner.getattr(inode));
+	    return _statCache.get(key);
 	} catch (ExecutionException e) {
 	    Throwable t = e.getCause();
 	    Throwables.throwIfInstanceOf(t, IOException.class);
@@ -250,10 +645,16 @@ public class VfsCache extends ForwardingFileSystem {
         public Inode load(Inode inode) throws Exception {
             return _inner.parentOf(inode);
         }
+
+        @Override
+        public ListenableFuture<Inode> reload(Inode inode, Inode oldValue) throws Exception {
+            return reloadAsync(() -> load(inode), _parentCacheMXBean);
+        }
     }
 
     private Inode parentFromCacheOrLoad(final Inode inode) throws IOException {
         try {
+            revalidateIfRestored(_parentCache, inode, () -> _inner.parentOf(inode));
             return _parentCache.get(inode);
         } catch (ExecutionException e) {
             Throwable t = e.getCause();
@@ -286,12 +687,12 @@ public class VfsCache extends ForwardingFileSystem {
 
             final CacheKey other = (CacheKey) obj;
             return other._parent.equals(_parent)
-                    & other._name.equals(_name);
+                    && other._name.equals(_name);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(_name, _parent);
+            return 31 * _name.hashCode() + _parent.hashCode();
         }
 
         public String getName() {
@@ -303,6 +704,42 @@ public class VfsCache extends ForwardingFileSystem {
         }
     }
 
+    /**
+     * Attribute cache key. Entries are identified by file id only, thus the
+     * same file accessed through different exports shares a single entry.
+     * The inode is kept to reload the entry.
+     */
+    private static class StatCacheKey {
+
+        private final Inode _inode;
+        private final Opaque _fileId;
+
+        StatCacheKey(Inode inode) {
+            _inode = inode;
+            _fileId = new Opaque(inode.getFileId());
+        }
+
+        Inode getInode() {
+            return _inode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof StatCacheKey)) {
+                return false;
+            }
+            return _fileId.equals(((StatCacheKey) obj)._fileId);
+        }
+
+        @Override
+        public int hashCode() {
+            return _fileId.hashCode();
+        }
+    }
+
     private static class InodeCacheEntry {
 
         private final Inode _inode;
@@ -336,6 +773,30 @@ public class VfsCache extends ForwardingFileSystem {
         }
     }
 
+    /**
+     * Cache entry key based on directory inode, verifier and cookie of
+     * the entry preceding the page.
+     */
+    private static class PageCacheEntry extends InodeCacheEntry {
+
+        private final long _cookie;
+
+        PageCacheEntry(Inode inode, byte[] verifier, long cookie) {
+            super(inode, verifier);
+            _cookie = cookie;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return super.equals(obj) && _cookie == ((PageCacheEntry) obj)._cookie;
+        }
+
+        @Override
+        public int hashCode() {
+            return super.hashCode() ^ Long.hashCode(_cookie);
+        }
+    }
+
     private class FsStatSupplier implements Supplier<FsStat> {
 
         @Override
@@ -368,10 +829,35 @@ public class VfsCache extends ForwardingFileSystem {
             // ask always for list from the beginning
             directoryStream = delegate().list(inode, DirectoryStream.ZERO_VERIFIER, 0L);
             cacheKey = new InodeCacheEntry(inode, directoryStream.getVerifier());
+            if (directoryStream.isLazy()) {
+                directoryStream = withPageCache(inode, directoryStream);
+            } else {
+                // keep packed listing to reduce memory footprint of the cache
+                directoryStream = new DirectoryStream(directoryStream.getVerifier(),
+                        new DirectorySnapshot(directoryStream.getEntries()));
+            }
             _readdirCache.put(cacheKey, directoryStream);
         }
 
         return directoryStream.tail(cookie);
     }
 
+
+    /**
+     * Wrap lazily iterated directory stream to cache pages of entries rather
+     * than the whole directory.
+     */
+    private DirectoryStream withPageCache(Inode inode, DirectoryStream directoryStream) {
+        byte[] verifier = directoryStream.getVerifier();
+        DirectoryStream.PageLoader loader = directoryStream.getPageLoader();
+        return new DirectoryStream(verifier, cookie -> {
+            try {
+                return _readdirPageCache.get(new PageCacheEntry(inode, verifier, cookie), () -> loader.load(cookie));
+            } catch (ExecutionException e) {
+                Throwable t = e.getCause();
+                Throwables.throwIfInstanceOf(t, IOException.class);
+                throw new IOException(e.getMessage(), t);
+            }
+        });
+    }
 }
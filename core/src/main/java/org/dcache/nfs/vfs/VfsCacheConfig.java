@@ -36,6 +36,15 @@ public class VfsCacheConfig {
     private TimeUnit readdirLifeTimeUnit = TimeUnit.SECONDS;
     private int readdirMaxEntries;
 
+    private long negativeLookupLifeTime;
+    private TimeUnit negativeLookupLifeTimeUnit = TimeUnit.SECONDS;
+
+    private long refreshTime;
+    private TimeUnit refreshTimeUnit = TimeUnit.SECONDS;
+    private int refreshThreads = 1;
+
+    private long offHeapMaxBytes = 64 * 1024 * 1024;
+
     /**
      * Get maximal number of entries in the cache.
      * @return maximal number of entries
@@ -102,6 +111,58 @@ public class VfsCacheConfig {
         return readdirMaxEntries;
     }
 
+    /**
+     * Get validity time of cached failed lookups. Zero disables caching of
+     * failed lookups.
+     *
+     * @return validity time.
+     */
+    public long getNegativeLookupLifeTime() {
+        return negativeLookupLifeTime;
+    }
+
+    /**
+     * Get unit in which validity time of cached failed lookups is expressed.
+     * @return time unit.
+     */
+    public TimeUnit getNegativeLookupLifeTimeUnit() {
+        return negativeLookupLifeTimeUnit;
+    }
+
+    /**
+     * Get time after which cached lookup, parent and attribute values are
+     * reloaded in the background. Zero disables refresh-ahead.
+     *
+     * @return refresh time.
+     */
+    public long getRefreshTime() {
+        return refreshTime;
+    }
+
+    /**
+     * Get unit in which refresh time is expressed.
+     * @return time unit.
+     */
+    public TimeUnit getRefreshTimeUnit() {
+        return refreshTimeUnit;
+    }
+
+    /**
+     * Get number of threads used to reload cached values in the background.
+     * @return number of refresh threads.
+     */
+    public int getRefreshThreads() {
+        return refreshThreads;
+    }
+
+    /**
+     * Get amount of direct memory used by {@link OffHeapVfsCache}.
+     * @return memory budget in bytes.
+     */
+    public long getOffHeapMaxBytes() {
+        return offHeapMaxBytes;
+    }
+
     /**
      * Set maximal number of entries in the cache.
      * @param maxEntries
@@ -165,4 +226,57 @@ public class VfsCacheConfig {
     public void setReaddirMaxEntries(int maxEntries) {
         readdirMaxEntries = maxEntries;
     }
+
+    /**
+     * Set validity time of cached failed lookups. As cached entries are
+     * invalidated only by changes done through this server, short times
+     * should be used.
+     * @param lifeTime
+     */
+    public void setNegativeLookupLifeTime(long lifeTime) {
+        this.negativeLookupLifeTime = lifeTime;
+    }
+
+    /**
+     * Set unit in which validity time of cached failed lookups is expressed.
+     * @param timeUnit
+     */
+    public void setNegativeLookupLifeTimeUnit(TimeUnit timeUnit) {
+        this.negativeLookupLifeTimeUnit = timeUnit;
+    }
+
+    /**
+     * Set time after which cached values are reloaded in the background.
+     * While reload is in progress the old value is returned. To be effective,
+     * the refresh time must be shorter than cache entry life time.
+     * @param refreshTime
+     */
+    public void setRefreshTime(long refreshTime) {
+        this.refreshTime = refreshTime;
+    }
+
+    /**
+     * Set unit in which refresh time is expressed.
+     * @param timeUnit
+     */
+    public void setRefreshTimeUnit(TimeUnit timeUnit) {
+        this.refreshTimeUnit = timeUnit;
+    }
+
+    /**
+     * Set number of threads used to reload cached values in the background.
+     * @param refreshThreads
+     */
+    public void setRefreshThreads(int refreshThreads) {
+        this.refreshThreads = refreshThreads;
+    }
+
+    /**
+     * Set amount of direct memory used by {@link OffHeapVfsCache}. The
+     * memory is allocated upfront, when the cache is created.
+     * @param maxBytes
+     */
+    public void setOffHeapMaxBytes(long maxBytes) {
+        this.offHeapMaxBytes = maxBytes;
+    }
 }
@@ -20,7 +20,13 @@
 package org.dcache.nfs.vfs;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalLong;
 import javax.security.auth.Subject;
+import org.dcache.nfs.status.NoEntException;
 import org.dcache.nfs.v4.NfsIdMapping;
 import org.dcache.nfs.v4.xdr.nfsace4;
 import org.dcache.nfs.v4.xdr.stable_how4;
@@ -179,6 +185,42 @@ public interface VirtualFileSystem {
      */
     int read(Inode inode, byte[] data, long offset, int count) throws IOException;
 
+    /**
+     * Read data from file with a given inode into {@code data}. Up to
+     * {@link ByteBuffer#remaining()} bytes are read into the buffer starting at
+     * its current position. On return buffer's position is advanced by the number
+     * of bytes read. The buffer can be a direct buffer, which allows
+     * implementations to avoid intermediate copies.
+     *
+     * The default implementation uses {@link #read(Inode, byte[], long, int)}.
+     *
+     * @param inode inode of the file to read from.
+     * @param data buffer for writing.
+     * @param offset file's position to read from.
+     * @return number of bytes read from the file, possibly zero. -1 if EOF is
+     * reached.
+     * @throws IOException
+     * @since 0.18
+     */
+    default int read(Inode inode, ByteBuffer data, long offset) throws IOException {
+
+        int count = data.remaining();
+        if (data.hasArray() && data.arrayOffset() + data.position() == 0) {
+            int n = read(inode, data.array(), offset, count);
+            if (n > 0) {
+                data.position(data.position() + n);
+            }
+            return n;
+        }
+
+        byte[] buf = new byte[count];
+        int n = read(inode, buf, offset, count);
+        if (n > 0) {
+            data.put(buf, 0, n);
+        }
+        return n;
+    }
+
     /**
      * Get value of a symbolic link object.
      *
@@ -224,6 +266,41 @@ public interface VirtualFileSystem {
      */
     WriteResult write(Inode inode, byte[] data, long offset, int count, StabilityLevel stabilityLevel) throws IOException;
 
+    /**
+     * Write provided {@code data} into inode with a given stability level. All
+     * {@link ByteBuffer#remaining()} bytes of the buffer are written. On return
+     * buffer's position is advanced by the number of bytes written. The buffer
+     * can be a direct buffer, which allows implementations to avoid intermediate
+     * copies.
+     *
+     * The default implementation uses {@link #write(Inode, byte[], long, int, StabilityLevel)}.
+     *
+     * @param inode inode of the file to write.
+     * @param data data to be written.
+     * @param offset the file position to begin writing at.
+     * @param stabilityLevel data stability level.
+     * @return write result.
+     * @throws IOException
+     * @since 0.18
+     */
+    default WriteResult write(Inode inode, ByteBuffer data, long offset, StabilityLevel stabilityLevel) throws IOException {
+
+        int count = data.remaining();
+        byte[] buf;
+        if (data.hasArray() && data.arrayOffset() + data.position() == 0) {
+            buf = data.array();
+        } else {
+            buf = new byte[count];
+            data.duplicate().get(buf);
+        }
+
+        WriteResult res = write(inode, buf, offset, count, stabilityLevel);
+        if (res.getBytesWritten() > 0) {
+            data.position(data.position() + res.getBytesWritten());
+        }
+        return res;
+    }
+
     /**
      * Flush data in {@code dirty} state to the stable storage. Typically
      * follows {@link #write()} operation.
@@ -244,6 +321,31 @@ public interface VirtualFileSystem {
      */
     Stat getattr(Inode inode) throws IOException;
 
+    /**
+     * Get attributes of multiple file system objects at once. File systems,
+     * which can fetch attributes of many objects with a single request, should
+     * override this method, as it's used to get attributes of directory entries
+     * which are returned by {@link #list(Inode, byte[], long)} without them.
+     *
+     * Objects, which don't exist any more, are not included into the result.
+     * The default implementation calls {@link #getattr(Inode)} for each inode.
+     *
+     * @param inodes inodes of the file system objects.
+     * @return map of provided inodes to their attributes.
+     * @throws IOException
+     */
+    default Map<Inode, Stat> getattr(Collection<Inode> inodes) throws IOException {
+        Map<Inode, Stat> stats = new HashMap<>(inodes.size());
+        for (Inode inode : inodes) {
+            try {
+                stats.put(inode, getattr(inode));
+            } catch (NoEntException e) {
+                // removed after it was listed
+            }
+        }
+        return stats;
+    }
+
     /**
      * Set/update file system object's attributes.
      *
@@ -296,6 +398,22 @@ public interface VirtualFileSystem {
      */
     NfsIdMapping getIdMapper();
 
+    /**
+     * Get current write verifier generation of the file system. The value must
+     * change whenever data acknowledged by an {@link StabilityLevel#UNSTABLE}
+     * write may have been lost before it was committed to stable storage. The
+     * value is combined by the server with its boot verifier to let clients know
+     * that uncommitted data have to be re-sent.
+     *
+     * The default implementation returns zero, e.g. the file system never looses
+     * uncommitted data without server restart.
+     *
+     * @return write verifier generation.
+     */
+    default long getWriteVerifier() {
+        return 0L;
+    }
+
     /**
      * Object which represents write operation result.
      */
@@ -303,10 +421,25 @@ public interface VirtualFileSystem {
 
         private final int bytesWritten;
         private final StabilityLevel stabilityLevel;
+        private final OptionalLong writeVerifier;
 
         public WriteResult(StabilityLevel stabilityLevel, int bytesWritten) {
+            this(stabilityLevel, bytesWritten, OptionalLong.empty());
+        }
+
+        /**
+         * Create write result, which data is covered by the given write
+         * verifier generation, e.g. the value of {@link #getWriteVerifier()}
+         * at the time when data was accepted.
+         */
+        public WriteResult(StabilityLevel stabilityLevel, int bytesWritten, long writeVerifier) {
+            this(stabilityLevel, bytesWritten, OptionalLong.of(writeVerifier));
+        }
+
+        private WriteResult(StabilityLevel stabilityLevel, int bytesWritten, OptionalLong writeVerifier) {
             this.stabilityLevel = stabilityLevel;
             this.bytesWritten = bytesWritten;
+            this.writeVerifier = writeVerifier;
         }
 
         /**
@@ -326,6 +459,16 @@ public interface VirtualFileSystem {
         public StabilityLevel getStabilityLevel() {
             return stabilityLevel;
         }
+
+        /**
+         * Get write verifier generation, which was valid when data was accepted.
+         * If empty, the current value of file system's write verifier applies.
+         *
+         * @return write verifier generation.
+         */
+        public OptionalLong getWriteVerifier() {
+            return writeVerifier;
+        }
     }
 
     //NOTE - stability values and ordinals are the same for nfs 3 and 4
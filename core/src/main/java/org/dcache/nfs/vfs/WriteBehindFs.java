@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.dcache.nfs.status.NfsIoException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Write-behind decorator. Data of {@link StabilityLevel#UNSTABLE} writes is
+ * kept in memory, where contiguous writes into the same file are coalesced,
+ * and is flushed to the backing file system on {@link #commit(Inode, long, int)},
+ * before any other access to the file's data or when the amount of buffered
+ * data exceeds configured limit. Stable writes are passed through after
+ * buffered data of the file is flushed.
+ *
+ * If buffered data can't be flushed, it's discarded and write verifier is
+ * changed to signal clients that uncommitted data have to be re-sent.
+ */
+public class WriteBehindFs extends ForwardingFileSystem {
+
+    private static final Logger _log = LoggerFactory.getLogger(WriteBehindFs.class);
+
+    private final VirtualFileSystem _inner;
+    private final int _maxExtentSize;
+    private final long _maxBufferedBytes;
+
+    private final ConcurrentMap<Inode, PendingWrites> _pending = new ConcurrentHashMap<>();
+    private final AtomicLong _bufferedBytes = new AtomicLong();
+    private final AtomicLong _generation = new AtomicLong();
+
+    /**
+     * Create write-behind decorator.
+     *
+     * @param inner file system to decorate.
+     * @param maxExtentSize maximal size of a single coalesced write.
+     * @param maxBufferedBytes maximal amount of buffered data.
+     */
+    public WriteBehindFs(VirtualFileSystem inner, int maxExtentSize, long maxBufferedBytes) {
+        checkArgument(maxExtentSize > 0, "extent size must be positive");
+        checkArgument(maxBufferedBytes >= maxExtentSize, "buffer can't be smaller than an extent");
+        _inner = requireNonNull(inner);
+        _maxExtentSize = maxExtentSize;
+        _maxBufferedBytes = maxBufferedBytes;
+    }
+
+    @Override
+    protected VirtualFileSystem delegate() {
+        return _inner;
+    }
+
+    @Override
+    public WriteResult write(Inode inode, byte[] data, long offset, int count, StabilityLevel stabilityLevel) throws IOException {
+        return write(inode, ByteBuffer.wrap(data, 0, count), offset, stabilityLevel);
+    }
+
+    @Override
+    public WriteResult write(Inode inode, ByteBuffer data, long offset, StabilityLevel stabilityLevel) throws IOException {
+
+        if (stabilityLevel != StabilityLevel.UNSTABLE) {
+            flush(inode);
+            return _inner.write(inode, data, offset, stabilityLevel);
+        }
+
+        int count = data.remaining();
+        PendingWrites pending = _pending.computeIfAbsent(inode, PendingWrites::new);
+        long verifier = pending.add(offset, data, _maxExtentSize);
+        long buffered = _bufferedBytes.addAndGet(count);
+
+        if (buffered > _maxBufferedBytes) {
+            flushAll();
+        }
+        /*
+         * Reply with the verifier, which was valid when data was buffered. If
+         * the data is lost by a flush, which happens after this point, COMMIT
+         * will return a different verifier and the client will re-send.
+         */
+        return new WriteResult(StabilityLevel.UNSTABLE, count, verifier);
+    }
+
+    @Override
+    public void commit(Inode inode, long offset, int count) throws IOException {
+        flush(inode);
+        _inner.commit(inode, offset, count);
+    }
+
+    @Override
+    public int read(Inode inode, byte[] data, long offset, int count) throws IOException {
+        flush(inode);
+        return _inner.read(inode, data, offset, count);
+    }
+
+    @Override
+    public int read(Inode inode, ByteBuffer data, long offset) throws IOException {
+        flush(inode);
+        return _inner.read(inode, data, offset);
+    }
+
+    @Override
+    public void setattr(Inode inode, Stat stat) throws IOException {
+        flush(inode);
+        _inner.setattr(inode, stat);
+    }
+
+    @Override
+    public Stat getattr(Inode inode) throws IOException {
+        Stat stat = _inner.getattr(inode);
+        PendingWrites pending = _pending.get(inode);
+        if (pending != null) {
+            long size = pending.size();
+            if (size > stat.getSize()) {
+                stat = stat.clone();
+                stat.setSize(size);
+            }
+        }
+        return stat;
+    }
+
+    @Override
+    public void remove(Inode parent, String path) throws IOException {
+        if (!_pending.isEmpty()) {
+            // nobody will ever see the data of removed file
+            discard(_inner.lookup(parent, path));
+        }
+        _inner.remove(parent, path);
+    }
+
+    @Override
+    public long getWriteVerifier() {
+        return _inner.getWriteVerifier() + _generation.get();
+    }
+
+    /**
+     * Get amount of data, which is not flushed to the backing file system.
+     *
+     * @return number of buffered bytes.
+     */
+    public long getBufferedBytes() {
+        return _bufferedBytes.get();
+    }
+
+    /**
+     * Write all buffered data of the given file to backing file system. The
+     * pending writes stay visible until the flush is complete, thus concurrent
+     * callers wait for it, instead of passing by not yet written data.
+     */
+    private void flush(Inode inode) throws IOException {
+        PendingWrites pending = _pending.get(inode);
+        if (pending != null) {
+            try {
+                pending.flush();
+            } finally {
+                _pending.remove(inode, pending);
+            }
+        }
+    }
+
+    /**
+     * Write buffered data of all files to backing file system. Errors are not
+     * propagated, as they are not related to the current request. Clients
+     * will detect the loss of data by changed write verifier.
+     */
+    private void flushAll() {
+        for (Inode inode : _pending.keySet()) {
+            try {
+                flush(inode);
+            } catch (IOException | RuntimeException e) {
+                // already logged
+            }
+        }
+    }
+
+    private void discard(Inode inode) {
+        PendingWrites pending = _pending.remove(inode);
+        if (pending != null) {
+            pending.discard();
+        }
+    }
+
+    /**
+     * A contiguous range of buffered data.
+     */
+    private static class Extent {
+
+        private final long offset;
+        private final List<ByteBuffer> buffers = new ArrayList<>(1);
+        private int length;
+
+        Extent(long offset) {
+            this.offset = offset;
+        }
+
+        long end() {
+            return offset + length;
+        }
+
+        void append(ByteBuffer data) {
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data).flip();
+            buffers.add(copy);
+            length += copy.remaining();
+        }
+
+        ByteBuffer data() {
+            if (buffers.size() == 1) {
+                return buffers.get(0);
+            }
+            ByteBuffer merged = ByteBuffer.allocate(length);
+            buffers.forEach(b -> merged.put(b.duplicate()));
+            merged.flip();
+            return merged;
+        }
+    }
+
+    /**
+     * Buffered writes of a single file in the order they have arrived.
+     */
+    private class PendingWrites {
+
+        private final Inode _inode;
+        private final List<Extent> _extents = new ArrayList<>();
+        private long _bytes;
+        private long _size;
+        private boolean _closed;
+        private Exception _failure;
+
+        PendingWrites(Inode inode) {
+            _inode = inode;
+        }
+
+        /**
+         * Buffer the data.
+         *
+         * @return write verifier generation, which covers the buffered data.
+         */
+        synchronized long add(long offset, ByteBuffer data, int maxExtentSize) throws IOException {
+
+            /*
+             * Taken under the same lock as a failed flush changes the generation,
+             * thus the value can't be changed between buffering and returning.
+             */
+            long verifier = getWriteVerifier();
+            if (_closed) {
+                /*
+                 * Lost a race with flush. Write data directly, as buffering
+                 * in a new instance would reorder the writes.
+                 */
+                _bufferedBytes.addAndGet(-data.remaining());
+                _inner.write(_inode, data, offset, StabilityLevel.UNSTABLE);
+                return verifier;
+            }
+
+            int count = data.remaining();
+            Extent last = _extents.isEmpty() ? null : _extents.get(_extents.size() - 1);
+            if (last == null || last.end() != offset || last.length + count > maxExtentSize) {
+                last = new Extent(offset);
+                _extents.add(last);
+            }
+            last.append(data);
+            _bytes += count;
+            _size = Math.max(_size, offset + count);
+            return verifier;
+        }
+
+        synchronized long size() {
+            return _size;
+        }
+
+        synchronized void flush() throws IOException {
+            if (_closed) {
+                if (_failure != null) {
+                    // waited for a flush, which has failed
+                    throw new NfsIoException("Buffered writes lost: " + _failure.getMessage(), _failure);
+                }
+                return;
+            }
+            _closed = true;
+            _bufferedBytes.addAndGet(-_bytes);
+            try {
+                for (Extent extent : _extents) {
+                    ByteBuffer data = extent.data();
+                    while (data.hasRemaining()) {
+                        int position = data.position();
+                        WriteResult result = _inner.write(_inode, data, extent.offset + position,
+                                StabilityLevel.UNSTABLE);
+                        if (result.getBytesWritten() <= 0) {
+                            throw new IOException("Short write");
+                        }
+                        data.position(position + result.getBytesWritten());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                _generation.incrementAndGet();
+                _failure = e;
+                _log.warn("Failed to flush buffered writes of {}: {}", _inode, e.getMessage());
+                throw e;
+            } finally {
+                _extents.clear();
+            }
+        }
+
+        synchronized void discard() {
+            if (!_closed) {
+                _closed = true;
+                _bufferedBytes.addAndGet(-_bytes);
+                _extents.clear();
+            }
+        }
+    }
+}
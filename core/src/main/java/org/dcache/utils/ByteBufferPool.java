@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.utils;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A pool of {@link ByteBuffer}s for short living IO buffers, like data of
+ * READ replies. Buffers are organized in size classes of power of two, starting
+ * at 4KB up to the configured maximal buffer size. Each thread keeps one buffer
+ * per size class for itself, the remaining buffers are shared.
+ *
+ * <p>
+ * A buffer obtained by {@link #acquire(int)} must be returned with
+ * {@link #release(ByteBuffer)} exactly once, when it's not used any more, e.g. after
+ * the reply is sent. A buffer which is never released is simply garbage
+ * collected.</p>
+ *
+ * @since 0.18
+ */
+public class ByteBufferPool implements ByteBufferPoolMXBean {
+
+    private final static Logger _log = LoggerFactory.getLogger(ByteBufferPool.class);
+
+    private static final int MIN_CLASS_SHIFT = 12; // 4KB
+
+    private final int _maxBufferSize;
+    private final long _maxPooledBytes;
+    private final boolean _direct;
+
+    private final ArrayBlockingQueue<ByteBuffer>[] _classes;
+    private final ThreadLocal<ByteBuffer[]> _local;
+
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _outstanding = new LongAdder();
+    private final AtomicLong _pooled = new AtomicLong();
+
+    /**
+     * Create a new pool.
+     *
+     * @param name name used to register JMX bean.
+     * @param maxBufferSize the largest buffer size to pool.
+     * @param maxPooledBytes upper limit of memory kept by the pool.
+     * @param direct true if pool should provide direct buffers.
+     */
+    @SuppressWarnings("unchecked")
+    public ByteBufferPool(String name, int maxBufferSize, long maxPooledBytes, boolean direct) {
+
+        checkArgument(maxBufferSize > 0, "max buffer size must be positive");
+        checkArgument(maxPooledBytes >= 0, "pool size can't be negative");
+
+        _maxBufferSize = maxBufferSize;
+        _maxPooledBytes = maxPooledBytes;
+        _direct = direct;
+
+        int nClasses = sizeClass(maxBufferSize) + 1;
+        _classes = new ArrayBlockingQueue[nClasses];
+        for (int i = 0; i < nClasses; i++) {
+            _classes[i] = new ArrayBlockingQueue<>((int) Math.max(1, Math.min(Integer.MAX_VALUE, maxPooledBytes / classSize(i))));
+        }
+        _local = ThreadLocal.withInitial(() -> new ByteBuffer[nClasses]);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            String jmxName = String.format("%s:type=ByteBufferPool,name=%s",
+                    getClass().getPackage().getName(), name);
+            ObjectName mxBeanName = new ObjectName(jmxName);
+            if (!server.isRegistered(mxBeanName)) {
+                server.registerMBean(this, mxBeanName);
+            }
+        } catch (MalformedObjectNameException | InstanceAlreadyExistsException
+                | MBeanRegistrationException | NotCompliantMBeanException ex) {
+            _log.warn("Failed to create JMX bean: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * Get a buffer with at least {@code size} bytes. The returned buffer's
+     * position is zero and its limit is set to {@code size}.
+     *
+     * @param size required buffer size.
+     * @return byte buffer.
+     */
+    public ByteBuffer acquire(int size) {
+
+        checkArgument(size >= 0, "size can't be negative");
+
+        ByteBuffer buffer = null;
+        if (size <= _maxBufferSize) {
+            int sizeClass = sizeClass(size);
+            ByteBuffer[] local = _local.get();
+            buffer = local[sizeClass];
+            if (buffer != null) {
+                local[sizeClass] = null;
+            } else {
+                buffer = _classes[sizeClass].poll();
+            }
+
+            if (buffer != null) {
+                _pooled.addAndGet(-buffer.capacity());
+                _hits.increment();
+            } else {
+                buffer = allocate(classSize(sizeClass));
+                _misses.increment();
+            }
+        } else {
+            buffer = allocate(size);
+            _misses.increment();
+        }
+
+        _outstanding.add(buffer.capacity());
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer obtained by {@link #acquire(int)} back to the pool.
+     *
+     * @param buffer the buffer to release.
+     */
+    public void release(ByteBuffer buffer) {
+
+        int capacity = buffer.capacity();
+        _outstanding.add(-capacity);
+
+        if (buffer.isDirect() != _direct) {
+            return;
+        }
+
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass >= _classes.length || classSize(sizeClass) != capacity) {
+            // not one of ours
+            return;
+        }
+
+        if (_pooled.addAndGet(capacity) > _maxPooledBytes) {
+            _pooled.addAndGet(-capacity);
+            return;
+        }
+
+        buffer.clear();
+        ByteBuffer[] local = _local.get();
+        if (local[sizeClass] == null) {
+            local[sizeClass] = buffer;
+        } else if (!_classes[sizeClass].offer(buffer)) {
+            _pooled.addAndGet(-capacity);
+        }
+    }
+
+    private ByteBuffer allocate(int size) {
+        return _direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= (1 << MIN_CLASS_SHIFT)) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+    }
+
+    private static int classSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_CLASS_SHIFT);
+    }
+
+    @Override
+    public long getHitCount() {
+        return _hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return _misses.sum();
+    }
+
+    @Override
+    public long getOutstandingBytes() {
+        return _outstanding.sum();
+    }
+
+    @Override
+    public long getPooledBytes() {
+        return _pooled.get();
+    }
+
+    @Override
+    public int getMaxBufferSize() {
+        return _maxBufferSize;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.utils;
+
+public interface ByteBufferPoolMXBean {
+
+    /**
+     * Get number of requests served by a pooled buffer.
+     */
+    public long getHitCount();
+
+    /**
+     * Get number of requests which required a new buffer allocation.
+     */
+    public long getMissCount();
+
+    /**
+     * Get number of bytes handed out by the pool and not released yet.
+     */
+    public long getOutstandingBytes();
+
+    /**
+     * Get number of bytes kept by the pool for reuse.
+     */
+    public long getPooledBytes();
+
+    /**
+     * Get the largest buffer size served by the pool.
+     */
+    public int getMaxBufferSize();
+}
@@ -47,6 +47,10 @@ public interface GuavaCacheMXBean {
 
     public long getSize();
 
+    public long getRefreshCount();
+
+    public long getRefreshFailureCount();
+
     public void cleanUp();
 
     public void invalidateAll();
@@ -20,6 +20,8 @@
 package org.dcache.utils;
 
 import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import javax.management.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,14 +33,25 @@ public class GuavaCacheMXBeanImpl implements GuavaCacheMXBean {
 
     private final static Logger _log = LoggerFactory.getLogger(GuavaCacheMXBeanImpl.class);
 
-    private final com.google.common.cache.Cache _cache;
+    private final Supplier<? extends com.google.common.cache.Cache> _cache;
+
+    private final LongAdder _refreshCount = new LongAdder();
+    private final LongAdder _refreshFailureCount = new LongAdder();
 
     public GuavaCacheMXBeanImpl(String cname, com.google.common.cache.Cache cache) {
+        this(cname, () -> cache);
+    }
+
+    /**
+     * Create JMX bean for a cache which is replaced from time to time. The
+     * bean always reports the cache currently returned by the supplier.
+     */
+    public GuavaCacheMXBeanImpl(String cname, Supplier<? extends com.google.common.cache.Cache> cache) {
         _cache = cache;
         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
         try {
             String name = String.format("%s:type=Cache,name=%s",
-                    _cache.getClass().getPackage().getName(), cname);
+                    _cache.get().getClass().getPackage().getName(), cname);
             ObjectName mxBeanName = new ObjectName(name);
             if (!server.isRegistered(mxBeanName)) {
                 server.registerMBean(this, new ObjectName(name));
@@ -51,77 +64,101 @@ public class GuavaCacheMXBeanImpl implements GuavaCacheMXBean {
 
     @Override
     public long getRequestCount() {
-        return _cache.stats().requestCount();
+        return _cache.get().stats().requestCount();
     }
 
     @Override
     public long getHitCount() {
-        return _cache.stats().hitCount();
+        return _cache.get().stats().hitCount();
     }
 
     @Override
     public double getHitRate() {
-        return _cache.stats().hitRate();
+        return _cache.get().stats().hitRate();
     }
 
     @Override
     public long getMissCount() {
-        return _cache.stats().missCount();
+        return _cache.get().stats().missCount();
     }
 
     @Override
     public double getMissRate() {
-        return _cache.stats().missRate();
+        return _cache.get().stats().missRate();
     }
 
     @Override
     public long getLoadCount() {
-        return _cache.stats().loadCount();
+        return _cache.get().stats().loadCount();
     }
 
     @Override
     public long getLoadSuccessCount() {
-        return _cache.stats().loadSuccessCount();
+        return _cache.get().stats().loadSuccessCount();
     }
 
     @Override
     public long getLoadExceptionCount() {
-        return _cache.stats().loadExceptionCount();
+        return _cache.get().stats().loadExceptionCount();
     }
 
     @Override
     public double getLoadExceptionRate() {
-        return _cache.stats().loadExceptionRate();
+        return _cache.get().stats().loadExceptionRate();
     }
 
     @Override
     public long getTotalLoadTime() {
-        return _cache.stats().totalLoadTime();
+        return _cache.get().stats().totalLoadTime();
     }
 
     @Override
     public double getAverageLoadPenalty() {
-        return _cache.stats().averageLoadPenalty();
+        return _cache.get().stats().averageLoadPenalty();
     }
 
     @Override
     public long getEvictionCount() {
-        return _cache.stats().evictionCount();
+        return _cache.get().stats().evictionCount();
     }
 
     @Override
     public long getSize() {
-        return _cache.size();
+        return _cache.get().size();
+    }
+
+    @Override
+    public long getRefreshCount() {
+        return _refreshCount.sum();
+    }
+
+    @Override
+    public long getRefreshFailureCount() {
+        return _refreshFailureCount.sum();
+    }
+
+    /**
+     * Record successful background reload of a cache entry.
+     */
+    public void recordRefresh() {
+        _refreshCount.increment();
+    }
+
+    /**
+     * Record failed background reload of a cache entry.
+     */
+    public void recordRefreshFailure() {
+        _refreshFailureCount.increment();
     }
 
     @Override
     public void cleanUp() {
-        _cache.cleanUp();
+        _cache.get().cleanUp();
     }
 
     @Override
     public void invalidateAll() {
-        _cache.invalidateAll();
+        _cache.get().invalidateAll();
     }
 
 }
@@ -227,6 +227,18 @@ public class FsExportTest {
         assertArrayEquals("the export entries are not sorted as expected", sortedEntries, unsortedEntries);
     }
 
+    @Test
+    public void testMostSpecificSubnetSelected() throws Exception {
+
+        ExportFile exportFile  = new ExportFile(ClassLoader.getSystemResource("org/dcache/nfs/exports.unsorted").toURI());
+
+        assertEquals("10.0.0.1", exportFile.getExport("/data", InetAddress.getByName("10.0.0.1")).client());
+        assertEquals("10.0.0.0/24", exportFile.getExport("/data", InetAddress.getByName("10.0.0.2")).client());
+        assertEquals("10.0.0.0/16", exportFile.getExport("/data", InetAddress.getByName("10.0.1.2")).client());
+        assertEquals("10.0.0.0/8", exportFile.getExport("/data", InetAddress.getByName("10.1.1.2")).client());
+        assertNull(exportFile.getExport("/data", InetAddress.getByName("11.0.0.1")));
+    }
+
     @Test
     public void testLyoutTypeOptions() throws Exception {
 	FsExport export = _exportFile.getExport("/layouttypes", InetAddress.getByName("172.16.1.1"));
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs;
+
+import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class HostNameCacheTest {
+
+    private HostResolver resolver;
+    private HostNameCache cache;
+
+    @Before
+    public void setUp() throws UnknownHostException {
+        resolver = mock(HostResolver.class);
+        when(resolver.getAllByName("www.dcache.org"))
+                .thenReturn(new InetAddress[]{InetAddresses.forString("131.169.4.221")});
+        when(resolver.getAllByName("unknown.dcache.org"))
+                .thenThrow(new UnknownHostException("unknown.dcache.org"));
+        when(resolver.getHostName(InetAddresses.forString("131.169.4.221")))
+                .thenReturn("www.dcache.org");
+
+        cache = new HostNameCache(resolver, 1, 10, TimeUnit.MINUTES, MoreExecutors.directExecutor());
+    }
+
+    @Test
+    public void testHostNameMatch() throws UnknownHostException {
+        InetAddressMatcher matcher = InetAddressMatcher.forPattern("www.dcache.org", cache);
+        assertTrue(matcher.match(InetAddresses.forString("131.169.4.221")));
+        assertFalse(matcher.match(InetAddresses.forString("131.169.4.222")));
+    }
+
+    @Test
+    public void testResolvedAtCreation() throws UnknownHostException {
+        InetAddressMatcher.forPattern("www.dcache.org", cache);
+        verify(resolver).getAllByName("www.dcache.org");
+    }
+
+    @Test
+    public void testResolvedOnce() throws UnknownHostException {
+        InetAddressMatcher matcher = InetAddressMatcher.forPattern("www.dcache.org", cache);
+        for (int i = 0; i < 10; i++) {
+            matcher.match(InetAddresses.forString("131.169.4.221"));
+        }
+        verify(resolver, times(1)).getAllByName("www.dcache.org");
+    }
+
+    @Test
+    public void testUnknownHostCached() throws UnknownHostException {
+        InetAddressMatcher matcher = InetAddressMatcher.forPattern("unknown.dcache.org", cache);
+        assertFalse(matcher.match(InetAddresses.forString("131.169.4.221")));
+        assertFalse(matcher.match(InetAddresses.forString("131.169.4.221")));
+        verify(resolver, times(1)).getAllByName("unknown.dcache.org");
+    }
+
+    @Test
+    public void testRegexpMatch() throws UnknownHostException {
+        InetAddressMatcher matcher = InetAddressMatcher.forPattern("*.dcache.org", cache);
+        assertTrue(matcher.match(InetAddresses.forString("131.169.4.221")));
+        assertTrue(matcher.match(InetAddresses.forString("131.169.4.221")));
+        verify(resolver, times(1)).getHostName(InetAddresses.forString("131.169.4.221"));
+    }
+
+    @Test
+    public void testFailedRefreshKeepsAddresses() throws Exception {
+        cache = new HostNameCache(resolver, 1, 10000, TimeUnit.MILLISECONDS, MoreExecutors.directExecutor());
+        InetAddressMatcher matcher = InetAddressMatcher.forPattern("www.dcache.org", cache);
+        assertTrue(matcher.match(InetAddresses.forString("131.169.4.221")));
+
+        when(resolver.getAllByName("www.dcache.org"))
+                .thenThrow(new UnknownHostException("www.dcache.org"));
+        TimeUnit.MILLISECONDS.sleep(5);
+
+        assertTrue(matcher.match(InetAddresses.forString("131.169.4.221")));
+        assertTrue(matcher.match(InetAddresses.forString("131.169.4.221")));
+    }
+
+    @Test
+    public void testFailedReverseRefreshKeepsName() throws Exception {
+        cache = new HostNameCache(resolver, 1, 10000, TimeUnit.MILLISECONDS, MoreExecutors.directExecutor());
+        InetAddressMatcher matcher = InetAddressMatcher.forPattern("*.dcache.org", cache);
+        assertTrue(matcher.match(InetAddresses.forString("131.169.4.221")));
+
+        when(resolver.getHostName(InetAddresses.forString("131.169.4.221")))
+                .thenReturn("131.169.4.221");
+        TimeUnit.MILLISECONDS.sleep(5);
+
+        assertTrue(matcher.match(InetAddresses.forString("131.169.4.221")));
+        assertTrue(matcher.match(InetAddresses.forString("131.169.4.221")));
+    }
+
+    @Test
+    public void testLookupDoesNotBlock() throws Exception {
+        Queue<Runnable> executor = new ArrayDeque<>();
+        cache = new HostNameCache(resolver, 1, 10, TimeUnit.MINUTES, executor::add);
+
+        // not resolved yet, unknown until background lookup completes
+        assertEquals(0, cache.getAllByName("www.dcache.org").length);
+        assertEquals("131.169.4.221", cache.getHostName(InetAddresses.forString("131.169.4.221")));
+        verify(resolver, never()).getAllByName("www.dcache.org");
+        verify(resolver, never()).getHostName(any(InetAddress.class));
+
+        executor.forEach(Runnable::run);
+        assertTrue(cache.resolvesTo("www.dcache.org", InetAddresses.forString("131.169.4.221")));
+        assertEquals("www.dcache.org", cache.getHostName(InetAddresses.forString("131.169.4.221")));
+    }
+
+    @Test
+    public void testFailedRefreshKeepsAddressesUntilExpired() throws Exception {
+        cache = new HostNameCache(resolver, 1, 200, TimeUnit.MILLISECONDS, MoreExecutors.directExecutor());
+        InetAddressMatcher matcher = InetAddressMatcher.forPattern("www.dcache.org", cache);
+        assertTrue(matcher.match(InetAddresses.forString("131.169.4.221")));
+
+        when(resolver.getAllByName("www.dcache.org"))
+                .thenThrow(new UnknownHostException("www.dcache.org"));
+        TimeUnit.MILLISECONDS.sleep(300);
+
+        // first access triggers refresh, which drops expired addresses
+        matcher.match(InetAddresses.forString("131.169.4.221"));
+        assertFalse(matcher.match(InetAddresses.forString("131.169.4.221")));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.dcache.nfs.v3.xdr.nfs3_prot;
+import org.dcache.nfs.v4.xdr.COMPOUND4args;
+import org.dcache.nfs.v4.xdr.COMPOUND4res;
+import org.dcache.nfs.v4.xdr.nfs4_prot;
+import org.dcache.nfs.v4.xdr.nfs_argop4;
+import org.dcache.nfs.v4.xdr.nfs_opnum4;
+import org.dcache.nfs.v4.xdr.utf8str_cs;
+import org.dcache.oncrpc4j.rpc.RpcCall;
+import org.dcache.oncrpc4j.rpc.RpcDispatchable;
+import org.dcache.oncrpc4j.xdr.XdrAble;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class RequestSchedulerTest {
+
+    private Map<RpcCall, String> clients;
+    private RpcDispatchable server;
+    private RequestScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        clients = new HashMap<>();
+        server = mock(RpcDispatchable.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testBusyClientDoesNotBlockOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch served = new CountDownLatch(1);
+
+        RpcCall blocking = givenCall("clientA");
+        RpcCall second = givenCall("clientA");
+        RpcCall other = givenCall("clientB");
+
+        doAnswer(i -> {
+            release.await();
+            return null;
+        }).when(server).dispatchOncRpcCall(blocking);
+        doAnswer(i -> {
+            served.countDown();
+            return null;
+        }).when(server).dispatchOncRpcCall(other);
+
+        scheduler = givenScheduler(1, 10);
+        scheduler.dispatchOncRpcCall(blocking);
+        scheduler.dispatchOncRpcCall(second);
+        scheduler.dispatchOncRpcCall(other);
+
+        assertTrue(served.await(5, TimeUnit.SECONDS));
+        verify(server, never()).dispatchOncRpcCall(second);
+
+        release.countDown();
+        verify(server, timeout(5000)).dispatchOncRpcCall(second);
+    }
+
+    @Test
+    public void testRejectWhenQueueFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+
+        RpcCall blocking = givenCall("clientA");
+        RpcCall queued = givenCall("clientA");
+        RpcCall rejected = givenCall("clientA");
+
+        doAnswer(i -> {
+            release.await();
+            return null;
+        }).when(server).dispatchOncRpcCall(blocking);
+
+        scheduler = givenScheduler(1, 1);
+        scheduler.dispatchOncRpcCall(blocking);
+        verify(server, timeout(5000)).dispatchOncRpcCall(blocking);
+
+        scheduler.dispatchOncRpcCall(queued);
+        scheduler.dispatchOncRpcCall(rejected);
+
+        verify(rejected).reply(any(XdrAble.class));
+        verify(server, never()).dispatchOncRpcCall(rejected);
+        assertEquals(1, scheduler.getRejectedRequests());
+        assertEquals(1, scheduler.getQueuedRequests());
+
+        release.countDown();
+        verify(server, timeout(5000)).dispatchOncRpcCall(queued);
+    }
+
+    @Test
+    public void testRejectedCompoundFailsFirstOperation() throws Exception {
+        RpcCall rejected = givenCall("clientA");
+        when(rejected.getProgramVersion()).thenReturn(nfs4_prot.NFS_V4);
+        doAnswer(i -> {
+            COMPOUND4args args = (COMPOUND4args) i.getArguments()[0];
+            args.tag = new utf8str_cs("");
+            args.argarray = new nfs_argop4[]{new nfs_argop4(), new nfs_argop4()};
+            args.argarray[0].argop = nfs_opnum4.OP_SEQUENCE;
+            args.argarray[1].argop = nfs_opnum4.OP_GETATTR;
+            return null;
+        }).when(rejected).retrieveCall(any(XdrAble.class));
+
+        scheduler = givenScheduler(1, 0);
+        scheduler.dispatchOncRpcCall(rejected);
+
+        ArgumentCaptor<XdrAble> reply = ArgumentCaptor.forClass(XdrAble.class);
+        verify(rejected).reply(reply.capture());
+        COMPOUND4res res = (COMPOUND4res) reply.getValue();
+        assertEquals(nfsstat.NFSERR_DELAY, res.status);
+        assertEquals(1, res.resarray.size());
+        assertEquals(nfs_opnum4.OP_SEQUENCE, res.resarray.get(0).resop);
+        assertEquals(nfsstat.NFSERR_DELAY, res.resarray.get(0).getStatus());
+        verify(server, never()).dispatchOncRpcCall(rejected);
+    }
+
+    @Test
+    public void testNullProcedureNotQueued() throws Exception {
+        RpcCall ping = givenCall("clientA");
+        when(ping.getProcedure()).thenReturn(0);
+
+        scheduler = givenScheduler(1, 0);
+        scheduler.dispatchOncRpcCall(ping);
+
+        verify(server).dispatchOncRpcCall(ping);
+        assertEquals(0, scheduler.getRejectedRequests());
+    }
+
+    private RequestScheduler givenScheduler(int maxConcurrent, int maxQueueDepth) {
+        return new RequestScheduler.Builder()
+                .withDispatcher(server)
+                .withClassifier(clients::get)
+                .withThreads(2)
+                .withMaxConcurrent(maxConcurrent)
+                .withMaxQueueDepth(maxQueueDepth)
+                .build();
+    }
+
+    private RpcCall givenCall(String client) {
+        RpcCall call = mock(RpcCall.class);
+        when(call.getProgram()).thenReturn(nfs3_prot.NFS_PROGRAM);
+        when(call.getProgramVersion()).thenReturn(nfs3_prot.NFS_V3);
+        when(call.getProcedure()).thenReturn(nfs3_prot.NFSPROC3_GETATTR_3);
+        clients.put(call, client);
+        return call;
+    }
+}
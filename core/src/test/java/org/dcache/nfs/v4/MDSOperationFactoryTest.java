@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.v4;
+
+import org.dcache.nfs.v4.client.CompoundBuilder;
+import org.dcache.nfs.v4.ds.DSOperationFactory;
+import org.dcache.nfs.v4.xdr.nfs4_prot;
+import org.dcache.nfs.v4.xdr.nfs_argop4;
+import org.dcache.nfs.v4.xdr.nfs_opnum4;
+import org.dcache.nfs.v4.xdr.nfs_resop4;
+import org.dcache.nfs.v4.xdr.sessionid4;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.dcache.nfs.v4.NfsTestUtils.generateFileHandle;
+import static org.dcache.nfs.v4.NfsTestUtils.generateRpcCall;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MDSOperationFactoryTest {
+
+    private MDSOperationFactory factory;
+    private CompoundContext context;
+
+    @Before
+    public void setUp() {
+        factory = spy(new MDSOperationFactory());
+        context = new CompoundContextBuilder()
+                .withCall(generateRpcCall())
+                .build();
+    }
+
+    @Test
+    public void testStatelessOperationNotCreated() {
+        nfs_argop4 op = new CompoundBuilder()
+                .withPutfh(generateFileHandle())
+                .build().argarray[0];
+
+        assertTrue(factory.process(context, op, nfs_resop4.resopFor(op.argop))
+                .toCompletableFuture().isDone());
+        verify(factory, never()).getOperation(any(nfs_argop4.class));
+    }
+
+    @Test
+    public void testOperationCreatedIfNoHandler() {
+        nfs_argop4 op = new CompoundBuilder()
+                .withLookup("foo")
+                .build().argarray[0];
+
+        factory.process(context, op, nfs_resop4.resopFor(op.argop));
+        verify(factory).getOperation(op);
+    }
+
+    @Test
+    public void testNoOperationsCreatedForSequencePutfhGetattr() {
+        assertNoOperationsCreated(factory);
+    }
+
+    @Test
+    public void testDsNoOperationsCreatedForSequencePutfhGetattr() {
+        assertNoOperationsCreated(spy(new DSOperationFactory(null)));
+    }
+
+    @Test
+    public void testOverriddenOperationIsUsed() {
+        AbstractNFSv4Operation getattr = mock(AbstractNFSv4Operation.class);
+        MDSOperationFactory custom = new MDSOperationFactory() {
+            @Override
+            public AbstractNFSv4Operation getOperation(nfs_argop4 op) {
+                return op.argop == nfs_opnum4.OP_GETATTR ? getattr : super.getOperation(op);
+            }
+        };
+
+        nfs_argop4 op = new CompoundBuilder()
+                .withGetattr(nfs4_prot.FATTR4_SIZE)
+                .build().argarray[0];
+        nfs_resop4 result = nfs_resop4.resopFor(op.argop);
+
+        custom.process(context, op, result);
+        verify(getattr).processAsync(context, result);
+    }
+
+    private void assertNoOperationsCreated(NFSv4OperationFactory factory) {
+        nfs_argop4[] ops = new CompoundBuilder()
+                .withSequence(false, new sessionid4(new byte[16]), 1, 0, 0)
+                .withPutfh(generateFileHandle())
+                .withGetattr(nfs4_prot.FATTR4_SIZE)
+                .build().argarray;
+
+        for (nfs_argop4 op : ops) {
+            // without a session operations fail, but must not be created
+            factory.process(context, op, nfs_resop4.resopFor(op.argop));
+        }
+        verify(factory, never()).getOperation(any(nfs_argop4.class));
+    }
+}
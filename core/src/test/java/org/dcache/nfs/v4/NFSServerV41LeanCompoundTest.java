@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.v4;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import java.lang.management.ManagementFactory;
+import org.dcache.nfs.v4.client.CompoundBuilder;
+import org.dcache.nfs.v4.xdr.COMPOUND4args;
+import org.dcache.nfs.vfs.VirtualFileSystem;
+import org.dcache.oncrpc4j.rpc.RpcCall;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import static org.dcache.nfs.v4.NfsTestUtils.generateRpcCall;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import static org.mockito.Mockito.mock;
+
+public class NFSServerV41LeanCompoundTest {
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 2000;
+
+    private com.sun.management.ThreadMXBean threadMXBean;
+    private Logger logger;
+    private Level level;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        // lean mode is effective only if debug logging is off
+        logger = (Logger) LoggerFactory.getLogger(NFSServerV41.class);
+        level = logger.getLevel();
+        logger.setLevel(Level.INFO);
+    }
+
+    @After
+    public void tearDown() {
+        if (logger != null) {
+            logger.setLevel(level);
+        }
+    }
+
+    @Test
+    public void testLeanCompoundAllocatesLess() {
+
+        NFSServerV41 server = newServer(false);
+        NFSServerV41 leanServer = newServer(true);
+
+        RpcCall call = generateRpcCall();
+        COMPOUND4args args = new CompoundBuilder()
+                .withMinorversion(0)
+                .withTag("lean compound")
+                .build();
+
+        run(server, call, args, WARMUP);
+        run(leanServer, call, args, WARMUP);
+
+        long allocated = allocatedBytes(server, call, args);
+        long leanAllocated = allocatedBytes(leanServer, call, args);
+
+        assertTrue("lean compound allocated " + leanAllocated
+                + " bytes, regular compound " + allocated,
+                leanAllocated < allocated);
+    }
+
+    private static NFSServerV41 newServer(boolean lean) {
+        NFSServerV41.Builder builder = new NFSServerV41.Builder()
+                .withVfs(mock(VirtualFileSystem.class))
+                .withOperationFactory(new MDSOperationFactory());
+        if (lean) {
+            builder.withLeanCompound();
+        }
+        return builder.build();
+    }
+
+    private long allocatedBytes(NFSServerV41 server, RpcCall call, COMPOUND4args args) {
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        run(server, call, args, ITERATIONS);
+        return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private static void run(NFSServerV41 server, RpcCall call, COMPOUND4args args, int count) {
+        for (int i = 0; i < count; i++) {
+            server.NFSPROC4_COMPOUND_4(call, args);
+        }
+    }
+}
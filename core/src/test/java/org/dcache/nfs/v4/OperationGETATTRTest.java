@@ -5,18 +5,33 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import org.dcache.nfs.ExportFile;
+import org.dcache.nfs.nfsstat;
+import org.dcache.nfs.v4.client.CompoundBuilder;
 import org.dcache.nfs.v4.xdr.fattr4_fs_layout_types;
 import org.dcache.nfs.v4.xdr.layouttype4;
 import org.dcache.nfs.v4.xdr.nfs4_prot;
+import org.dcache.nfs.v4.xdr.nfs_argop4;
+import org.dcache.nfs.v4.xdr.nfs_resop4;
+import org.dcache.nfs.vfs.AsyncVirtualFileSystem;
+import org.dcache.nfs.vfs.FsStat;
+import org.dcache.nfs.vfs.Inode;
+import org.dcache.nfs.vfs.Stat;
+import org.dcache.nfs.vfs.VirtualFileSystem;
 import org.dcache.oncrpc4j.rpc.RpcAuthTypeNone;
 import org.dcache.oncrpc4j.rpc.RpcCall;
 import org.dcache.oncrpc4j.rpc.RpcTransport;
 
 import org.junit.Test;
 
+import static org.dcache.nfs.v4.NfsTestUtils.generateRpcCall;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 import static org.mockito.BDDMockito.given;
 
@@ -52,4 +67,38 @@ public class OperationGETATTRTest {
 
     }
 
+    @Test
+    public void testAsyncGetattrFetchesFsStatAsynchronously() throws Exception {
+
+        Inode inode = Inode.forFile(new byte[]{1, 2, 3, 4});
+        Stat stat = new Stat();
+        stat.setMode(Stat.S_IFREG | 0644);
+
+        VirtualFileSystem vfs = mock(VirtualFileSystem.class);
+        AsyncVirtualFileSystem asyncVfs = mock(AsyncVirtualFileSystem.class);
+        CompletableFuture<FsStat> fsStat = new CompletableFuture<>();
+        given(asyncVfs.getattr(inode)).willReturn(CompletableFuture.completedFuture(stat));
+        given(asyncVfs.getFsStat()).willReturn(fsStat);
+
+        CompoundContext context = new CompoundContextBuilder()
+                .withFs(vfs)
+                .withAsyncFs(asyncVfs)
+                .withCall(generateRpcCall())
+                .build();
+        context.currentInode(inode);
+
+        nfs_argop4 op = new CompoundBuilder()
+                .withGetattr(nfs4_prot.FATTR4_SPACE_TOTAL)
+                .build().argarray[0];
+        nfs_resop4 result = nfs_resop4.resopFor(op.argop);
+
+        CompletableFuture<Void> stage = OperationGETATTR.processAsync(context, op, result).toCompletableFuture();
+        assertFalse(stage.isDone());
+
+        fsStat.complete(new FsStat(1024, 10, 512, 5));
+        stage.join();
+
+        assertEquals(nfsstat.NFS_OK, result.opgetattr.status);
+        verify(vfs, never()).getFsStat();
+    }
 }
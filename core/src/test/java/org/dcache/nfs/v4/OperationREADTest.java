@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.v4;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.dcache.nfs.nfsstat;
+import org.dcache.nfs.v4.client.CompoundBuilder;
+import org.dcache.nfs.v4.xdr.nfs_argop4;
+import org.dcache.nfs.v4.xdr.nfs_opnum4;
+import org.dcache.nfs.v4.xdr.nfs_resop4;
+import org.dcache.nfs.v4.xdr.stateid4;
+import org.dcache.nfs.vfs.AsyncVirtualFileSystem;
+import org.dcache.nfs.vfs.FileHandle;
+import org.dcache.nfs.vfs.Inode;
+import org.dcache.nfs.vfs.Stat;
+import org.dcache.nfs.vfs.VirtualFileSystem;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.dcache.nfs.v4.NfsTestUtils.generateRpcCall;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class OperationREADTest {
+
+    private Inode inode;
+    private Stat stat;
+    private VirtualFileSystem vfs;
+    private AsyncVirtualFileSystem asyncVfs;
+    private CompoundContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        inode = new Inode(new FileHandle(0, 1, 0, new byte[]{0, 0, 0, 1}));
+        stat = new Stat();
+        stat.setMode(Stat.S_IFREG | 0644);
+        stat.setSize(5);
+
+        vfs = mock(VirtualFileSystem.class);
+        asyncVfs = mock(AsyncVirtualFileSystem.class);
+
+        context = new CompoundContextBuilder()
+                .withMinorversion(1)
+                .withFs(vfs)
+                .withAsyncFs(asyncVfs)
+                .withCall(generateRpcCall())
+                .build();
+        context.currentInode(inode);
+    }
+
+    @Test
+    public void testAsyncReadCompletesWithBackend() throws Exception {
+
+        CompletableFuture<Integer> pendingRead = new CompletableFuture<>();
+        when(asyncVfs.getattr(inode)).thenReturn(CompletableFuture.completedFuture(stat));
+        when(asyncVfs.read(eq(inode), any(ByteBuffer.class), eq(0L))).thenAnswer(invocation -> {
+            ByteBuffer data = (ByteBuffer) invocation.getArguments()[1];
+            data.put("hello".getBytes());
+            return pendingRead;
+        });
+
+        nfs_argop4 op = new CompoundBuilder()
+                .withRead(1024, 0, new stateid4(new byte[12], 0))
+                .build().argarray[0];
+
+        nfs_resop4 result = nfs_resop4.resopFor(nfs_opnum4.OP_READ);
+        CompletionStage<Void> stage = new OperationREAD(op).processAsync(context, result);
+
+        assertFalse("operation completed before back-end", stage.toCompletableFuture().isDone());
+
+        pendingRead.complete(5);
+
+        assertTrue(stage.toCompletableFuture().isDone());
+        assertEquals(nfsstat.NFS_OK, result.opread.status);
+        assertEquals(5, result.opread.resok4.data.remaining());
+        assertTrue(result.opread.resok4.eof);
+        verify(vfs, never()).read(any(Inode.class), any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void testAsyncReadOfDirectory() throws Exception {
+
+        stat.setMode(Stat.S_IFDIR | 0755);
+        when(asyncVfs.getattr(inode)).thenReturn(CompletableFuture.completedFuture(stat));
+
+        nfs_argop4 op = new CompoundBuilder()
+                .withRead(1024, 0, new stateid4(new byte[12], 0))
+                .build().argarray[0];
+
+        nfs_resop4 result = nfs_resop4.resopFor(nfs_opnum4.OP_READ);
+        CompletableFuture<Void> stage = new OperationREAD(op).processAsync(context, result).toCompletableFuture();
+
+        assertTrue(stage.isCompletedExceptionally());
+        verify(asyncVfs, never()).read(any(Inode.class), any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void testSyncFallback() throws Exception {
+
+        context = new CompoundContextBuilder()
+                .withMinorversion(1)
+                .withFs(vfs)
+                .withCall(generateRpcCall())
+                .build();
+        context.currentInode(inode);
+
+        when(vfs.getattr(inode)).thenReturn(stat);
+        when(vfs.read(eq(inode), any(ByteBuffer.class), eq(0L))).thenReturn(0);
+
+        nfs_argop4 op = new CompoundBuilder()
+                .withRead(1024, 0, new stateid4(new byte[12], 0))
+                .build().argarray[0];
+
+        nfs_resop4 result = nfs_resop4.resopFor(nfs_opnum4.OP_READ);
+        CompletableFuture<Void> stage = new OperationREAD(op).processAsync(context, result).toCompletableFuture();
+
+        assertTrue(stage.isDone());
+        assertEquals(nfsstat.NFS_OK, result.opread.status);
+        assertEquals(Optional.empty(), context.getAsyncFs());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.v4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.dcache.nfs.nfsstat;
+import org.dcache.nfs.status.SeqMisorderedException;
+import org.dcache.nfs.v4.xdr.READ4resok;
+import org.dcache.nfs.v4.xdr.nfs_opnum4;
+import org.dcache.nfs.v4.xdr.nfs_resop4;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReplyCacheTest {
+
+    @Test
+    public void testReplayStoredReply() throws IOException {
+        ReplyCache cache = new ReplyCache();
+        List<nfs_resop4> reply = readReply("hello");
+
+        byte[] encoded = cache.store(reply);
+        assertNotNull(encoded);
+        assertEquals(encoded.length, cache.getUsedBytes());
+
+        List<nfs_resop4> replayed = cache.replay(encoded);
+        assertEquals(2, replayed.size());
+        assertEquals(nfs_opnum4.OP_PUTFH, replayed.get(0).resop);
+        assertEquals(nfsstat.NFS_OK, replayed.get(1).getStatus());
+
+        ByteBuffer data = replayed.get(1).opread.resok4.data;
+        byte[] b = new byte[data.remaining()];
+        data.get(b);
+        assertEquals("hello", new String(b, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testStoreKeepsReadData() {
+        ReplyCache cache = new ReplyCache();
+        List<nfs_resop4> reply = readReply("hello");
+
+        cache.store(reply);
+        assertEquals(5, reply.get(1).opread.resok4.data.remaining());
+    }
+
+    @Test
+    public void testReplyAboveBudget() {
+        ReplyCache cache = new ReplyCache(4);
+
+        assertNull(cache.store(readReply("hello")));
+        assertEquals(0, cache.getUsedBytes());
+        assertEquals(1, cache.getUncachedReplies());
+    }
+
+    @Test
+    public void testReleaseOnNextRequest() throws SeqMisorderedException {
+        ReplyCache cache = new ReplyCache();
+        SessionSlot slot = new SessionSlot();
+
+        slot.acquire(1);
+        slot.update(readReply("hello"), cache);
+        assertEquals(1, cache.getEntries());
+
+        slot.acquire(2);
+        assertEquals(0, cache.getEntries());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testRetransmitOfCachedReply() throws SeqMisorderedException {
+        ReplyCache cache = new ReplyCache();
+        SessionSlot slot = new SessionSlot();
+
+        slot.acquire(1);
+        slot.update(readReply("hello"), cache);
+
+        assertEquals(2, slot.acquire(1).size());
+    }
+
+    @Test
+    public void testRetransmitOfUncachedReply() throws SeqMisorderedException {
+        ReplyCache cache = new ReplyCache(0);
+        SessionSlot slot = new SessionSlot();
+
+        slot.acquire(1);
+        slot.update(readReply("hello"), cache);
+
+        assertTrue(slot.acquire(1).isEmpty());
+    }
+
+    private static List<nfs_resop4> readReply(String data) {
+        nfs_resop4 putfh = nfs_resop4.resopFor(nfs_opnum4.OP_PUTFH);
+        putfh.setStatus(nfsstat.NFS_OK);
+
+        nfs_resop4 read = nfs_resop4.resopFor(nfs_opnum4.OP_READ);
+        read.setStatus(nfsstat.NFS_OK);
+        read.opread.resok4 = new READ4resok();
+        read.opread.resok4.eof = true;
+        read.opread.resok4.data = ByteBuffer.wrap(data.getBytes(StandardCharsets.US_ASCII));
+
+        return Arrays.asList(putfh, read);
+    }
+}
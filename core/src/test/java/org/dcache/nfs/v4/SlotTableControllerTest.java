@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.v4;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import org.dcache.nfs.ChimeraNFSException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.dcache.nfs.v4.NfsTestUtils.createClient;
+import static org.junit.Assert.*;
+
+public class SlotTableControllerTest {
+
+    private NFS4Client _client;
+    private NFSv41Session _session;
+
+    @Before
+    public void setUp() throws UnknownHostException, ChimeraNFSException {
+        _client = createClient();
+        _session = _client.createSession(1, 64, 1, 8, 8);
+    }
+
+    @Test
+    public void testInitialTarget() {
+        new SlotTableController().sessionCreated(_session);
+        assertEquals(NFSv4Defaults.NFS4_MAX_SESSION_SLOTS - 1, _session.getTargetHighestSlot());
+    }
+
+    @Test
+    public void testGrowWhenAllSlotsUsed() {
+        SlotTableController controller = new SlotTableController();
+        controller.sessionCreated(_session);
+
+        int target = _session.getTargetHighestSlot();
+        assertEquals(target + 1, controller.targetHighestSlot(_session, target));
+    }
+
+    @Test
+    public void testKeepWhenNotAllSlotsUsed() {
+        SlotTableController controller = new SlotTableController();
+        controller.sessionCreated(_session);
+
+        int target = _session.getTargetHighestSlot();
+        assertEquals(target, controller.targetHighestSlot(_session, target - 1));
+    }
+
+    @Test
+    public void testNotGrowAboveHighestSlot() {
+        SlotTableController controller = new SlotTableController();
+        controller.sessionCreated(_session);
+
+        for (int i = 0; i < 2 * _session.getHighestSlot(); i++) {
+            controller.targetHighestSlot(_session, _session.getHighestSlot());
+        }
+        assertEquals(_session.getHighestSlot(), _session.getTargetHighestSlot());
+    }
+
+    @Test
+    public void testShrinkOnOverload() {
+        SlotTableController controller = new SlotTableController(64, 0, 1, 0, TimeUnit.HOURS);
+        controller.sessionCreated(_session);
+        controller.requestStarted();
+
+        int target = _session.getTargetHighestSlot();
+        assertEquals(target / 2, controller.targetHighestSlot(_session, target));
+    }
+
+    @Test
+    public void testShrinkRateLimited() {
+        SlotTableController controller = new SlotTableController(64, 0, 1, 1, TimeUnit.HOURS);
+        controller.sessionCreated(_session);
+        controller.requestStarted();
+
+        int target = _session.getTargetHighestSlot();
+        assertEquals(target, controller.targetHighestSlot(_session, target));
+    }
+
+    @Test
+    public void testNotOverloadedAfterCompletion() {
+        SlotTableController controller = new SlotTableController(64, 0, 1, 0, TimeUnit.HOURS);
+        controller.requestStarted();
+        assertTrue(controller.isOverloaded());
+        controller.requestCompleted(TimeUnit.MILLISECONDS.toNanos(1));
+        assertFalse(controller.isOverloaded());
+    }
+}
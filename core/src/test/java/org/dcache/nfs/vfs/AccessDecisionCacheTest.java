@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import javax.security.auth.Subject;
+import org.dcache.auth.Subjects;
+import org.dcache.nfs.FsExport;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.dcache.nfs.v4.xdr.nfs4_prot.ACE4_READ_DATA;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class AccessDecisionCacheTest {
+
+    private AccessDecisionCache cache;
+    private Subject subject;
+    private FsExport export;
+    private Inode inode;
+
+    @Before
+    public void setUp() {
+        cache = new AccessDecisionCache();
+        subject = Subjects.of(1, 1);
+        export = mock(FsExport.class);
+        inode = Inode.forFile(new byte[]{1, 2, 3, 4});
+    }
+
+    @Test
+    public void testDecisionCached() {
+        long version = cache.version(inode);
+        cache.put(subject, export, inode, ACE4_READ_DATA, true, version);
+        assertEquals(Boolean.TRUE, cache.get(subject, export, inode, ACE4_READ_DATA));
+    }
+
+    @Test
+    public void testDecisionDroppedOnInvalidate() {
+        cache.put(subject, export, inode, ACE4_READ_DATA, true, cache.version(inode));
+        cache.invalidate(inode);
+        assertNull(cache.get(subject, export, inode, ACE4_READ_DATA));
+    }
+
+    @Test
+    public void testDecisionStartedBeforeInvalidateNotCached() {
+        long version = cache.version(inode);
+
+        // attributes are modified while the check is in progress
+        cache.invalidate(inode);
+        cache.version(inode);
+
+        cache.put(subject, export, inode, ACE4_READ_DATA, true, version);
+        assertNull(cache.get(subject, export, inode, ACE4_READ_DATA));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.dcache.nfs.status.NoEntException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class DirectoryEntriesTest {
+
+    private VirtualFileSystem vfs;
+    private Inode inode1;
+    private Inode inode2;
+    private Inode inode3;
+    private Stat stat;
+
+    @Before
+    public void setUp() {
+        vfs = mock(VirtualFileSystem.class);
+        inode1 = Inode.forFile(new byte[]{1});
+        inode2 = Inode.forFile(new byte[]{2});
+        inode3 = Inode.forFile(new byte[]{3});
+        stat = new Stat();
+    }
+
+    @Test
+    public void testNoRequestIfStatsPresent() throws IOException {
+
+        Iterator<DirectoryEntry> entries = Arrays.asList(
+                new DirectoryEntry("a", inode1, stat, 1),
+                new DirectoryEntry("b", inode2, stat, 2)
+        ).iterator();
+
+        List<DirectoryEntry> batch = DirectoryEntries.nextWithStat(vfs, entries, 10);
+
+        assertEquals(2, batch.size());
+        verify(vfs, never()).getattr(any(Collection.class));
+        verify(vfs, never()).getattr(any(Inode.class));
+    }
+
+    @Test
+    public void testMissingStatsFetchedInBulk() throws IOException {
+
+        Stat stat2 = new Stat();
+        Stat stat3 = new Stat();
+        doAnswer(invocation -> {
+            Collection<Inode> inodes = (Collection<Inode>) invocation.getArguments()[0];
+            assertEquals(Arrays.asList(inode2, inode3), inodes);
+            Map<Inode, Stat> stats = new HashMap<>();
+            stats.put(inode2, stat2);
+            stats.put(inode3, stat3);
+            return stats;
+        }).when(vfs).getattr(any(Collection.class));
+
+        Iterator<DirectoryEntry> entries = Arrays.asList(
+                new DirectoryEntry("a", inode1, stat, 1),
+                new DirectoryEntry("b", inode2, null, 2),
+                new DirectoryEntry("c", inode3, null, 3)
+        ).iterator();
+
+        List<DirectoryEntry> batch = DirectoryEntries.nextWithStat(vfs, entries, 10);
+
+        assertEquals(3, batch.size());
+        assertSame(stat, batch.get(0).getStat());
+        assertSame(stat2, batch.get(1).getStat());
+        assertSame(stat3, batch.get(2).getStat());
+        assertEquals(3, batch.get(2).getCookie());
+        verify(vfs).getattr(any(Collection.class));
+        verify(vfs, never()).getattr(any(Inode.class));
+    }
+
+    @Test
+    public void testBatchSizeLimited() throws IOException {
+
+        when(vfs.getattr(any(Collection.class))).thenReturn(Collections.emptyMap());
+        when(vfs.getattr(any(Inode.class))).thenReturn(stat);
+
+        Iterator<DirectoryEntry> entries = Arrays.asList(
+                new DirectoryEntry("a", inode1, null, 1),
+                new DirectoryEntry("b", inode2, null, 2),
+                new DirectoryEntry("c", inode3, null, 3)
+        ).iterator();
+
+        List<DirectoryEntry> batch = DirectoryEntries.nextWithStat(vfs, entries, 2);
+
+        assertEquals(2, batch.size());
+        assertTrue(entries.hasNext());
+        // fall back to single getattr if bulk request did not return attributes
+        verify(vfs, times(2)).getattr(any(Inode.class));
+    }
+
+    @Test
+    public void testRemovedEntrySkipped() throws IOException {
+
+        when(vfs.getattr(any(Collection.class))).thenReturn(Collections.singletonMap(inode3, stat));
+        when(vfs.getattr(inode2)).thenThrow(new NoEntException());
+
+        Iterator<DirectoryEntry> entries = Arrays.asList(
+                new DirectoryEntry("a", inode1, stat, 1),
+                new DirectoryEntry("b", inode2, null, 2),
+                new DirectoryEntry("c", inode3, null, 3)
+        ).iterator();
+
+        List<DirectoryEntry> batch = DirectoryEntries.nextWithStat(vfs, entries, 10);
+
+        assertEquals(2, batch.size());
+        assertEquals("a", batch.get(0).getName());
+        assertEquals("c", batch.get(1).getName());
+        assertEquals(3, batch.get(1).getCookie());
+    }
+
+    @Test
+    public void testListingContinuesIfBatchRemoved() throws IOException {
+
+        when(vfs.getattr(any(Collection.class))).thenReturn(Collections.emptyMap());
+        when(vfs.getattr(inode1)).thenThrow(new NoEntException());
+        when(vfs.getattr(inode2)).thenReturn(stat);
+
+        Iterator<DirectoryEntry> entries = Arrays.asList(
+                new DirectoryEntry("a", inode1, null, 1),
+                new DirectoryEntry("b", inode2, null, 2)
+        ).iterator();
+
+        // empty batch would be taken as end of listing
+        List<DirectoryEntry> batch = DirectoryEntries.nextWithStat(vfs, entries, 1);
+
+        assertEquals(1, batch.size());
+        assertEquals("b", batch.get(0).getName());
+    }
+
+    @Test
+    public void testFirstBatchIsSmall() {
+        assertTrue(DirectoryEntries.batchSize(1024 * 1024, 0, 0, 128) < 128);
+    }
+
+    @Test
+    public void testBatchSizeFollowsRemainingSpace() {
+        // 10 entries of 100 bytes encoded, space for 3 more
+        assertEquals(4, DirectoryEntries.batchSize(300, 1000, 10, 128));
+        assertEquals(128, DirectoryEntries.batchSize(1024 * 1024, 1000, 10, 128));
+        assertEquals(1, DirectoryEntries.batchSize(-20, 1000, 10, 128));
+    }
+}
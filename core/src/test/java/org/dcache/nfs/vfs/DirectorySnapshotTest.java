@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DirectorySnapshotTest {
+
+    private List<DirectoryEntry> entries;
+    private DirectoryStream stream;
+
+    @Before
+    public void setUp() {
+        entries = new ArrayList<>();
+        for (int i = 3; i < 1000; i += 2) {
+            Stat stat = null;
+            if (i % 3 != 0) {
+                stat = new Stat();
+                stat.setMode(Stat.S_IFREG | 0644);
+                stat.setSize(i * 10L);
+                stat.setUid(i);
+            }
+            entries.add(new DirectoryEntry("file-\u00e4" + i, Inode.forFile(new byte[]{(byte) i, (byte) (i >> 8)}), stat, i));
+        }
+        stream = new DirectoryStream(DirectoryStream.ZERO_VERIFIER, new DirectorySnapshot(entries));
+    }
+
+    @Test
+    public void testAllEntriesPreserved() {
+
+        Iterator<DirectoryEntry> expected = entries.iterator();
+        for (DirectoryEntry entry : stream) {
+            DirectoryEntry original = expected.next();
+            assertEquals(original.getName(), entry.getName());
+            assertEquals(original.getInode(), entry.getInode());
+            assertEquals(original.getCookie(), entry.getCookie());
+
+            if (original.getStat() == null) {
+                assertNull(entry.getStat());
+            } else {
+                assertEquals(original.getStat().getSize(), entry.getStat().getSize());
+                assertEquals(original.getStat().getMode(), entry.getStat().getMode());
+                assertEquals(original.getStat().getUid(), entry.getStat().getUid());
+                assertFalse(entry.getStat().isDefined(Stat.StatAttribute.GROUP));
+            }
+        }
+        assertFalse(expected.hasNext());
+    }
+
+    @Test
+    public void testTailByExistingCookie() {
+        assertEquals(503, stream.tail(501).iterator().next().getCookie());
+    }
+
+    @Test
+    public void testTailByMissingCookie() {
+        assertEquals(501, stream.tail(500).iterator().next().getCookie());
+    }
+
+    @Test
+    public void testTailAfterLastEntry() {
+        assertFalse(stream.tail(999).iterator().hasNext());
+    }
+}
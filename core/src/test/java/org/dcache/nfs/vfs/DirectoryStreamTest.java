@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DirectoryStreamTest {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int DIR_SIZE = 35;
+
+    private AtomicInteger pagesLoaded;
+    private DirectoryStream.PageLoader loader;
+
+    @Before
+    public void setUp() {
+        pagesLoaded = new AtomicInteger();
+        loader = cookie -> {
+            pagesLoaded.incrementAndGet();
+            List<DirectoryEntry> page = new ArrayList<>();
+            for (long c = cookie + 1; c <= DIR_SIZE && page.size() < PAGE_SIZE; c++) {
+                page.add(new DirectoryEntry("file" + c, Inode.forFile(new byte[]{(byte) c}), null, c));
+            }
+            return page;
+        };
+    }
+
+    @Test
+    public void testNothingLoadedUntilIterated() {
+        DirectoryStream stream = new DirectoryStream(DirectoryStream.ZERO_VERIFIER, loader);
+        assertTrue(stream.isLazy());
+        assertEquals(0, pagesLoaded.get());
+    }
+
+    @Test
+    public void testPagesLoadedOnDemand() {
+        DirectoryStream stream = new DirectoryStream(DirectoryStream.ZERO_VERIFIER, loader);
+
+        Iterator<DirectoryEntry> i = stream.iterator();
+        for (int n = 0; n < PAGE_SIZE; n++) {
+            assertEquals(n + 1, i.next().getCookie());
+        }
+        assertEquals(1, pagesLoaded.get());
+
+        int count = PAGE_SIZE;
+        while (i.hasNext()) {
+            i.next();
+            count++;
+        }
+        assertEquals(DIR_SIZE, count);
+        // the last load returns an empty page
+        assertEquals(DIR_SIZE / PAGE_SIZE + 2, pagesLoaded.get());
+    }
+
+    @Test
+    public void testTail() {
+        DirectoryStream stream = new DirectoryStream(DirectoryStream.ZERO_VERIFIER, loader).tail(30);
+        assertEquals(31, stream.iterator().next().getCookie());
+        assertEquals(5, stream.getEntries().size());
+    }
+
+    @Test
+    public void testTransformKeepsLazy() {
+        DirectoryStream stream = new DirectoryStream(DirectoryStream.ZERO_VERIFIER, loader)
+                .transform(e -> new DirectoryEntry(e.getName().toUpperCase(), e.getInode(), e.getStat(), e.getCookie()));
+
+        assertTrue(stream.isLazy());
+        assertEquals(0, pagesLoaded.get());
+        assertEquals("FILE1", stream.iterator().next().getName());
+    }
+
+    @Test
+    public void testTransformEager() {
+        DirectoryEntry entry = new DirectoryEntry("a", Inode.forFile(new byte[]{1}), null, 1);
+        DirectoryStream stream = new DirectoryStream(Collections.singletonList(entry))
+                .transform(e -> new DirectoryEntry("b", e.getInode(), e.getStat(), e.getCookie()));
+
+        assertFalse(stream.isLazy());
+        assertEquals("b", stream.getEntries().first().getName());
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testLoadError() {
+        DirectoryStream stream = new DirectoryStream(DirectoryStream.ZERO_VERIFIER, cookie -> {
+            throw new IOException();
+        });
+        stream.iterator().hasNext();
+    }
+}
@@ -103,4 +103,29 @@ public class FileHandleTest {
         assertEquals(1, fh.getType());
         assertEquals(oldIdReg, new String(opaque, ACSII));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEqualHandlesFromBuilderAndWire() {
+
+        FileHandle fh = new FileHandle.FileHandleBuilder()
+                .setExportIdx("/export/data".hashCode())
+                .build("0:INODE:0000C37233174392456EB83E44844E8D28D6:0".getBytes(ACSII));
+        FileHandle decoded = new FileHandle(fh.bytes());
+
+        assertEquals(fh, decoded);
+        assertEquals(fh.hashCode(), decoded.hashCode());
+        assertEquals(new Inode(fh), new Inode(decoded));
+        assertEquals(new Inode(fh).hashCode(), new Inode(decoded).hashCode());
+    }
+
+    @Test
+    public void testDifferentExportsNotEqual() {
+
+        byte[] opaque = "0:INODE:0000C37233174392456EB83E44844E8D28D6:0".getBytes(ACSII);
+        FileHandle fh1 = new FileHandle.FileHandleBuilder().setExportIdx(1).build(opaque);
+        FileHandle fh2 = new FileHandle.FileHandleBuilder().setExportIdx(2).build(opaque);
+
+        assertNotEquals(fh1, fh2);
+        assertNotEquals(new Inode(fh1), new Inode(fh2));
+    }
+}
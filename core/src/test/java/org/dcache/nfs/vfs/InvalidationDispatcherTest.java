@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InvalidationDispatcherTest {
+
+    private InvalidationDispatcher dispatcher;
+    private List<Collection<InvalidationEvent>> batches;
+
+    @Before
+    public void setUp() {
+        batches = new ArrayList<>();
+        dispatcher = new InvalidationDispatcher(1, TimeUnit.HOURS, 100);
+        dispatcher.addListener(events -> batches.add(new ArrayList<>(events)));
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.close();
+    }
+
+    @Test
+    public void testDuplicatesDeliveredOnce() {
+        Inode dir = Inode.forFile(new byte[]{1});
+
+        dispatcher.publish(InvalidationEvent.forEntry(dir, "foo"));
+        dispatcher.publish(InvalidationEvent.forEntry(dir, "foo"));
+        dispatcher.publish(InvalidationEvent.forInode(dir));
+        dispatcher.flush();
+
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+    }
+
+    @Test
+    public void testNothingDeliveredWithoutEvents() {
+        dispatcher.flush();
+        assertTrue(batches.isEmpty());
+    }
+
+    @Test
+    public void testEventsKeepIdentity() {
+        Inode dir = Inode.forFile(new byte[]{1});
+
+        dispatcher.publish(InvalidationEvent.forEntry(dir, "foo"));
+        dispatcher.flush();
+
+        InvalidationEvent event = batches.get(0).iterator().next();
+        assertEquals(dir, event.getInode());
+        assertEquals("foo", event.getName());
+    }
+
+    @Test
+    public void testPublishAfterCloseDropped() {
+        Inode dir = Inode.forFile(new byte[]{1});
+
+        dispatcher.publish(InvalidationEvent.forInode(dir));
+        dispatcher.close();
+        assertEquals(1, batches.size());
+
+        dispatcher.publish(InvalidationEvent.forEntry(dir, "foo"));
+        dispatcher.flush();
+        assertEquals(1, batches.size());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class OffHeapStoreTest {
+
+    private AtomicLong clock;
+    private OffHeapStore store;
+
+    @Before
+    public void setUp() {
+        clock = new AtomicLong();
+        // 16 segments with 64 slots each
+        store = new OffHeapStore(32, 16, 16 * 64 * 80, 100, clock::get);
+    }
+
+    @Test
+    public void testPutGet() {
+        store.put(bytes("foo"), bytes("bar"));
+        assertArrayEquals(bytes("bar"), store.get(bytes("foo")));
+        assertNull(store.get(bytes("bar")));
+    }
+
+    @Test
+    public void testReplace() {
+        store.put(bytes("foo"), bytes("bar"));
+        store.put(bytes("foo"), bytes("baz"));
+        assertArrayEquals(bytes("baz"), store.get(bytes("foo")));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testRemove() {
+        store.put(bytes("foo"), bytes("bar"));
+        store.remove(bytes("foo"));
+        assertNull(store.get(bytes("foo")));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testTooBigNotStored() {
+        assertFalse(store.put(new byte[33], bytes("bar")));
+        assertFalse(store.put(bytes("foo"), new byte[17]));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testExpire() {
+        store.put(bytes("foo"), bytes("bar"));
+        clock.addAndGet(101);
+        assertNull(store.get(bytes("foo")));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testUpdate() {
+        store.put(bytes("foo"), bytes("bar"));
+        store.update(bytes("foo"), v -> bytes("baz"));
+        store.update(bytes("bar"), v -> bytes("baz"));
+        assertArrayEquals(bytes("baz"), store.get(bytes("foo")));
+        assertNull(store.get(bytes("bar")));
+    }
+
+    @Test
+    public void testBoundedByBudget() {
+        for (int i = 0; i < 10000; i++) {
+            store.put(bytes("key" + i), bytes("value" + i));
+        }
+        assertTrue(store.size() <= 16 * 64);
+        assertTrue(store.evictionCount() > 0);
+        assertArrayEquals(bytes("value9999"), store.get(bytes("key9999")));
+    }
+
+    @Test
+    public void testAllEntriesReachableAfterRemoves() {
+        for (int i = 0; i < 500; i++) {
+            store.put(bytes("key" + i), bytes("value" + i));
+        }
+        for (int i = 0; i < 500; i += 3) {
+            store.remove(bytes("key" + i));
+        }
+        for (int i = 0; i < 500; i++) {
+            byte[] value = store.get(bytes("key" + i));
+            if (i % 3 == 0) {
+                assertNull(value);
+            } else {
+                assertArrayEquals(bytes("value" + i), value);
+            }
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.io.IOException;
+import org.dcache.nfs.status.NoEntException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class OffHeapVfsCacheTest {
+
+    private VirtualFileSystem vfs;
+    private OffHeapVfsCache vfsCache;
+    private Inode parent;
+    private Inode child;
+
+    @Before
+    public void setUp() {
+        vfs = mock(VirtualFileSystem.class);
+        parent = Inode.forFile(new byte[]{1});
+        child = Inode.forFile(new byte[]{2});
+
+        VfsCacheConfig cacheConfig = new VfsCacheConfig();
+        cacheConfig.setLifeTime(60);
+        cacheConfig.setOffHeapMaxBytes(1024 * 1024);
+
+        vfsCache = new OffHeapVfsCache(vfs, cacheConfig);
+    }
+
+    @Test
+    public void testLookupCached() throws IOException {
+        when(vfs.lookup(parent, "foo")).thenReturn(child);
+
+        assertEquals(child, vfsCache.lookup(parent, "foo"));
+        assertEquals(child, vfsCache.lookup(parent, "foo"));
+        verify(vfs, times(1)).lookup(parent, "foo");
+    }
+
+    @Test(expected = NoEntException.class)
+    public void testLookupInvalidatedByRemove() throws IOException {
+        when(vfs.lookup(parent, "foo")).thenReturn(child).thenThrow(new NoEntException());
+
+        vfsCache.lookup(parent, "foo");
+        vfsCache.remove(parent, "foo");
+        vfsCache.lookup(parent, "foo");
+    }
+
+    @Test
+    public void testStatCached() throws IOException {
+        Stat stat = new Stat();
+        stat.setMode(0100644);
+        stat.setSize(17);
+        stat.setMTime(1);
+        stat.setGeneration(1);
+
+        when(vfs.getattr(child)).thenReturn(stat);
+
+        vfsCache.getattr(child);
+        Stat cached = vfsCache.getattr(child);
+
+        verify(vfs, times(1)).getattr(child);
+        assertEquals(0100644, cached.getMode());
+        assertEquals(17, cached.getSize());
+        assertEquals(1, cached.getMTime());
+        assertFalse(cached.isDefined(Stat.StatAttribute.OWNER));
+    }
+
+    @Test
+    public void testWriteUpdatesCachedStat() throws IOException {
+        Stat stat = new Stat();
+        stat.setSize(10);
+        stat.setMTime(0);
+        stat.setGeneration(1);
+
+        when(vfs.getattr(child)).thenReturn(stat);
+        when(vfs.write(eq(child), any(byte[].class), eq(10L), eq(5), any(VirtualFileSystem.StabilityLevel.class)))
+                .thenReturn(new VirtualFileSystem.WriteResult(VirtualFileSystem.StabilityLevel.UNSTABLE, 5));
+
+        vfsCache.getattr(child);
+        vfsCache.write(child, new byte[5], 10, 5, VirtualFileSystem.StabilityLevel.UNSTABLE);
+        Stat updated = vfsCache.getattr(child);
+
+        verify(vfs, times(1)).getattr(child);
+        assertEquals(15, updated.getSize());
+        assertEquals(2, updated.getGeneration());
+    }
+
+    @Test
+    public void testSetattrInvalidatesStat() throws IOException {
+        when(vfs.getattr(child)).thenReturn(new Stat());
+
+        vfsCache.getattr(child);
+        vfsCache.setattr(child, new Stat());
+        vfsCache.getattr(child);
+
+        verify(vfs, times(2)).getattr(child);
+    }
+}
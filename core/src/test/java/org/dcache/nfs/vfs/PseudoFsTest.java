@@ -21,6 +21,10 @@ package org.dcache.nfs.vfs;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 import org.dcache.auth.Subjects;
 import org.dcache.nfs.ExportFile;
@@ -35,6 +39,7 @@ import org.dcache.oncrpc4j.rpc.gss.RpcAuthGss;
 import org.dcache.oncrpc4j.rpc.gss.RpcGssService;
 import org.junit.Test;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 import static org.mockito.BDDMockito.given;
 
@@ -222,4 +227,129 @@ public class PseudoFsTest {
         pseudoFs = new PseudoFs(mockedFs, mockedRpc, mockedExportFile);
         pseudoFs.getattr(inode);
     }
+
+    @Test
+    public void testAccessDecisionReusedWithinRequest() throws IOException {
+
+        givenOwnerOnRwExport();
+
+        pseudoFs = new PseudoFs(mockedFs, mockedRpc, mockedExportFile);
+        pseudoFs.read(inode, new byte[1], 0, 1);
+        pseudoFs.read(inode, new byte[1], 0, 1);
+
+        verify(mockedFs, times(1)).getattr(inode);
+    }
+
+    @Test
+    public void testAccessDecisionSharedBetweenRequests() throws IOException {
+
+        givenOwnerOnRwExport();
+        AccessDecisionCache accessCache = new AccessDecisionCache();
+
+        new PseudoFs(mockedFs, mockedRpc, mockedExportFile, null, accessCache)
+                .read(inode, new byte[1], 0, 1);
+        new PseudoFs(mockedFs, mockedRpc, mockedExportFile, null, accessCache)
+                .read(inode, new byte[1], 0, 1);
+
+        verify(mockedFs, times(1)).getattr(inode);
+    }
+
+    @Test
+    public void testAccessDecisionInvalidatedOnSetattr() throws IOException {
+
+        givenOwnerOnRwExport();
+        AccessDecisionCache accessCache = new AccessDecisionCache();
+
+        pseudoFs = new PseudoFs(mockedFs, mockedRpc, mockedExportFile, null, accessCache);
+        pseudoFs.read(inode, new byte[1], 0, 1);
+
+        Stat stat = new Stat();
+        stat.setMode(0600);
+        pseudoFs.setattr(inode, stat);
+
+        new PseudoFs(mockedFs, mockedRpc, mockedExportFile, null, accessCache)
+                .read(inode, new byte[1], 0, 1);
+
+        // read, setattr and read after setattr
+        verify(mockedFs, times(3)).getattr(inode);
+    }
+
+    @Test
+    public void testAsyncAccessCheckDoesNotBlock() throws IOException {
+
+        givenOwnerOnRwExport();
+        AsyncVirtualFileSystem asyncFs = mock(AsyncVirtualFileSystem.class);
+        CompletableFuture<Stat> attrs = new CompletableFuture<>();
+        ByteBuffer data = ByteBuffer.allocate(1);
+        given(asyncFs.getattr(inode)).willReturn(attrs);
+        given(asyncFs.read(inode, data, 0)).willReturn(CompletableFuture.completedFuture(1));
+
+        pseudoFs = new PseudoFs(mockedFs, mockedRpc, mockedExportFile);
+        CompletableFuture<Integer> read = pseudoFs.asyncView(asyncFs, Runnable::run)
+                .read(inode, data, 0).toCompletableFuture();
+
+        assertFalse(read.isDone());
+        verify(asyncFs, never()).read(inode, data, 0);
+        verify(mockedFs, never()).getattr(inode);
+
+        Stat stat = new Stat();
+        stat.setMode(0700 | Stat.S_IFREG);
+        stat.setUid(1);
+        stat.setGid(1);
+        attrs.complete(stat);
+
+        assertEquals(1, read.join().intValue());
+    }
+
+    @Test
+    public void testAsyncPseudoLookupOffloaded() throws IOException {
+
+        givenOwnerOnRwExport();
+        given(mockedExport.getPath()).willReturn("/data");
+        given(mockedExport.getIndex()).willReturn(1);
+        given(mockedExportFile.exportsFor(localAddress.getAddress())).willAnswer(i -> Stream.of(mockedExport));
+
+        Inode root = Inode.forFile(new byte[]{0});
+        Inode pseudoRoot = new Inode(new FileHandle.FileHandleBuilder()
+                .setExportIdx(0)
+                .setType(1)
+                .build(root.getFileId()));
+        given(mockedFs.getRootInode()).willReturn(root);
+        given(mockedFs.lookup(pseudoRoot, "data")).willReturn(Inode.forFile(new byte[]{1}));
+
+        Stat stat = new Stat();
+        stat.setMode(0755 | Stat.S_IFDIR);
+        stat.setUid(0);
+        stat.setGid(0);
+        AsyncVirtualFileSystem asyncFs = mock(AsyncVirtualFileSystem.class);
+        given(asyncFs.getattr(pseudoRoot)).willReturn(CompletableFuture.completedFuture(stat));
+
+        Queue<Runnable> executor = new ArrayDeque<>();
+        pseudoFs = new PseudoFs(mockedFs, mockedRpc, mockedExportFile);
+        CompletableFuture<Inode> lookup = pseudoFs.asyncView(asyncFs, executor::add)
+                .lookup(pseudoRoot, "data").toCompletableFuture();
+
+        // export tree is built by the executor, not by the calling thread
+        assertFalse(lookup.isDone());
+        verify(mockedFs, never()).lookup(any(Inode.class), anyString());
+
+        executor.forEach(Runnable::run);
+        assertEquals(1, lookup.join().exportIndex());
+    }
+
+    private void givenOwnerOnRwExport() {
+
+        given(mockedTransport.getRemoteSocketAddress()).willReturn(localAddress);
+        given(mockedAuth.getSubject()).willReturn(Subjects.of(1, 1));
+        given(mockedAuth.type()).willReturn(RpcAuthType.UNIX);
+        given(mockedRpc.getTransport()).willReturn(mockedTransport);
+        given(mockedRpc.getCredential()).willReturn(mockedAuth);
+
+        given(mockedExport.ioMode()).willReturn(FsExport.IO.RW);
+        given(mockedExport.isTrusted()).willReturn(true);
+        given(mockedExport.checkAcls()).willReturn(false);
+        given(mockedExport.getSec()).willReturn(FsExport.Sec.NONE);
+
+        given(mockedExportFile.getExport(1, localAddress.getAddress())).willReturn(mockedExport);
+    }
 }
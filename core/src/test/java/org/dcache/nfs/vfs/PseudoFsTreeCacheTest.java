@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.dcache.nfs.FsExport;
+import org.dcache.nfs.status.AccessException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.*;
+
+public class PseudoFsTreeCacheTest {
+
+    private PseudoFsTreeCache treeCache;
+    private Callable<Set<PseudoFsNode>> builder;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        treeCache = new PseudoFsTreeCache(10, 1, TimeUnit.MINUTES);
+        builder = mock(Callable.class);
+        given(builder.call()).willReturn(Collections.singleton(new PseudoFsNode(Inode.forFile(new byte[]{1}))));
+    }
+
+    @Test
+    public void testSameExportsShareTree() throws Exception {
+        FsExport export = mock(FsExport.class);
+
+        Set<PseudoFsNode> tree1 = treeCache.get(Arrays.asList(export), builder);
+        Set<PseudoFsNode> tree2 = treeCache.get(Arrays.asList(export), builder);
+
+        assertSame(tree1, tree2);
+        verify(builder, times(1)).call();
+    }
+
+    @Test
+    public void testNewExportsBuildNewTree() throws Exception {
+        List<FsExport> beforeRescan = Arrays.asList(mock(FsExport.class));
+        List<FsExport> afterRescan = Arrays.asList(mock(FsExport.class));
+
+        treeCache.get(beforeRescan, builder);
+        treeCache.get(afterRescan, builder);
+
+        verify(builder, times(2)).call();
+    }
+
+    @Test(expected = AccessException.class)
+    public void testBuildErrorPropagated() throws Exception {
+        given(builder.call()).willThrow(new AccessException());
+        treeCache.get(Arrays.asList(mock(FsExport.class)), builder);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class ReadAheadFsTest {
+
+    private static final int CHUNK = 1024;
+    private static final int FILE_SIZE = 16 * CHUNK;
+
+    private VirtualFileSystem vfs;
+    private ReadAheadFs readAheadFs;
+    private Inode inode;
+    private long fileSize;
+
+    @Before
+    public void setUp() throws IOException {
+        vfs = mock(VirtualFileSystem.class);
+        inode = Inode.forFile(new byte[]{1, 2, 3, 4});
+        fileSize = FILE_SIZE;
+
+        when(vfs.read(any(Inode.class), any(ByteBuffer.class), anyLong())).thenAnswer(invocation -> {
+            ByteBuffer data = (ByteBuffer) invocation.getArguments()[1];
+            long offset = (Long) invocation.getArguments()[2];
+            int n = 0;
+            while (data.hasRemaining() && offset + n < fileSize) {
+                data.put(valueAt(offset + n));
+                n++;
+            }
+            return n;
+        });
+
+        readAheadFs = new ReadAheadFs(vfs, Runnable::run, CHUNK, 4 * CHUNK, 64 * CHUNK);
+    }
+
+    @Test
+    public void testSequentialReadServedFromCache() throws IOException {
+
+        for (long offset = 0; offset < FILE_SIZE; offset += CHUNK) {
+            assertRead(offset, CHUNK, CHUNK);
+        }
+
+        // three direct reads, then one request per remaining chunk and one hitting end-of-file
+        verify(vfs, times(FILE_SIZE / CHUNK + 1)).read(eq(inode), any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void testReadBeyondEndOfFile() throws IOException {
+
+        for (long offset = 0; offset < FILE_SIZE; offset += CHUNK) {
+            assertRead(offset, CHUNK, CHUNK);
+        }
+        assertRead(FILE_SIZE, CHUNK, 0);
+    }
+
+    @Test
+    public void testNoReadAheadOnRandomAccess() throws IOException {
+
+        assertRead(8 * CHUNK, CHUNK, CHUNK);
+        assertRead(2 * CHUNK, CHUNK, CHUNK);
+        assertRead(12 * CHUNK, CHUNK, CHUNK);
+        assertRead(0, CHUNK, CHUNK);
+
+        verify(vfs, times(4)).read(eq(inode), any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void testWriteInvalidatesPrefetchedData() throws IOException {
+
+        assertRead(0, CHUNK, CHUNK);
+        assertRead(CHUNK, CHUNK, CHUNK);
+        assertRead(2 * CHUNK, CHUNK, CHUNK);
+
+        byte[] update = new byte[CHUNK];
+        readAheadFs.write(inode, update, 3 * CHUNK, CHUNK, VirtualFileSystem.StabilityLevel.UNSTABLE);
+        verify(vfs).write(inode, update, 3 * CHUNK, CHUNK, VirtualFileSystem.StabilityLevel.UNSTABLE);
+
+        readAheadFs.read(inode, new byte[CHUNK], 3 * CHUNK, CHUNK);
+        verify(vfs, times(2)).read(eq(inode), any(ByteBuffer.class), eq(3L * CHUNK));
+    }
+
+    @Test
+    public void testRejectedPrefetch() throws IOException {
+
+        readAheadFs = new ReadAheadFs(vfs, r -> {
+            throw new RejectedExecutionException();
+        }, CHUNK, 4 * CHUNK, 64 * CHUNK);
+
+        for (long offset = 0; offset < FILE_SIZE; offset += CHUNK) {
+            assertRead(offset, CHUNK, CHUNK);
+        }
+        verify(vfs, times(FILE_SIZE / CHUNK)).read(eq(inode), any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void testReadAfterFileExtended() throws IOException {
+
+        for (long offset = 0; offset < FILE_SIZE; offset += CHUNK) {
+            assertRead(offset, CHUNK, CHUNK);
+        }
+
+        // file extended by other client, prefetched end-of-file must not stick
+        fileSize = FILE_SIZE + CHUNK;
+        assertRead(FILE_SIZE, CHUNK, CHUNK);
+    }
+
+    @Test
+    public void testShortChunkNotEndOfFile() throws IOException {
+
+        fileSize = FILE_SIZE - CHUNK / 2;
+        for (long offset = 0; offset < FILE_SIZE - CHUNK; offset += CHUNK) {
+            assertRead(offset, CHUNK, CHUNK);
+        }
+
+        fileSize = FILE_SIZE;
+        assertRead(FILE_SIZE - CHUNK, CHUNK, CHUNK);
+    }
+
+    @Test
+    public void testReadNotBlockedByInFlightPrefetch() throws IOException {
+
+        List<Runnable> inFlight = new ArrayList<>();
+        readAheadFs = new ReadAheadFs(vfs, inFlight::add, CHUNK, 4 * CHUNK, 64 * CHUNK);
+
+        for (long offset = 0; offset < FILE_SIZE; offset += CHUNK) {
+            assertRead(offset, CHUNK, CHUNK);
+        }
+        assertFalse(inFlight.isEmpty());
+        verify(vfs, times(FILE_SIZE / CHUNK)).read(eq(inode), any(ByteBuffer.class), anyLong());
+    }
+
+    private void assertRead(long offset, int count, int expected) throws IOException {
+        byte[] data = new byte[count];
+        int n = readAheadFs.read(inode, data, offset, count);
+        assertEquals(expected, n);
+        for (int i = 0; i < n; i++) {
+            assertEquals("Invalid data at offset " + (offset + i), valueAt(offset + i), data[i]);
+        }
+    }
+
+    private static byte valueAt(long offset) {
+        return (byte) (offset % 251);
+    }
+}
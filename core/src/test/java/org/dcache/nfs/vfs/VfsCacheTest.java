@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.dcache.nfs.status.NoEntException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class VfsCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private VirtualFileSystem vfs;
+    private VfsCache vfsCache;
+    private Inode parent;
+    private Inode child;
+
+    @Before
+    public void setUp() throws IOException {
+        vfs = mock(VirtualFileSystem.class);
+        parent = Inode.forFile(new byte[]{1});
+        child = Inode.forFile(new byte[]{2});
+
+        VfsCacheConfig cacheConfig = new VfsCacheConfig();
+        cacheConfig.setMaxEntries(10);
+        cacheConfig.setLifeTime(1);
+        cacheConfig.setTimeUnit(TimeUnit.MINUTES);
+        cacheConfig.setNegativeLookupLifeTime(1);
+        cacheConfig.setNegativeLookupLifeTimeUnit(TimeUnit.MINUTES);
+
+        vfsCache = new VfsCache(vfs, cacheConfig);
+    }
+
+    @Test
+    public void testFailedLookupCached() throws IOException {
+
+        when(vfs.lookup(parent, "foo")).thenThrow(new NoEntException());
+
+        assertNoEnt("foo");
+        assertNoEnt("foo");
+
+        verify(vfs, times(1)).lookup(parent, "foo");
+    }
+
+    @Test
+    public void testFailedLookupInvalidatedByCreate() throws IOException {
+
+        when(vfs.lookup(parent, "foo")).thenThrow(new NoEntException());
+        when(vfs.create(eq(parent), any(Stat.Type.class), eq("foo"), any(), anyInt())).thenReturn(child);
+
+        assertNoEnt("foo");
+        vfsCache.create(parent, Stat.Type.REGULAR, "foo", null, 0644);
+
+        assertEquals(child, vfsCache.lookup(parent, "foo"));
+    }
+
+    @Test
+    public void testFailedLookupInvalidatedByMove() throws IOException {
+
+        when(vfs.lookup(parent, "foo")).thenThrow(new NoEntException()).thenReturn(child);
+        when(vfs.move(parent, "bar", parent, "foo")).thenReturn(true);
+
+        assertNoEnt("foo");
+        vfsCache.move(parent, "bar", parent, "foo");
+
+        assertEquals(child, vfsCache.lookup(parent, "foo"));
+    }
+
+    @Test
+    public void testWriteUpdatesCachedStat() throws IOException {
+
+        Stat stat = new Stat();
+        stat.setSize(10);
+        stat.setMTime(0);
+        stat.setCTime(0);
+        stat.setGeneration(1);
+
+        when(vfs.getattr(child)).thenReturn(stat);
+        when(vfs.write(eq(child), any(byte[].class), eq(10L), eq(5), any(VirtualFileSystem.StabilityLevel.class)))
+                .thenReturn(new VirtualFileSystem.WriteResult(VirtualFileSystem.StabilityLevel.UNSTABLE, 5));
+
+        vfsCache.getattr(child);
+        vfsCache.write(child, new byte[5], 10, 5, VirtualFileSystem.StabilityLevel.UNSTABLE);
+        Stat updated = vfsCache.getattr(child);
+
+        verify(vfs, times(1)).getattr(child);
+        assertEquals(15, updated.getSize());
+        assertEquals(2, updated.getGeneration());
+        assertTrue(updated.getMTime() > 0);
+        assertEquals(10, stat.getSize());
+    }
+
+    @Test
+    public void testSnapshotRestore() throws IOException {
+
+        Path snapshot = givenSnapshot();
+
+        Stat stat = new Stat();
+        stat.setSize(17);
+        stat.setMode(0100644);
+
+        VirtualFileSystem restartedVfs = mock(VirtualFileSystem.class);
+        when(restartedVfs.lookup(parent, "foo")).thenReturn(child);
+        when(restartedVfs.getattr(child)).thenReturn(stat);
+
+        VfsCache restarted = new VfsCache(restartedVfs, refreshAheadConfig());
+
+        assertEquals(2, restarted.loadSnapshot(snapshot));
+        assertEquals(child, restarted.lookup(parent, "foo"));
+        assertEquals(17, restarted.getattr(child).getSize());
+
+        // restored entries are revalidated once
+        restarted.lookup(parent, "foo");
+        restarted.getattr(child);
+        verify(restartedVfs, timeout(1000).times(1)).lookup(parent, "foo");
+        verify(restartedVfs, timeout(1000).times(1)).getattr(child);
+    }
+
+    @Test
+    public void testSnapshotEntryDiscardedIfRevalidationFails() throws Exception {
+
+        Path snapshot = givenSnapshot();
+
+        VirtualFileSystem restartedVfs = mock(VirtualFileSystem.class);
+        when(restartedVfs.lookup(parent, "foo")).thenThrow(new NoEntException());
+
+        VfsCache restarted = new VfsCache(restartedVfs, refreshAheadConfig());
+        restarted.loadSnapshot(snapshot);
+
+        // served from snapshot while revalidated in the background
+        assertEquals(child, restarted.lookup(parent, "foo"));
+        verify(restartedVfs, timeout(1000)).lookup(parent, "foo");
+
+        for (int i = 0; i < 100; i++) {
+            try {
+                restarted.lookup(parent, "foo");
+                TimeUnit.MILLISECONDS.sleep(10);
+            } catch (NoEntException e) {
+                return;
+            }
+        }
+        fail("Removed object still served from snapshot");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSnapshotRequiresRefreshAhead() throws IOException {
+        Path snapshot = givenSnapshot();
+        new VfsCache(mock(VirtualFileSystem.class), vfsCacheConfig()).loadSnapshot(snapshot);
+    }
+
+    private Path givenSnapshot() throws IOException {
+
+        Stat stat = new Stat();
+        stat.setSize(17);
+        stat.setMode(0100644);
+
+        when(vfs.lookup(parent, "foo")).thenReturn(child);
+        when(vfs.getattr(child)).thenReturn(stat);
+
+        vfsCache.lookup(parent, "foo");
+        vfsCache.getattr(child);
+
+        Path snapshot = tempFolder.getRoot().toPath().resolve("vfs-cache.snapshot");
+        vfsCache.writeSnapshot(snapshot);
+        return snapshot;
+    }
+
+    private static VfsCacheConfig vfsCacheConfig() {
+        VfsCacheConfig cacheConfig = new VfsCacheConfig();
+        cacheConfig.setMaxEntries(10);
+        cacheConfig.setLifeTime(1);
+        cacheConfig.setTimeUnit(TimeUnit.MINUTES);
+        return cacheConfig;
+    }
+
+    private static VfsCacheConfig refreshAheadConfig() {
+        VfsCacheConfig cacheConfig = vfsCacheConfig();
+        cacheConfig.setRefreshTime(1);
+        cacheConfig.setRefreshTimeUnit(TimeUnit.MINUTES);
+        return cacheConfig;
+    }
+
+    @Test
+    public void testExternalInvalidation() throws IOException {
+
+        when(vfs.lookup(parent, "foo")).thenReturn(child);
+        when(vfs.getattr(child)).thenReturn(new Stat());
+
+        vfsCache.lookup(parent, "foo");
+        vfsCache.getattr(child);
+
+        vfsCache.invalidate(Arrays.asList(
+                InvalidationEvent.forEntry(parent, "foo"),
+                InvalidationEvent.forInode(child)));
+
+        vfsCache.lookup(parent, "foo");
+        vfsCache.getattr(child);
+
+        verify(vfs, times(2)).lookup(parent, "foo");
+        verify(vfs, times(2)).getattr(child);
+    }
+
+    private void assertNoEnt(String name) throws IOException {
+        try {
+            vfsCache.lookup(parent, name);
+            fail("NoEntException expected");
+        } catch (NoEntException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.dcache.nfs.status.NfsIoException;
+import org.dcache.nfs.vfs.VirtualFileSystem.StabilityLevel;
+import org.dcache.nfs.vfs.VirtualFileSystem.WriteResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class WriteBehindFsTest {
+
+    private VirtualFileSystem vfs;
+    private WriteBehindFs writeBehindFs;
+    private Inode inode;
+
+    @Before
+    public void setUp() throws IOException {
+        vfs = mock(VirtualFileSystem.class);
+        inode = Inode.forFile(new byte[]{1, 2, 3, 4});
+
+        when(vfs.write(any(Inode.class), any(ByteBuffer.class), anyLong(), any(StabilityLevel.class))).thenAnswer(invocation -> {
+            ByteBuffer data = (ByteBuffer) invocation.getArguments()[1];
+            StabilityLevel stabilityLevel = (StabilityLevel) invocation.getArguments()[3];
+            int n = data.remaining();
+            data.position(data.limit());
+            return new WriteResult(stabilityLevel, n);
+        });
+
+        writeBehindFs = new WriteBehindFs(vfs, 4096, 16384);
+    }
+
+    @Test
+    public void testUnstableWriteBuffered() throws IOException {
+
+        WriteResult result = writeBehindFs.write(inode, new byte[1024], 0, 1024, StabilityLevel.UNSTABLE);
+
+        assertEquals(StabilityLevel.UNSTABLE, result.getStabilityLevel());
+        assertEquals(1024, result.getBytesWritten());
+        assertEquals(1024, writeBehindFs.getBufferedBytes());
+        verify(vfs, never()).write(any(Inode.class), any(ByteBuffer.class), anyLong(), any(StabilityLevel.class));
+    }
+
+    @Test
+    public void testCommitFlushesCoalescedWrites() throws IOException {
+
+        writeBehindFs.write(inode, new byte[1024], 0, 1024, StabilityLevel.UNSTABLE);
+        writeBehindFs.write(inode, new byte[1024], 1024, 1024, StabilityLevel.UNSTABLE);
+        writeBehindFs.commit(inode, 0, 0);
+
+        ArgumentCaptor<ByteBuffer> captor = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify(vfs).write(eq(inode), captor.capture(), eq(0L), eq(StabilityLevel.UNSTABLE));
+        assertEquals(2048, captor.getValue().capacity());
+        verify(vfs).commit(inode, 0, 0);
+        assertEquals(0, writeBehindFs.getBufferedBytes());
+    }
+
+    @Test
+    public void testStableWriteFlushesBufferedData() throws IOException {
+
+        writeBehindFs.write(inode, new byte[1024], 0, 1024, StabilityLevel.UNSTABLE);
+        WriteResult result = writeBehindFs.write(inode, new byte[1024], 0, 1024, StabilityLevel.FILE_SYNC);
+
+        assertEquals(StabilityLevel.FILE_SYNC, result.getStabilityLevel());
+        verify(vfs).write(eq(inode), any(ByteBuffer.class), eq(0L), eq(StabilityLevel.UNSTABLE));
+        verify(vfs).write(eq(inode), any(ByteBuffer.class), eq(0L), eq(StabilityLevel.FILE_SYNC));
+    }
+
+    @Test
+    public void testFlushOnMemoryPressure() throws IOException {
+
+        for (int i = 0; i < 17; i++) {
+            writeBehindFs.write(inode, new byte[1024], i * 4096, 1024, StabilityLevel.UNSTABLE);
+        }
+
+        verify(vfs, times(17)).write(eq(inode), any(ByteBuffer.class), anyLong(), eq(StabilityLevel.UNSTABLE));
+        assertEquals(0, writeBehindFs.getBufferedBytes());
+    }
+
+    @Test
+    public void testGetattrReportsBufferedSize() throws IOException {
+
+        Stat stat = new Stat();
+        stat.setSize(0);
+        when(vfs.getattr(inode)).thenReturn(stat);
+
+        writeBehindFs.write(inode, new byte[1024], 1024, 1024, StabilityLevel.UNSTABLE);
+
+        assertEquals(2048, writeBehindFs.getattr(inode).getSize());
+        assertEquals(0, stat.getSize());
+    }
+
+    @Test
+    public void testVerifierChangedOnLostData() throws IOException {
+
+        long verifier = writeBehindFs.getWriteVerifier();
+        when(vfs.write(any(Inode.class), any(ByteBuffer.class), anyLong(), any(StabilityLevel.class)))
+                .thenThrow(new NfsIoException());
+
+        writeBehindFs.write(inode, new byte[1024], 0, 1024, StabilityLevel.UNSTABLE);
+        try {
+            writeBehindFs.commit(inode, 0, 0);
+            fail("Commit must fail if buffered data can't be written");
+        } catch (NfsIoException e) {
+            // expected
+        }
+
+        assertNotEquals(verifier, writeBehindFs.getWriteVerifier());
+    }
+
+    @Test
+    public void testWriteReturnsVerifierOfBufferedData() throws IOException {
+
+        long verifier = writeBehindFs.getWriteVerifier();
+        when(vfs.write(any(Inode.class), any(ByteBuffer.class), anyLong(), any(StabilityLevel.class)))
+                .thenThrow(new NfsIoException());
+
+        WriteResult result = null;
+        for (int i = 0; i < 17; i++) {
+            result = writeBehindFs.write(inode, new byte[1024], i * 4096, 1024, StabilityLevel.UNSTABLE);
+        }
+
+        // the last write was lost by a flush on memory pressure
+        assertEquals(verifier, result.getWriteVerifier().getAsLong());
+        assertNotEquals(verifier, writeBehindFs.getWriteVerifier());
+    }
+
+    @Test
+    public void testCommitWaitsForFlushInProgress() throws Exception {
+
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(vfs.write(any(Inode.class), any(ByteBuffer.class), anyLong(), any(StabilityLevel.class))).thenAnswer(invocation -> {
+            writing.countDown();
+            release.await();
+            ByteBuffer data = (ByteBuffer) invocation.getArguments()[1];
+            int n = data.remaining();
+            data.position(data.limit());
+            return new WriteResult(StabilityLevel.UNSTABLE, n);
+        });
+
+        writeBehindFs.write(inode, new byte[1024], 0, 1024, StabilityLevel.UNSTABLE);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = executor.submit(() -> {
+                writeBehindFs.commit(inode, 0, 0);
+                return null;
+            });
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+            Future<?> second = executor.submit(() -> {
+                writeBehindFs.commit(inode, 0, 0);
+                return null;
+            });
+
+            // the second commit must not pass by data being written
+            TimeUnit.MILLISECONDS.sleep(100);
+            verify(vfs, never()).commit(inode, 0, 0);
+            assertFalse(second.isDone());
+
+            release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+            verify(vfs, times(2)).commit(inode, 0, 0);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCommitFailsIfFlushInProgressFails() throws Exception {
+
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(vfs.write(any(Inode.class), any(ByteBuffer.class), anyLong(), any(StabilityLevel.class))).thenAnswer(invocation -> {
+            writing.countDown();
+            release.await();
+            throw new NfsIoException();
+        });
+
+        writeBehindFs.write(inode, new byte[1024], 0, 1024, StabilityLevel.UNSTABLE);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = executor.submit(() -> {
+                writeBehindFs.commit(inode, 0, 0);
+                return null;
+            });
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+            Future<?> second = executor.submit(() -> {
+                writeBehindFs.commit(inode, 0, 0);
+                return null;
+            });
+            TimeUnit.MILLISECONDS.sleep(100);
+            release.countDown();
+
+            for (Future<?> commit : Arrays.asList(first, second)) {
+                try {
+                    commit.get(5, TimeUnit.SECONDS);
+                    fail("Commit must fail if buffered data can't be written");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof NfsIoException);
+                }
+            }
+            verify(vfs, never()).commit(inode, 0, 0);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.utils;
+
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ByteBufferPoolTest {
+
+    private ByteBufferPool _pool;
+
+    @Before
+    public void setUp() {
+        _pool = new ByteBufferPool("test-pool", 1024 * 1024, 4 * 1024 * 1024, true);
+    }
+
+    @Test
+    public void testAcquireSetsLimit() {
+        ByteBuffer b = _pool.acquire(5000);
+        assertTrue(b.isDirect());
+        assertEquals(0, b.position());
+        assertEquals(5000, b.limit());
+        assertEquals(8192, b.capacity());
+    }
+
+    @Test
+    public void testReuseAfterRelease() {
+        ByteBuffer b = _pool.acquire(5000);
+        assertEquals(1, _pool.getMissCount());
+        assertEquals(8192, _pool.getOutstandingBytes());
+
+        _pool.release(b);
+        assertEquals(0, _pool.getOutstandingBytes());
+        assertEquals(8192, _pool.getPooledBytes());
+
+        ByteBuffer b2 = _pool.acquire(8000);
+        assertSame(b, b2);
+        assertEquals(1, _pool.getHitCount());
+        assertEquals(0, _pool.getPooledBytes());
+    }
+
+    @Test
+    public void testOversizedNotPooled() {
+        ByteBuffer b = _pool.acquire(2 * 1024 * 1024);
+        assertEquals(2 * 1024 * 1024, b.capacity());
+        _pool.release(b);
+        assertEquals(0, _pool.getPooledBytes());
+        assertEquals(0, _pool.getOutstandingBytes());
+    }
+
+    @Test
+    public void testPoolSizeLimit() {
+        ByteBuffer[] buffers = new ByteBuffer[5];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = _pool.acquire(1024 * 1024);
+        }
+        for (ByteBuffer b : buffers) {
+            _pool.release(b);
+        }
+        assertEquals(4 * 1024 * 1024, _pool.getPooledBytes());
+    }
+
+    @Test
+    public void testForeignBufferIgnored() {
+        _pool.release(ByteBuffer.allocateDirect(5000));
+        assertEquals(0, _pool.getPooledBytes());
+    }
+}
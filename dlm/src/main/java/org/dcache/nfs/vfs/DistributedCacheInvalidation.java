@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2009 - 2018 Deutsches Elektronen-Synchroton,
+ * Member of the Helmholtz Association, (DESY), HAMBURG, GERMANY
+ *
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.nfs.vfs;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * An {@link InvalidationListener} which propagates cache invalidation events
+ * to all server nodes connected to the same Hazelcast cluster by using a
+ * distributed {@link ITopic}.
+ *
+ * <p>
+ * Events passed to {@link #invalidate(Collection)} are delivered to the local
+ * listener and published to the topic. Events published by other nodes are
+ * delivered to the local listener only.
+ *
+ * <p>
+ * Example:
+ *
+ * <pre>
+ *   HazelcastInstance hz = ...;
+ *   VfsCache cache = new VfsCache(fs, config);
+ *   InvalidationListener cluster = new DistributedCacheInvalidation(hz, "vfs-cache-invalidation", cache);
+ *   dispatcher.addListener(cluster);
+ * </pre>
+ *
+ * @since 0.18
+ */
+public class DistributedCacheInvalidation implements InvalidationListener {
+
+    /**
+     * Identifies events published by this instance. Publishing member can't be
+     * used for that, as it is not known when connected as Hazelcast client.
+     */
+    private final String origin = UUID.randomUUID().toString();
+
+    private final ITopic<Batch> topic;
+    private final InvalidationListener local;
+
+    /**
+     * Create a new {@code DistributedCacheInvalidation} with a given {@code name}.
+     * All instances with the same name will receive each other's events.
+     *
+     * @param hz reference to Haselcast instance.
+     * @param name name of the topic.
+     * @param local listener which receives events of all nodes.
+     */
+    public DistributedCacheInvalidation(HazelcastInstance hz, String name, InvalidationListener local) {
+        this.local = local;
+        topic = hz.getTopic(name);
+        topic.addMessageListener(this::onMessage);
+    }
+
+    @Override
+    public void invalidate(Collection<InvalidationEvent> events) {
+        local.invalidate(events);
+        topic.publish(new Batch(origin, events));
+    }
+
+    private void onMessage(Message<Batch> message) {
+        Batch batch = message.getMessageObject();
+        if (!origin.equals(batch.origin)) {
+            local.invalidate(batch.events);
+        }
+    }
+
+    /**
+     * Events published by a single node.
+     */
+    private static class Batch implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String origin;
+        private final ArrayList<InvalidationEvent> events;
+
+        Batch(String origin, Collection<InvalidationEvent> events) {
+            this.origin = origin;
+            this.events = new ArrayList<>(events);
+        }
+    }
+}
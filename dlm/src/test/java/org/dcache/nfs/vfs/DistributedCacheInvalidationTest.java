@@ -0,0 +1,86 @@
+package org.dcache.nfs.vfs;
+
+import com.hazelcast.client.HazelcastClient;
+import com.hazelcast.client.config.ClientConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DistributedCacheInvalidationTest {
+
+    private static final String TOPIC = "vfs-cache-invalidation";
+
+    private HazelcastInstance hzServer;
+    private HazelcastInstance hzClient;
+    private List<InvalidationEvent> events1;
+    private List<InvalidationEvent> events2;
+    private InvalidationListener node1;
+    private InvalidationListener node2;
+
+    @Before
+    public void setUp() throws Exception {
+
+        hzServer = Hazelcast.newHazelcastInstance();
+
+        ClientConfig config = new ClientConfig();
+        config.getNetworkConfig().setAddresses(Collections.singletonList(
+                hzServer.getCluster().getLocalMember().getAddress().getHost() +
+                        ":" + hzServer.getCluster().getLocalMember().getAddress().getPort()));
+
+        hzClient = HazelcastClient.newHazelcastClient(config);
+
+        events1 = new CopyOnWriteArrayList<>();
+        events2 = new CopyOnWriteArrayList<>();
+        node1 = new DistributedCacheInvalidation(hzServer, TOPIC, events1::addAll);
+        node2 = new DistributedCacheInvalidation(hzClient, TOPIC, events2::addAll);
+    }
+
+    @Test
+    public void testEventsOfMemberDelivered() throws Exception {
+        assertDeliveredOnce(node1, events1, events2);
+    }
+
+    @Test
+    public void testEventsOfClientDelivered() throws Exception {
+        assertDeliveredOnce(node2, events2, events1);
+    }
+
+    private void assertDeliveredOnce(InvalidationListener publisher,
+            Collection<InvalidationEvent> own, Collection<InvalidationEvent> other) throws Exception {
+
+        InvalidationEvent event = InvalidationEvent.forEntry(Inode.forFile(new byte[]{1}), "foo");
+        publisher.invalidate(Collections.singletonList(event));
+
+        // own events delivered immediately
+        assertEquals(Collections.singletonList(event), own);
+
+        for (int i = 0; i < 100 && other.isEmpty(); i++) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertEquals(Collections.singletonList(event), other);
+
+        // give the topic a chance to deliver the event back to the publisher
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(Collections.singletonList(event), own);
+    }
+
+    @After
+    public void tearDown() {
+        if (hzClient != null) {
+            hzClient.shutdown();
+        }
+        if (hzServer != null) {
+            hzServer.shutdown();
+        }
+    }
+}
@@ -21,7 +21,9 @@ package org.dcache.nfs.v4;
 
 import org.dcache.nfs.ExportFile;
 import org.dcache.nfs.v4.nlm.LockManager;
+import org.dcache.nfs.vfs.AsyncVirtualFileSystem;
 import org.dcache.nfs.vfs.VirtualFileSystem;
+import org.dcache.utils.ByteBufferPool;
 import org.springframework.beans.factory.FactoryBean;
 
 /**
@@ -58,6 +60,10 @@ public class NFSServerV41Factory implements FactoryBean<NFSServerV41> {
         builder.withVfs(vfs);
     }
 
+    public void setAsyncVfs(AsyncVirtualFileSystem asyncVfs) {
+        builder.withAsyncVfs(asyncVfs);
+    }
+
     public void setLockManager(LockManager nlm) {
         builder.withLockManager(nlm);
     }
@@ -70,4 +76,8 @@ public class NFSServerV41Factory implements FactoryBean<NFSServerV41> {
         builder.withStateHandler(stateHandler);
     }
 
+    public void setBufferPool(ByteBufferPool bufferPool) {
+        builder.withBufferPool(bufferPool);
+    }
+
 }